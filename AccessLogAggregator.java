@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts urls per domain and per domain + path in access log files.
+ *
+ * Files are memory-mapped and split into chunks which are processed in
+ * parallel on a fork-join pool. Each line is split on spaces and tabs, url
+ * is the field at configured index, surrounding double quotes are
+ * stripped. Url is parsed in place from the mapped bytes with a reused
+ * URL instance, so no String is created per line. Only the first
+ * occurrence of a domain or path is copied into a String as a key.
+ *
+ * For combined log format, url is field 6 if request line has absolute
+ * urls, e.g. logs of a forward proxy, and referrer is field 10 :
+ *
+ * <pre>
+ * 127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] "GET http://a.com/x HTTP/1.0" 200 2326 "http://b.com/" "Mozilla"
+ * </pre>
+ *
+ * Origin-form request targets, e.g. "/x", have no scheme, they are counted
+ * as rejected along with other malformed urls and lines without the field.
+ *
+ * A chunk is mapped with {@link #MAX_LINE} extra bytes, so a line which
+ * starts in a chunk and is longer than that may be cut at the end of
+ * mapping, such lines are counted as rejected too.
+ */
+public class AccessLogAggregator
+{
+    /**
+     * Max length of a line crossing a chunk end
+     */
+    public static final int MAX_LINE = 64 * 1024;
+
+    /**
+     * Default chunk size, each chunk is a fork-join task
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final int field;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create aggregator running on common pool
+     *
+     * @param field index of url field in a line, zero based
+     */
+    public AccessLogAggregator(int field)
+    {
+        this(field, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param field     index of url field in a line, zero based
+     * @param chunkSize size of chunks processed in parallel
+     * @param pool      pool to run tasks on
+     */
+    public AccessLogAggregator(int field, int chunkSize, ForkJoinPool pool)
+    {
+        if (field < 0) {
+            throw new IllegalArgumentException("Invalid field : " + field);
+        }
+
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE - MAX_LINE - 1) {
+            throw new IllegalArgumentException("Invalid chunk size : " + chunkSize);
+        }
+
+        this.field     = field;
+        this.chunkSize = chunkSize;
+        this.pool      = pool;
+    }
+
+    /**
+     * Aggregate urls in files
+     *
+     * @param files log files
+     * @return      counts of all files
+     * @throws IOException if a file cannot be read
+     */
+    public Result aggregate(Path... files) throws IOException
+    {
+        List<FileChannel> channels = new ArrayList<>();
+        List<Chunk> chunks = new ArrayList<>();
+
+        try {
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+
+                long size = channel.size();
+                for (long start = 0; start < size; start += chunkSize) {
+                    chunks.add(new Chunk(channel, size, start,
+                                         Math.min(size, start + chunkSize)));
+                }
+            }
+
+            if (chunks.isEmpty()) {
+                return new Result();
+            }
+
+            return pool.invoke(new Task(chunks, 0, chunks.size()));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Part of a file, lines starting in [start, end) belong to the chunk
+     */
+    private static final class Chunk
+    {
+        private final FileChannel channel;
+        private final long size;
+        private final long start;
+        private final long end;
+
+        private Chunk(FileChannel channel, long size, long start, long end)
+        {
+            this.channel = channel;
+            this.size    = size;
+            this.start   = start;
+            this.end     = end;
+        }
+    }
+
+    /**
+     * Splits chunk list in halves until a single chunk is left, results
+     * are merged while joining
+     */
+    private final class Task extends RecursiveTask<Result>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        private Task(List<Chunk> chunks, int from, int to)
+        {
+            this.chunks = chunks;
+            this.from   = from;
+            this.to     = to;
+        }
+
+        @Override
+        protected Result compute()
+        {
+            if (to - from == 1) {
+                try {
+                    return process(chunks.get(from));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            int mid = (from + to) >>> 1;
+            Task left = new Task(chunks, from, mid);
+            left.fork();
+
+            Result result = new Task(chunks, mid, to).compute();
+            result.merge(left.join());
+
+            return result;
+        }
+    }
+
+    private Result process(Chunk chunk) throws IOException
+    {
+        Result result = new Result();
+        URL url = new URL(URL.LAZY);
+
+        //Map one byte before chunk to check if chunk starts at a line start
+        long mapStart = chunk.start == 0 ? 0 : chunk.start - 1;
+        long mapEnd = Math.min(chunk.size, chunk.end + MAX_LINE);
+        MappedByteBuffer buf = chunk.channel.map(FileChannel.MapMode.READ_ONLY,
+                                                 mapStart, mapEnd - mapStart);
+
+        int limit = buf.limit();
+        int end = (int) (chunk.end - mapStart);
+        int pos = (int) (chunk.start - mapStart);
+
+        if (chunk.start != 0) {
+            //Line started in previous chunk belongs to it
+            pos = 0;
+            while (pos < limit && buf.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        while (pos < end) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            result.lines++;
+            if (lineEnd == limit && mapStart + limit < chunk.size) {
+                //Line is longer than mapping
+                result.rejected++;
+            }
+            else {
+                processLine(url, buf, pos, lineEnd, result);
+            }
+
+            pos = lineEnd + 1;
+        }
+
+        return result;
+    }
+
+    private void processLine(URL url, ByteBuffer buf, int start, int end,
+                             Result result)
+    {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+
+        int pos = start;
+        int fieldStart = -1;
+        int fieldEnd = -1;
+
+        for (int i = 0; i <= field; i++) {
+            while (pos < end && isSpace(buf.get(pos))) {
+                pos++;
+            }
+
+            fieldStart = pos;
+            while (pos < end && !isSpace(buf.get(pos))) {
+                pos++;
+            }
+            fieldEnd = pos;
+        }
+
+        if (fieldEnd - fieldStart > 0 && buf.get(fieldStart) == '"') {
+            fieldStart++;
+        }
+
+        if (fieldEnd - fieldStart > 0 && buf.get(fieldEnd - 1) == '"') {
+            fieldEnd--;
+        }
+
+        if (fieldEnd == fieldStart ||
+            !url.tryReset(buf, fieldStart, fieldEnd - fieldStart)) {
+            result.rejected++;
+            return;
+        }
+
+        CharSequence domain = url.getDomain();
+        if (domain == null) {
+            domain = "";
+        }
+
+        result.urls++;
+        result.domains.add(domain, "");
+        result.paths.add(domain, url.getPath());
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Counts of an aggregation
+     */
+    public static final class Result
+    {
+        private long lines;
+        private long urls;
+        private long rejected;
+        private final Counter domains = new Counter();
+        private final Counter paths   = new Counter();
+
+        private Result()
+        {
+        }
+
+        private void merge(Result other)
+        {
+            lines    += other.lines;
+            urls     += other.urls;
+            rejected += other.rejected;
+            domains.merge(other.domains);
+            paths.merge(other.paths);
+        }
+
+        /**
+         * @return Count of lines
+         */
+        public long getLines()
+        {
+            return lines;
+        }
+
+        /**
+         * @return Count of parsed urls
+         */
+        public long getUrls()
+        {
+            return urls;
+        }
+
+        /**
+         * @return Count of lines without a valid url
+         */
+        public long getRejected()
+        {
+            return rejected;
+        }
+
+        /**
+         * @return Url count per domain, empty domain for urls without one
+         */
+        public Map<String, Long> getDomainCounts()
+        {
+            return domains.toMap();
+        }
+
+        /**
+         * @return Url count per domain + path, e.g. "example.com/a/b"
+         */
+        public Map<String, Long> getPathCounts()
+        {
+            return paths.toMap();
+        }
+    }
+
+    /**
+     * Open addressing table of counts keyed by concatenation of two char
+     * sequences. Keys are compared by content and copied into a String
+     * only when they are first added. Hash is String.hashCode() of the
+     * concatenation, so merging String keys needs no other hash.
+     */
+    private static final class Counter
+    {
+        private String[] keys = new String[64];
+        private int[] hashes  = new int[64];
+        private long[] counts = new long[64];
+        private int size;
+
+        private void add(CharSequence a, CharSequence b)
+        {
+            int h = 0;
+            for (int i = 0; i < a.length(); i++) {
+                h = 31 * h + a.charAt(i);
+            }
+
+            for (int i = 0; i < b.length(); i++) {
+                h = 31 * h + b.charAt(i);
+            }
+
+            add(a, b, h, 1);
+        }
+
+        private void add(CharSequence a, CharSequence b, int hash, long count)
+        {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+
+            while (keys[i] != null) {
+                if (hashes[i] == hash && matches(keys[i], a, b)) {
+                    counts[i] += count;
+                    return;
+                }
+
+                i = (i + 1) & mask;
+            }
+
+            keys[i]   = new StringBuilder(a.length() + b.length())
+                                .append(a).append(b).toString();
+            hashes[i] = hash;
+            counts[i] = count;
+
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        }
+
+        private static boolean matches(String key, CharSequence a,
+                                       CharSequence b)
+        {
+            int alen = a.length();
+            if (key.length() != alen + b.length()) {
+                return false;
+            }
+
+            for (int i = 0; i < alen; i++) {
+                if (key.charAt(i) != a.charAt(i)) {
+                    return false;
+                }
+            }
+
+            for (int i = 0; i < b.length(); i++) {
+                if (key.charAt(alen + i) != b.charAt(i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private void grow()
+        {
+            String[] oldKeys = keys;
+            int[] oldHashes = hashes;
+            long[] oldCounts = counts;
+
+            keys   = new String[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            counts = new long[oldKeys.length * 2];
+
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != null) {
+                    int i = oldHashes[j] & mask;
+                    while (keys[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+
+                    keys[i]   = oldKeys[j];
+                    hashes[i] = oldHashes[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
+
+        private void merge(Counter other)
+        {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != null) {
+                    add(other.keys[i], "", other.hashes[i], other.counts[i]);
+                }
+            }
+        }
+
+        private Map<String, Long> toMap()
+        {
+            Map<String, Long> map = new HashMap<>(size * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    map.put(keys[i], counts[i]);
+                }
+            }
+
+            return map;
+        }
+    }
+}
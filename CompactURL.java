@@ -0,0 +1,238 @@
+/**
+ * Compact form of a parsed URL for keeping many urls in memory.
+ *
+ * All component boundaries are packed into two longs next to url string,
+ * component views are created only when a getter is called. An instance
+ * is created with {@link URL#compact()}, url is not parsed again.
+ *
+ * Footprint with compressed oops on 64 bit JDK 17, as reported by JOL :
+ *
+ *   CompactURL object      : 32 bytes (12 header, 4 ref, 2 x 8 long)
+ *   String object          : 24 bytes
+ *   String's byte[]        : 16 bytes + url length, 8 bytes aligned
+ *
+ * e.g. "https://www.example.com/search?q=java+url+parser&hl=en#results"
+ * (62 chars) takes 32 + 24 + 80 = 136 bytes in compact form. The same url
+ * as URL instance, after all getters and getQueryItems() are called,
+ * takes 976 bytes (JOL GraphLayout footprint, including the String).
+ *
+ * Boundaries are stored as 20 bits fields, so urls up to 1 MiB - 1 chars
+ * can be stored. Layout :
+ *
+ *   lo : [ 0, 20) scheme end       hi : [ 0, 20) path start
+ *        [20, 40) user-info end         [20, 40) path end
+ *        [40, 60) domain end            [40, 60) query end
+ *        [60, 63) flags                 [60, 62) flags
+ *
+ * Other boundaries are derived from these, e.g. domain starts after
+ * "//" or '@', port starts after domain end and ends at path start.
+ *
+ * Scheme is stored lowercase, an uppercase scheme is lowercased once when
+ * compact form is created, so {@link #toString()} returns url with a
+ * lowercase scheme and getters do not allocate for it.
+ */
+public final class CompactURL
+{
+    static final int MAX_LENGTH = (1 << 20) - 1;
+
+    private static final int FIELD_BITS = 20;
+    private static final long FIELD_MASK = MAX_LENGTH;
+
+    //Flags in lo
+    private static final long HAS_AUTHORITY = 1L << 60;
+    private static final long HAS_USERINFO  = 1L << 61;
+    private static final long HAS_PORT      = 1L << 62;
+
+    //Flags in hi
+    private static final long HAS_QUERY     = 1L << 60;
+    private static final long HAS_FRAGMENT  = 1L << 61;
+
+    private final String url;
+    private final long lo;
+    private final long hi;
+
+    private CompactURL(String url, long lo, long hi)
+    {
+        this.url = url;
+        this.lo  = lo;
+        this.hi  = hi;
+    }
+
+    /**
+     * Pack boundaries, a start of -1 means component does not exist
+     *
+     * @param upperScheme true if scheme in url has uppercase chars
+     * @param portStart   -1 if port does not exist or it is the default
+     *                    port of scheme
+     */
+    static CompactURL of(String url, int schemeEnd, boolean upperScheme,
+                         int domainStart, int userInfoEnd, int domainEnd,
+                         int portStart, int pathStart, int pathEnd,
+                         int queryStart, int queryEnd, int fragmentStart)
+    {
+        if (url.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException(
+                "Url is too long for compact form, length : " + url.length());
+        }
+
+        if (upperScheme) {
+            char[] chars = url.toCharArray();
+            for (int i = 0; i < schemeEnd; i++) {
+                chars[i] = Scheme.toLowerCase(chars[i]);
+            }
+            url = new String(chars);
+        }
+
+        long lo = schemeEnd;
+        long hi = pathStart | ((long) pathEnd << FIELD_BITS);
+
+        if (domainStart != -1) {
+            lo |= HAS_AUTHORITY | ((long) domainEnd << (2 * FIELD_BITS));
+            if (userInfoEnd != -1) {
+                lo |= HAS_USERINFO | ((long) userInfoEnd << FIELD_BITS);
+            }
+            if (portStart != -1) {
+                lo |= HAS_PORT;
+            }
+        }
+
+        if (queryStart != -1) {
+            hi |= HAS_QUERY | ((long) queryEnd << (2 * FIELD_BITS));
+        }
+
+        if (fragmentStart != -1) {
+            hi |= HAS_FRAGMENT;
+        }
+
+        return new CompactURL(url, lo, hi);
+    }
+
+    private static int field(long bits, int index)
+    {
+        return (int) ((bits >>> (index * FIELD_BITS)) & FIELD_MASK);
+    }
+
+    private CharSequence view(int start, int end)
+    {
+        return new URL.CharBuffer(url, start, end);
+    }
+
+    /**
+     * @return    url's scheme, lowercase, the registered {@link Scheme}
+     *            instance if scheme is registered
+     */
+    public CharSequence getScheme()
+    {
+        int end = field(lo, 0);
+        Scheme known = Scheme.lookup(url, 0, end);
+        if (known != null) {
+            return known;
+        }
+
+        return view(0, end);
+    }
+
+    /**
+     * @return    url's userInfo
+     */
+    public CharSequence getUserInfo()
+    {
+        if ((lo & HAS_USERINFO) == 0) {
+            return null;
+        }
+
+        return view(field(lo, 0) + "://".length(), field(lo, 1));
+    }
+
+    /**
+     * @return    url's domain
+     */
+    public CharSequence getDomain()
+    {
+        if ((lo & HAS_AUTHORITY) == 0) {
+            return null;
+        }
+
+        int start = (lo & HAS_USERINFO) != 0 ? field(lo, 1) + 1 :
+                                               field(lo, 0) + "://".length();
+
+        return view(start, field(lo, 2));
+    }
+
+    /**
+     * @return    url's port
+     */
+    public CharSequence getPort()
+    {
+        if ((lo & HAS_PORT) == 0) {
+            return null;
+        }
+
+        return view(field(lo, 2) + 1, field(hi, 0));
+    }
+
+    /**
+     * @return    url's path
+     */
+    public CharSequence getPath()
+    {
+        return view(field(hi, 0), field(hi, 1));
+    }
+
+    /**
+     * @return    url's query
+     */
+    public CharSequence getQuery()
+    {
+        if ((hi & HAS_QUERY) == 0) {
+            return null;
+        }
+
+        return view(field(hi, 1) + 1, field(hi, 2));
+    }
+
+    /**
+     * @return    url's fragment
+     */
+    public CharSequence getFragment()
+    {
+        if ((hi & HAS_FRAGMENT) == 0) {
+            return null;
+        }
+
+        int end = (hi & HAS_QUERY) != 0 ? field(hi, 2) : field(hi, 1);
+
+        return view(end + 1, url.length());
+    }
+
+    /**
+     * Parse url again for the full URL api, e.g. query items
+     *
+     * @return a new URL instance
+     */
+    public URL toURL()
+    {
+        return new URL(url);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof CompactURL && ((CompactURL) o).url.equals(url);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return url.hashCode();
+    }
+
+    /**
+     * @return url, scheme lowercase
+     */
+    @Override
+    public String toString()
+    {
+        return url;
+    }
+}
@@ -0,0 +1,444 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent set of 64-bit url fingerprints stored off-heap, e.g. for
+ * "seen" checks of a crawl frontier, see {@link URL#getFingerprint()}.
+ *
+ * Fingerprints are kept in an open addressing table with linear probing
+ * in direct buffers, 8 bytes per slot, so the set does not add to heap
+ * size or GC work. Table is split into segments of at most 1 GB as a
+ * buffer is limited to 2 GB. Slots are read with acquire semantics and
+ * filled with compare-and-set, so add() and contains() are lock-free.
+ * Zero marks an empty slot, fingerprint 0 is kept in a separate flag.
+ *
+ * Optionally, a blocked Bloom filter is placed in front of the table. A
+ * fingerprint sets all of its bits in a single 64-bit word, so a lookup is
+ * one read of a much smaller structure, and an absent fingerprint usually
+ * does not probe the table, where misses scan until an empty slot. One
+ * word blocks have a higher false positive rate than a classic filter of
+ * the same size, about 3% with 8 bits and 0.4% with 16 bits per entry.
+ *
+ * Capacity is fixed, table has room for expected count at load factor of
+ * 0.75 rounded up to a power of two. Adding beyond capacity throws
+ * IllegalStateException.
+ *
+ * Set can be written to a file with {@link #snapshot(Path)} and opened
+ * with {@link #load(Path)}, which maps the file copy-on-write, so loading
+ * does not read the whole file upfront. Snapshots are in native byte
+ * order. Requires Java 9 or later for VarHandle access to buffers.
+ */
+public final class FingerprintSet
+{
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final long MAGIC = 0x55524C4650534554L; //"URLFPSET"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int MAX_SEGMENT_SHIFT = 27; //2^27 longs, 1 GB
+    private static final int BLOOM_HASHES = 6;       //6 bits each from one long
+
+    private final Longs table;
+    private final long mask;
+    private final long capacity;
+    private final Longs bloom;      //null if there is no Bloom filter
+    private final long bloomMask;   //Word count - 1
+    private final LongAdder size = new LongAdder();
+    private final AtomicBoolean zero = new AtomicBoolean();
+
+    /**
+     * Create a set without a Bloom filter
+     *
+     * @param expected expected count of fingerprints
+     */
+    public FingerprintSet(long expected)
+    {
+        this(expected, 0);
+    }
+
+    /**
+     * @param expected          expected count of fingerprints
+     * @param bloomBitsPerEntry Bloom filter bits per expected fingerprint,
+     *                          rounded up to a power of two total, 0 for
+     *                          no Bloom filter
+     */
+    public FingerprintSet(long expected, int bloomBitsPerEntry)
+    {
+        if (expected <= 0 || expected > (1L << 60)) {
+            throw new IllegalArgumentException("Invalid expected count : " + expected);
+        }
+
+        if (bloomBitsPerEntry < 0) {
+            throw new IllegalArgumentException("Invalid bits per entry : " + bloomBitsPerEntry);
+        }
+
+        long slots = powerOfTwo(Math.max(64, expected + (expected + 2) / 3));
+        this.table    = new Longs(slots);
+        this.mask     = slots - 1;
+        this.capacity = slots - slots / 4;
+
+        if (bloomBitsPerEntry == 0) {
+            this.bloom     = null;
+            this.bloomMask = 0;
+        }
+        else {
+            long words = powerOfTwo(Math.max(1, expected * bloomBitsPerEntry / 64));
+            this.bloom     = new Longs(words);
+            this.bloomMask = words - 1;
+        }
+    }
+
+    private FingerprintSet(Longs table, Longs bloom, long size, boolean zero)
+    {
+        this.table     = table;
+        this.mask      = table.length - 1;
+        this.capacity  = table.length - table.length / 4;
+        this.bloom     = bloom;
+        this.bloomMask = bloom == null ? 0 : bloom.length - 1;
+        this.size.add(size);
+        this.zero.set(zero);
+    }
+
+    private static long powerOfTwo(long n)
+    {
+        return Long.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * Add fingerprint of url
+     *
+     * @param url parsed url
+     * @return    true if fingerprint was not in the set
+     * @throws IllegalStateException if set is full
+     */
+    public boolean add(URL url)
+    {
+        return add(url.getFingerprint());
+    }
+
+    /**
+     * Check if set contains fingerprint of url
+     *
+     * @param url parsed url
+     * @return    true if fingerprint is in the set
+     */
+    public boolean contains(URL url)
+    {
+        return contains(url.getFingerprint());
+    }
+
+    /**
+     * Add fingerprint
+     *
+     * @param fingerprint fingerprint
+     * @return            true if fingerprint was not in the set
+     * @throws IllegalStateException if set is full
+     */
+    public boolean add(long fingerprint)
+    {
+        if (fingerprint == 0) {
+            if (zero.compareAndSet(false, true)) {
+                size.increment();
+                return true;
+            }
+            return false;
+        }
+
+        //Bits are set before fingerprint is published in the table, so a
+        //fingerprint found in table is never filtered out by Bloom filter
+        if (bloom != null) {
+            bloomAdd(fingerprint);
+        }
+
+        long i = fingerprint & mask;
+        for (long n = 0; n <= mask; n++) {
+            long value = table.get(i);
+            if (value == fingerprint) {
+                return false;
+            }
+
+            if (value == 0) {
+                if (size.sum() >= capacity) {
+                    throw new IllegalStateException("Set is full, capacity : " + capacity);
+                }
+
+                if (table.compareAndSet(i, 0, fingerprint)) {
+                    size.increment();
+                    return true;
+                }
+
+                //Another thread filled the slot, it may be the same value
+                if (table.get(i) == fingerprint) {
+                    return false;
+                }
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        throw new IllegalStateException("Set is full, capacity : " + capacity);
+    }
+
+    /**
+     * Check if set contains fingerprint
+     *
+     * @param fingerprint fingerprint
+     * @return            true if fingerprint is in the set
+     */
+    public boolean contains(long fingerprint)
+    {
+        if (fingerprint == 0) {
+            return zero.get();
+        }
+
+        if (bloom != null && !bloomContains(fingerprint)) {
+            return false;
+        }
+
+        long i = fingerprint & mask;
+        for (long n = 0; n <= mask; n++) {
+            long value = table.get(i);
+            if (value == fingerprint) {
+                return true;
+            }
+
+            if (value == 0) {
+                return false;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Word is chosen by high bits, as table slot is chosen by low bits.
+     * Bit positions in the word are 6-bit parts of a remixed fingerprint.
+     */
+    private void bloomAdd(long fingerprint)
+    {
+        long word = (fingerprint >>> 32) & bloomMask;
+        long bits = bloomBits(fingerprint);
+        if ((bloom.get(word) & bits) != bits) {
+            bloom.or(word, bits);
+        }
+    }
+
+    private boolean bloomContains(long fingerprint)
+    {
+        long bits = bloomBits(fingerprint);
+        return (bloom.get((fingerprint >>> 32) & bloomMask) & bits) == bits;
+    }
+
+    private static long bloomBits(long fingerprint)
+    {
+        long h = fingerprint * 0x9E3779B97F4A7C15L;
+        long bits = 0;
+        for (int j = 0; j < BLOOM_HASHES; j++, h >>>= 6) {
+            bits |= 1L << h;
+        }
+
+        return bits;
+    }
+
+    /**
+     * @return Count of fingerprints
+     */
+    public long size()
+    {
+        return size.sum();
+    }
+
+    /**
+     * @return Max count of fingerprints
+     */
+    public long capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return Off-heap bytes used by table and Bloom filter
+     */
+    public long memoryUsage()
+    {
+        return (table.length + (bloom == null ? 0 : bloom.length)) * 8;
+    }
+
+    /**
+     * Write set to a file. Adds running concurrently may or may not be
+     * included, so snapshot should be taken while set is not modified.
+     *
+     * @param file file to write, replaced if it exists
+     * @throws IOException on write error
+     */
+    public void snapshot(Path file) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        header.putLong(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(zero.get() ? 1 : 0);
+        header.putLong(table.length);
+        header.putLong(bloom == null ? 0 : bloom.length);
+        header.putLong(size.sum());
+        header.clear();
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                                               StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, header);
+            table.write(ch);
+            if (bloom != null) {
+                bloom.write(ch);
+            }
+        }
+    }
+
+    /**
+     * Open a set written with {@link #snapshot(Path)}. File is mapped
+     * privately, later adds are not written to the file, though file must
+     * be writable.
+     *
+     * @param file snapshot file
+     * @return     set
+     * @throws IOException if file cannot be read or it is not a snapshot
+     */
+    public static FingerprintSet load(Path file) throws IOException
+    {
+        //Private mapping needs a writable channel, file is not modified
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            while (header.hasRemaining()) {
+                if (ch.read(header) == -1) {
+                    throw new IOException("Truncated snapshot : " + file);
+                }
+            }
+            header.flip();
+
+            if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a snapshot or different byte order : " + file);
+            }
+
+            boolean zero = header.getInt() != 0;
+            long tableLength = header.getLong();
+            long bloomLength = header.getLong();
+            long size = header.getLong();
+
+            if (ch.size() != HEADER_SIZE + (tableLength + bloomLength) * 8) {
+                throw new IOException("Truncated snapshot : " + file);
+            }
+
+            Longs table = Longs.map(ch, HEADER_SIZE, tableLength);
+            Longs bloom = bloomLength == 0 ? null :
+                          Longs.map(ch, HEADER_SIZE + tableLength * 8, bloomLength);
+
+            return new FingerprintSet(table, bloom, size, zero);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException
+    {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    /**
+     * Array of longs in direct buffers, split into segments of up to 1 GB
+     */
+    private static final class Longs
+    {
+        private final ByteBuffer[] segments;
+        private final long length;
+        private final int shift;
+        private final long segmentMask;
+
+        private Longs(long length)
+        {
+            this(length, new ByteBuffer[segmentCount(length)]);
+
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = ByteBuffer.allocateDirect((int) (segmentLength() * 8))
+                                        .order(ByteOrder.nativeOrder());
+            }
+        }
+
+        private Longs(long length, ByteBuffer[] segments)
+        {
+            this.length      = length;
+            this.segments    = segments;
+            this.shift       = Math.min(MAX_SEGMENT_SHIFT, Long.numberOfTrailingZeros(length));
+            this.segmentMask = (1L << shift) - 1;
+        }
+
+        private static int segmentCount(long length)
+        {
+            return (int) Math.max(1, length >>> MAX_SEGMENT_SHIFT);
+        }
+
+        private long segmentLength()
+        {
+            return segmentMask + 1;
+        }
+
+        private static Longs map(FileChannel ch, long position, long length)
+                throws IOException
+        {
+            Longs longs = new Longs(length, new ByteBuffer[segmentCount(length)]);
+            long bytes = longs.segmentLength() * 8;
+
+            for (int i = 0; i < longs.segments.length; i++) {
+                longs.segments[i] = ch.map(FileChannel.MapMode.PRIVATE,
+                                           position + i * bytes, bytes)
+                                      .order(ByteOrder.nativeOrder());
+            }
+
+            return longs;
+        }
+
+        private ByteBuffer segment(long index)
+        {
+            return segments[(int) (index >>> shift)];
+        }
+
+        private int offset(long index)
+        {
+            return (int) (index & segmentMask) << 3;
+        }
+
+        private void or(long index, long bits)
+        {
+            LONGS.getAndBitwiseOr(segment(index), offset(index), bits);
+        }
+
+        private long get(long index)
+        {
+            return (long) LONGS.getAcquire(segment(index), offset(index));
+        }
+
+        private boolean compareAndSet(long index, long expected, long value)
+        {
+            return LONGS.compareAndSet(segment(index), offset(index),
+                                       expected, value);
+        }
+
+        private void write(FileChannel ch) throws IOException
+        {
+            for (ByteBuffer segment : segments) {
+                writeFully(ch, segment.duplicate().clear());
+            }
+        }
+    }
+}
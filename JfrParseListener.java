@@ -0,0 +1,55 @@
+import jdk.jfr.EventType;
+
+/**
+ * Parse listener which commits a {@link URLParseEvent} for each sampled
+ * parse and each rejected url, so rejection reasons and parse times can
+ * be inspected in a JFR recording. Event type is checked before an event
+ * is created, so while no recording is running, the listener costs a
+ * single check.
+ *
+ * <pre>
+ * URL.setParseListener(new JfrParseListener(), 1024);
+ * </pre>
+ */
+public final class JfrParseListener implements ParseListener
+{
+    private static final EventType TYPE =
+                                EventType.getEventType(URLParseEvent.class);
+
+    @Override
+    public void parsed(URL url, long nanos)
+    {
+        if (nanos < 0 || !TYPE.isEnabled()) {
+            return;
+        }
+
+        URLParseEvent event = new URLParseEvent();
+        event.length        = url.source().length();
+        event.error         = URL.ErrorKind.NONE.name();
+        event.errorPosition = -1;
+        event.parseTime     = nanos;
+
+        CharSequence query = url.getQuery();
+        if (query != null) {
+            event.queryParams = ParseMetrics.paramCount(query);
+        }
+
+        event.commit();
+    }
+
+    @Override
+    public void failed(CharSequence input, URL.ErrorKind kind, int position,
+                       long nanos)
+    {
+        if (!TYPE.isEnabled()) {
+            return;
+        }
+
+        URLParseEvent event = new URLParseEvent();
+        event.length        = input.length();
+        event.error         = kind.name();
+        event.errorPosition = position;
+        event.parseTime     = nanos;
+        event.commit();
+    }
+}
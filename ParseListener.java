@@ -0,0 +1,63 @@
+/**
+ * Listener of url parses, see {@link URL#setParseListener(ParseListener, int)}
+ *
+ * <pre>
+ * ParseMetrics metrics = new ParseMetrics();
+ * URL.setParseListener(metrics.andThen(new JfrParseListener()), 1024);
+ *
+ * metrics.getCount(URL.ErrorKind.INVALID_PATH);
+ * </pre>
+ *
+ * Listener is called on the parsing thread, right after each parse of any
+ * URL instance, including {@link URL#validate(CharSequence)}, so it must
+ * be thread-safe and cheap. Parsed url and its views are valid only during
+ * the call.
+ */
+public interface ParseListener
+{
+    /**
+     * Called after a url is parsed successfully
+     *
+     * @param url   parsed url
+     * @param nanos parse time, -1 if this parse is not sampled
+     */
+    void parsed(URL url, long nanos);
+
+    /**
+     * Called after a url is rejected
+     *
+     * @param input    rejected input
+     * @param kind     kind of the error
+     * @param position position of the offending char
+     * @param nanos    parse time, -1 if this parse is not sampled
+     */
+    void failed(CharSequence input, URL.ErrorKind kind, int position,
+                long nanos);
+
+    /**
+     * @param next listener to call after this one
+     * @return     a listener which calls this listener, then next
+     */
+    default ParseListener andThen(ParseListener next)
+    {
+        ParseListener first = this;
+
+        return new ParseListener()
+        {
+            @Override
+            public void parsed(URL url, long nanos)
+            {
+                first.parsed(url, nanos);
+                next.parsed(url, nanos);
+            }
+
+            @Override
+            public void failed(CharSequence input, URL.ErrorKind kind,
+                               int position, long nanos)
+            {
+                first.failed(input, kind, position, nanos);
+                next.failed(input, kind, position, nanos);
+            }
+        };
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parse metrics collected by a {@link ParseListener} :
+ *
+ *   - Parse count per error kind, {@link URL.ErrorKind#NONE} counts
+ *     successful parses
+ *   - Length histograms per component of parsed urls
+ *   - Histogram of query parameter counts, parameters are split on '&'
+ *     as {@link URL#forEachQueryParam(QueryVisitor)} does
+ *   - Histogram of sampled parse times, successful or not
+ *
+ * <pre>
+ * ParseMetrics metrics = new ParseMetrics();
+ * URL.setParseListener(metrics, 1024);
+ * ...
+ * long rejected = metrics.getCount(URL.ErrorKind.INVALID_QUERY);
+ * long[] hosts  = metrics.getLengthHistogram(ParseMetrics.Component.HOST);
+ * </pre>
+ *
+ * Histograms have power of two buckets, bucket 0 counts value 0 and
+ * bucket i counts values in [2^(i-1), 2^i), see {@link #bucket(long)}.
+ * Counters are LongAdders, so metrics can be updated from many parsing
+ * threads without contending on a single counter. Component lengths are
+ * read from the url views, so a parse costs a few view lookups and counter
+ * increments on top of parsing.
+ */
+public final class ParseMetrics implements ParseListener
+{
+    /**
+     * Components whose lengths are recorded
+     */
+    public enum Component
+    {
+        /**
+         * Whole url
+         */
+        FULL,
+        SCHEME, USER_INFO, HOST, PORT, PATH, QUERY, FRAGMENT
+    }
+
+    /**
+     * Bucket count of length and parameter count histograms
+     */
+    public static final int LENGTH_BUCKETS = 33;
+
+    /**
+     * Bucket count of parse time histogram
+     */
+    public static final int TIME_BUCKETS = 65;
+
+    private static final URL.ErrorKind[] KINDS = URL.ErrorKind.values();
+    private static final Component[] COMPONENTS = Component.values();
+
+    private final LongAdder[] counts = adders(KINDS.length);
+    private final LongAdder[] lengths = adders(COMPONENTS.length * LENGTH_BUCKETS);
+    private final LongAdder[] params = adders(LENGTH_BUCKETS);
+    private final LongAdder[] times = adders(TIME_BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+
+    private static LongAdder[] adders(int count)
+    {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+
+    /**
+     * @param value value to bucket, not negative
+     * @return      histogram bucket of value, 0 for 0, otherwise index of
+     *              highest one bit plus 1
+     */
+    public static int bucket(long value)
+    {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    @Override
+    public void parsed(URL url, long nanos)
+    {
+        counts[URL.ErrorKind.NONE.ordinal()].increment();
+
+        CharSequence query = url.getQuery();
+
+        record(Component.FULL,      url.source());
+        record(Component.SCHEME,    url.getScheme());
+        record(Component.USER_INFO, url.getUserInfo());
+        record(Component.HOST,      url.getDomain());
+        record(Component.PORT,      url.getPort());
+        record(Component.PATH,      url.getPath());
+        record(Component.QUERY,     query);
+        record(Component.FRAGMENT,  url.getFragment());
+
+        if (query != null) {
+            params[bucket(paramCount(query))].increment();
+        }
+
+        recordTime(nanos);
+    }
+
+    @Override
+    public void failed(CharSequence input, URL.ErrorKind kind, int position,
+                       long nanos)
+    {
+        counts[kind.ordinal()].increment();
+        recordTime(nanos);
+    }
+
+    /**
+     * @return count of parameters in query, split on '&'
+     */
+    static int paramCount(CharSequence query)
+    {
+        int count = 1;
+        for (int i = 0; i < query.length(); i++) {
+            if (query.charAt(i) == '&') {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private void record(Component component, CharSequence s)
+    {
+        if (s != null) {
+            int i = component.ordinal() * LENGTH_BUCKETS + bucket(s.length());
+            lengths[i].increment();
+        }
+    }
+
+    private void recordTime(long nanos)
+    {
+        if (nanos >= 0) {
+            times[bucket(nanos)].increment();
+            totalNanos.add(nanos);
+        }
+    }
+
+    /**
+     * @param kind error kind, {@link URL.ErrorKind#NONE} for successful
+     *             parses
+     * @return     count of parses which ended with kind
+     */
+    public long getCount(URL.ErrorKind kind)
+    {
+        return counts[kind.ordinal()].sum();
+    }
+
+    /**
+     * @return count of parses, successful or not
+     */
+    public long getParseCount()
+    {
+        long sum = 0;
+        for (LongAdder count : counts) {
+            sum += count.sum();
+        }
+
+        return sum;
+    }
+
+    /**
+     * @param component component
+     * @return          length histogram of component in successfully parsed
+     *                  urls which have it, {@link #LENGTH_BUCKETS} buckets
+     */
+    public long[] getLengthHistogram(Component component)
+    {
+        return sums(lengths, component.ordinal() * LENGTH_BUCKETS,
+                    LENGTH_BUCKETS);
+    }
+
+    /**
+     * @return histogram of parameter counts of urls which have a query,
+     *         {@link #LENGTH_BUCKETS} buckets
+     */
+    public long[] getQueryParamHistogram()
+    {
+        return sums(params, 0, LENGTH_BUCKETS);
+    }
+
+    /**
+     * @return histogram of sampled parse times in nanoseconds,
+     *         {@link #TIME_BUCKETS} buckets
+     */
+    public long[] getTimeHistogram()
+    {
+        return sums(times, 0, TIME_BUCKETS);
+    }
+
+    /**
+     * @return count of sampled parses
+     */
+    public long getSampleCount()
+    {
+        long sum = 0;
+        for (LongAdder time : times) {
+            sum += time.sum();
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return total parse time of sampled parses in nanoseconds
+     */
+    public long getSampleNanos()
+    {
+        return totalNanos.sum();
+    }
+
+    private static long[] sums(LongAdder[] adders, int from, int count)
+    {
+        long[] sums = new long[count];
+        for (int i = 0; i < count; i++) {
+            sums[i] = adders[from + i].sum();
+        }
+
+        return sums;
+    }
+
+    /**
+     * Reset all counters to zero, concurrent updates may be kept or lost
+     */
+    public void reset()
+    {
+        for (LongAdder[] array : new LongAdder[][] {counts, lengths, params, times}) {
+            for (LongAdder adder : array) {
+                adder.reset();
+            }
+        }
+
+        totalNanos.reset();
+    }
+}
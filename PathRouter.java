@@ -0,0 +1,626 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Path router, matches paths against route templates and captures their
+ * parameters. Templates are segments of a path, separated with '/' :
+ *
+ *   /users/me                  literal segments, matched exactly
+ *   /users/{id}/orders/{order} {name} captures a non-empty segment
+ *   /static/*                  trailing '*' captures rest of the path,
+ *                              zero or more segments
+ *
+ * <pre>
+ * Map&lt;String, Handler&gt; routes = new LinkedHashMap&lt;&gt;();
+ * routes.put("/users/{id}", users);
+ * routes.put("/static/*", files);
+ *
+ * PathRouter&lt;Handler&gt; router = new PathRouter&lt;&gt;(routes);
+ * PathRouter.Match&lt;Handler&gt; match = new PathRouter.Match&lt;&gt;();
+ *
+ * if (router.match(url, match).matched()) {
+ *     match.getValue().handle(match.getParam("id"));
+ * }
+ * </pre>
+ *
+ * If more than one route matches a path, the most specific one wins :
+ * segments are compared from the first one, at the first segment routes
+ * differ, a literal wins over a parameter and a parameter wins over a
+ * wildcard, e.g. "/users/me" over "/users/{id}" and "/users/{id}" over
+ * "/users/*".
+ *
+ * Templates are compiled into a trie, which is then made deterministic :
+ * a literal edge leads to a node holding routes of both the literal and
+ * the parameter child, so "/users/me/orders" finds "/users/{id}/orders"
+ * without backtracking from the "me" literal. A match is a single pass
+ * over path segments, each segment is hashed while its end is found, then
+ * costs one table probe and a char comparison. Segments are matched as
+ * they appear in the path, percent-encoded and case-sensitive.
+ *
+ * Nothing is allocated while matching, parameters are views into the path,
+ * recycled by the next match with the same Match. Instances are immutable
+ * and thread-safe.
+ */
+public final class PathRouter<T>
+{
+    private static final byte LITERAL  = 0;
+    private static final byte PARAM    = 1;
+    private static final byte WILDCARD = 2;
+
+    //Routes
+    private final List<T> values;
+    private final String[] templates;
+    private final byte[][] kinds;     //Kind of each segment
+    private final String[][] names;   //Parameter names
+    private final int[][] positions;  //Segment index of each parameter
+
+    //States of compiled trie, 0 is root, -1 is none
+    private final int[] terminals;    //Route ending at state
+    private final int[] wildcards;    //Route with '*' after state
+    private final int[] params;       //State after a parameter segment
+
+    //Literal edges, labels are chars [labelStart, labelEnd)
+    private final char[] labels;
+    private final int[] labelStart;
+    private final int[] labelEnd;
+    private final int[] hashes;
+    private final int[] sources;
+    private final int[] targets;
+
+    private final int[] slots; //Edge of (state, label hash) plus one, 0 if empty
+    private final int mask;
+
+    /**
+     * Template trie node, before it is compiled
+     */
+    private static final class Node
+    {
+        private final int id;
+        private final Map<String, Node> literals = new LinkedHashMap<>();
+        private Node param;
+        private int terminal = -1;
+        private int wildcard = -1;
+
+        private Node(int id)
+        {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Compile routes
+     *
+     * @param routes route templates and their values, e.g. handlers
+     * @throws IllegalArgumentException if a template is invalid or two
+     *                                  templates match the same paths,
+     *                                  e.g. "/a/{x}" and "/a/{y}"
+     */
+    public PathRouter(Map<String, ? extends T> routes)
+    {
+        int count = routes.size();
+
+        this.values    = new ArrayList<>(count);
+        this.templates = new String[count];
+        this.kinds     = new byte[count][];
+        this.names     = new String[count][];
+        this.positions = new int[count][];
+
+        List<Node> nodes = new ArrayList<>();
+        Node root = new Node(0);
+        nodes.add(root);
+
+        int route = 0;
+        for (Map.Entry<String, ? extends T> e : routes.entrySet()) {
+            values.add(e.getValue());
+            templates[route] = e.getKey();
+            addTemplate(root, nodes, route);
+            route++;
+        }
+
+        //Subset construction, a state is a set of template nodes
+        List<Node[]> states = new ArrayList<>();
+        Map<List<Integer>, Integer> ids = new HashMap<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        state(new Node[]{root}, states, ids, queue);
+
+        List<int[]> stateList = new ArrayList<>();  //terminal, wildcard, param
+        List<String> edgeLabels = new ArrayList<>();
+        List<int[]> edgeList = new ArrayList<>();   //source, target
+
+        while (!queue.isEmpty()) {
+            int id = queue.poll();
+            Node[] set = states.get(id);
+
+            int terminal = -1;
+            int wildcard = -1;
+            List<Node> paramSet = new ArrayList<>();
+            Map<String, List<Node>> literalSets = new LinkedHashMap<>();
+
+            for (Node node : set) {
+                terminal = moreSpecific(terminal, node.terminal);
+                wildcard = moreSpecific(wildcard, node.wildcard);
+
+                if (node.param != null) {
+                    paramSet.add(node.param);
+                }
+
+                for (Map.Entry<String, Node> e : node.literals.entrySet()) {
+                    literalSets.computeIfAbsent(e.getKey(), k -> new ArrayList<>())
+                               .add(e.getValue());
+                }
+            }
+
+            for (Map.Entry<String, List<Node>> e : literalSets.entrySet()) {
+                List<Node> target = e.getValue();
+                if (!e.getKey().isEmpty()) {
+                    //Parameters do not capture empty segments
+                    target.addAll(paramSet);
+                }
+
+                edgeLabels.add(e.getKey());
+                edgeList.add(new int[]{id, state(target.toArray(new Node[0]),
+                                                 states, ids, queue)});
+            }
+
+            int param = paramSet.isEmpty() ? -1 :
+                        state(paramSet.toArray(new Node[0]), states, ids, queue);
+
+            while (stateList.size() <= id) {
+                stateList.add(null);
+            }
+            stateList.set(id, new int[]{terminal, wildcard, param});
+        }
+
+        int stateCount = stateList.size();
+        this.terminals = new int[stateCount];
+        this.wildcards = new int[stateCount];
+        this.params    = new int[stateCount];
+
+        for (int i = 0; i < stateCount; i++) {
+            int[] state = stateList.get(i);
+            terminals[i] = state[0];
+            wildcards[i] = state[1];
+            params[i]    = state[2];
+        }
+
+        int edgeCount = edgeList.size();
+        int length = 0;
+        for (String label : edgeLabels) {
+            length += label.length();
+        }
+
+        this.labels     = new char[length];
+        this.labelStart = new int[edgeCount];
+        this.labelEnd   = new int[edgeCount];
+        this.hashes     = new int[edgeCount];
+        this.sources    = new int[edgeCount];
+        this.targets    = new int[edgeCount];
+
+        this.slots = new int[Integer.highestOneBit(Math.max(4, edgeCount) * 2 - 1) << 1];
+        this.mask  = slots.length - 1;
+
+        int pos = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            String label = edgeLabels.get(i);
+            label.getChars(0, label.length(), labels, pos);
+
+            labelStart[i] = pos;
+            labelEnd[i]   = pos + label.length();
+            hashes[i]     = label.hashCode();
+            sources[i]    = edgeList.get(i)[0];
+            targets[i]    = edgeList.get(i)[1];
+            pos += label.length();
+
+            int s = slot(sources[i], hashes[i]);
+            while (slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = i + 1;
+        }
+    }
+
+    private void addTemplate(Node root, List<Node> nodes, int route)
+    {
+        String template = templates[route];
+        PathSegments segments = new PathSegments().reset(template);
+        List<Byte> kindList = new ArrayList<>();
+        List<String> nameList = new ArrayList<>();
+        List<Integer> positionList = new ArrayList<>();
+        Node node = root;
+
+        while (segments.next()) {
+            String segment = segments.segment().toString();
+
+            if (segment.equals("*")) {
+                if (segments.end() != template.length()) {
+                    throw new IllegalArgumentException(
+                            "Wildcard must be the last segment : " + template);
+                }
+
+                if (node.wildcard != -1) {
+                    throw duplicate(route, node.wildcard);
+                }
+
+                kindList.add(WILDCARD);
+                node.wildcard = route;
+                node = null;
+                break;
+            }
+
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (name.isEmpty() || name.indexOf('{') != -1 ||
+                    name.indexOf('}') != -1 || nameList.contains(name)) {
+                    throw new IllegalArgumentException(
+                            "Invalid parameter '" + segment + "' : " + template);
+                }
+
+                nameList.add(name);
+                positionList.add(segments.index());
+                kindList.add(PARAM);
+
+                if (node.param == null) {
+                    node.param = new Node(nodes.size());
+                    nodes.add(node.param);
+                }
+                node = node.param;
+                continue;
+            }
+
+            if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1) {
+                throw new IllegalArgumentException(
+                        "Parameter must be a whole segment : " + template);
+            }
+
+            kindList.add(LITERAL);
+
+            Node child = node.literals.get(segment);
+            if (child == null) {
+                child = new Node(nodes.size());
+                nodes.add(child);
+                node.literals.put(segment, child);
+            }
+            node = child;
+        }
+
+        if (node != null) {
+            if (node.terminal != -1) {
+                throw duplicate(route, node.terminal);
+            }
+            node.terminal = route;
+        }
+
+        kinds[route] = new byte[kindList.size()];
+        for (int i = 0; i < kindList.size(); i++) {
+            kinds[route][i] = kindList.get(i);
+        }
+
+        names[route]     = nameList.toArray(new String[0]);
+        positions[route] = positionList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private IllegalArgumentException duplicate(int route, int other)
+    {
+        return new IllegalArgumentException(
+                "Routes match the same paths : " + templates[other] +
+                ", " + templates[route]);
+    }
+
+    /**
+     * Get id of state for a set of template nodes, queue it if it is new
+     */
+    private static int state(Node[] set, List<Node[]> states,
+                             Map<List<Integer>, Integer> ids,
+                             ArrayDeque<Integer> queue)
+    {
+        Arrays.sort(set, (n1, n2) -> Integer.compare(n1.id, n2.id));
+        List<Integer> key = new ArrayList<>(set.length);
+        for (Node node : set) {
+            key.add(node.id);
+        }
+
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = states.size();
+            states.add(set);
+            ids.put(key, id);
+            queue.add(id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Pick more specific of two routes matching the same path, -1 is none
+     */
+    private int moreSpecific(int r1, int r2)
+    {
+        if (r1 == -1 || r2 == -1) {
+            return r1 == -1 ? r2 : r1;
+        }
+
+        byte[] k1 = kinds[r1];
+        byte[] k2 = kinds[r2];
+
+        for (int i = 0; i < Math.min(k1.length, k2.length); i++) {
+            if (k1[i] != k2[i]) {
+                return k1[i] < k2[i] ? r1 : r2;
+            }
+        }
+
+        //Shorter one ends where the longer one has a wildcard
+        return k1.length <= k2.length ? r1 : r2;
+    }
+
+    /**
+     * @return Route count
+     */
+    public int size()
+    {
+        return templates.length;
+    }
+
+    /**
+     * Match path of url
+     *
+     * @param url    parsed url
+     * @param result match to fill, its views refer to url
+     * @return       result
+     */
+    public Match<T> match(URL url, Match<T> result)
+    {
+        return match(url.getPath(), result);
+    }
+
+    /**
+     * Match path
+     *
+     * @param path   path, e.g. "/users/42"
+     * @param result match to fill, its views refer to path
+     * @return       result
+     */
+    public Match<T> match(CharSequence path, Match<T> result)
+    {
+        PathSegments segments = result.segments.reset(path);
+        int state = 0;
+        int depth = 0;
+        int wildcard = wildcards[0];
+        int wildcardDepth = 0;
+        boolean walked = true;
+
+        while (segments.next()) {
+            int start = segments.start();
+            int end = segments.end();
+            result.segment(depth, start, end);
+
+            int next = edge(state, path, start, end, segments.hash());
+            if (next == -1 && start != end) {
+                next = params[state];
+            }
+
+            if (next == -1) {
+                walked = false;
+                break;
+            }
+
+            state = next;
+            depth++;
+
+            int best = moreSpecific(wildcard, wildcards[state]);
+            if (best != wildcard) {
+                wildcard = best;
+                wildcardDepth = depth;
+            }
+        }
+
+        int route = walked ? terminals[state] : -1;
+        if (route != -1 && moreSpecific(route, wildcard) == route) {
+            return result.set(this, route, path, -1);
+        }
+
+        if (wildcard != -1) {
+            int rest = wildcardDepth < depth || !walked ?
+                       result.bounds[wildcardDepth * 2] : path.length();
+            return result.set(this, wildcard, path, rest);
+        }
+
+        return result.clear();
+    }
+
+    private int edge(int state, CharSequence s, int start, int end, int h)
+    {
+        for (int i = slot(state, h); slots[i] != 0; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (hashes[id] == h && sources[id] == state &&
+                labelEquals(id, s, start, end)) {
+                return targets[id];
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean labelEquals(int id, CharSequence s, int start, int end)
+    {
+        int pos = labelStart[id];
+        if (labelEnd[id] - pos != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (labels[pos++] != s.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int slot(int state, int hash)
+    {
+        int h = (state * 0x9E3779B9) ^ hash;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Result of a match, views are recycled by the next match with the same
+     * instance and they are valid as long as matched path is. Instances are
+     * not thread-safe.
+     */
+    public static final class Match<T>
+    {
+        private final PathSegments segments = new PathSegments();
+        private int[] bounds = new int[16]; //Start and end of each segment
+        private URL.CharBuffer[] views = new URL.CharBuffer[0];
+        private URL.CharBuffer rest;
+
+        private CharSequence path;
+        private T value;
+        private String template;
+        private String[] names;
+        private int[] positions;
+        private int restStart = -1;
+        private boolean matched;
+
+        private void segment(int index, int start, int end)
+        {
+            if (index * 2 + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+
+            bounds[index * 2]     = start;
+            bounds[index * 2 + 1] = end;
+        }
+
+        private Match<T> clear()
+        {
+            path      = null;
+            value     = null;
+            template  = null;
+            names     = null;
+            positions = null;
+            restStart = -1;
+            matched   = false;
+
+            return this;
+        }
+
+        private Match<T> set(PathRouter<T> router, int route,
+                             CharSequence path, int restStart)
+        {
+            this.path      = path;
+            this.value     = router.values.get(route);
+            this.template  = router.templates[route];
+            this.names     = router.names[route];
+            this.positions = router.positions[route];
+            this.restStart = restStart;
+            this.matched   = true;
+
+            if (views.length < names.length) {
+                views = Arrays.copyOf(views, names.length);
+            }
+
+            return this;
+        }
+
+        /**
+         * @return true if a route matched
+         */
+        public boolean matched()
+        {
+            return matched;
+        }
+
+        /**
+         * @return Value of matched route, null if no route matched
+         */
+        public T getValue()
+        {
+            return value;
+        }
+
+        /**
+         * @return Template of matched route, null if no route matched
+         */
+        public String getTemplate()
+        {
+            return template;
+        }
+
+        /**
+         * @return Parameter count of matched route
+         */
+        public int getParamCount()
+        {
+            return matched ? names.length : 0;
+        }
+
+        /**
+         * @param i parameter index, in template order
+         * @return  parameter name, e.g. "id" for "{id}"
+         */
+        public String getParamName(int i)
+        {
+            if (!matched || i < 0 || i >= names.length) {
+                throw new IndexOutOfBoundsException("Parameter : " + i);
+            }
+
+            return names[i];
+        }
+
+        /**
+         * @param i parameter index, in template order
+         * @return  captured segment, view is recycled on next match
+         */
+        public CharSequence getParamValue(int i)
+        {
+            if (!matched || i < 0 || i >= names.length) {
+                throw new IndexOutOfBoundsException("Parameter : " + i);
+            }
+
+            int start = bounds[positions[i] * 2];
+            int end = bounds[positions[i] * 2 + 1];
+
+            views[i] = views[i] == null ? new URL.CharBuffer(path, start, end) :
+                                          views[i].set(path, start, end);
+            return views[i];
+        }
+
+        /**
+         * @param name parameter name, e.g. "id" for "{id}"
+         * @return     captured segment, null if matched route has no such
+         *             parameter, view is recycled on next match
+         */
+        public CharSequence getParam(String name)
+        {
+            for (int i = 0; i < getParamCount(); i++) {
+                if (names[i].equals(name)) {
+                    return getParamValue(i);
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @return Rest of the path captured by a trailing '*', e.g. "css/a.css"
+         *         for "/static/*" and "/static/css/a.css", null if matched
+         *         route has no wildcard
+         */
+        public CharSequence getWildcard()
+        {
+            if (restStart == -1) {
+                return null;
+            }
+
+            rest = rest == null ? new URL.CharBuffer(path, restStart, path.length()) :
+                                  rest.set(path, restStart, path.length());
+            return rest;
+        }
+    }
+}
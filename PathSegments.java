@@ -0,0 +1,183 @@
+/**
+ * Cursor over segments of a path, e.g. of {@link URL#getPath()}
+ *
+ * <pre>
+ * PathSegments segments = new PathSegments();
+ * segments.reset(url);
+ * while (segments.next()) {
+ *     if (segments.matches("users")) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * Segments are the parts between '/' chars, a leading '/' is skipped, so
+ * "/a/b" has segments "a" and "b", "/a/b/" has a third empty segment and
+ * "/" has a single empty one. An empty path has no segments. Segments are
+ * returned as they appear in the path, percent-encoded.
+ *
+ * While finding the end of a segment, its String-compatible hash is
+ * computed too, so segments can be looked up in hash tables without
+ * another pass. Cursor is reusable, views are recycled on each next() call
+ * and nothing is allocated after the first use.
+ */
+public final class PathSegments
+{
+    private CharSequence path;
+    private int index;
+    private int start;
+    private int end;
+    private int hash;
+    private URL.CharBuffer segment;
+    private URL.CharBuffer rest;
+
+    public PathSegments()
+    {
+        reset("");
+    }
+
+    /**
+     * Start iterating segments of url's path
+     *
+     * @param url parsed url
+     * @return    this
+     */
+    public PathSegments reset(URL url)
+    {
+        return reset(url.getPath());
+    }
+
+    /**
+     * Start iterating segments of path
+     *
+     * @param path path, e.g. "/users/42"
+     * @return     this
+     */
+    public PathSegments reset(CharSequence path)
+    {
+        this.path  = path;
+        this.index = -1;
+        this.start = 0;
+        this.end   = path.length() > 0 && path.charAt(0) == '/' ? 0 : -1;
+        this.hash  = 0;
+
+        return this;
+    }
+
+    /**
+     * Move to next segment
+     *
+     * @return true if there is a next segment
+     */
+    public boolean next()
+    {
+        final int len = path.length();
+        if (end >= len || (end == -1 && len == 0)) {
+            end = len;
+            return false;
+        }
+
+        int pos = end + 1;
+        int h = 0;
+        char c;
+        while (pos < len && (c = path.charAt(pos)) != '/') {
+            h = 31 * h + c;
+            pos++;
+        }
+
+        index++;
+        start = end + 1;
+        end   = pos;
+        hash  = h;
+
+        return true;
+    }
+
+    /**
+     * @return Index of current segment, zero based, -1 before first next()
+     */
+    public int index()
+    {
+        return index;
+    }
+
+    /**
+     * @return Start index of current segment in path
+     */
+    public int start()
+    {
+        return start;
+    }
+
+    /**
+     * @return End index of current segment in path, exclusive
+     */
+    public int end()
+    {
+        return end;
+    }
+
+    /**
+     * @return Hash of current segment, same as String.hashCode() of it
+     */
+    public int hash()
+    {
+        return hash;
+    }
+
+    /**
+     * @return Path being iterated
+     */
+    public CharSequence path()
+    {
+        return path;
+    }
+
+    /**
+     * @return Current segment, view is recycled on next call
+     */
+    public CharSequence segment()
+    {
+        segment = segment == null ? new URL.CharBuffer(path, start, end) :
+                                    segment.set(path, start, end);
+        return segment;
+    }
+
+    /**
+     * @return Path from start of current segment to its end, e.g. "b/c" at
+     *         segment "b" of "/a/b/c", view is recycled on next call
+     */
+    public CharSequence rest()
+    {
+        rest = rest == null ? new URL.CharBuffer(path, start, path.length()) :
+                              rest.set(path, start, path.length());
+        return rest;
+    }
+
+    /**
+     * Check if current segment is equal to s
+     *
+     * @param s chars to compare
+     * @return  true if segment has the same chars as s
+     */
+    public boolean matches(CharSequence s)
+    {
+        return regionMatches(path, start, end, s, 0, s.length());
+    }
+
+    static boolean regionMatches(CharSequence s1, int start1, int end1,
+                                 CharSequence s2, int start2, int end2)
+    {
+        if (end1 - start1 != end2 - start2) {
+            return false;
+        }
+
+        for (int i = start1, j = start2; i < end1; i++, j++) {
+            if (s1.charAt(i) != s2.charAt(j)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,606 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Percent-encoding and decoding of url components, RFC 3986 Section 2.1
+ *
+ * Decoded octets are taken as UTF-8, a malformed or truncated sequence is
+ * replaced with U+FFFD. With form option, '+' is decoded as space as in
+ * application/x-www-form-urlencoded query strings, e.g. for query items.
+ *
+ * <pre>
+ * CharSequence value = PercentCodec.decode(item.value, true);
+ *
+ * StringBuilder sb = new StringBuilder();
+ * for (URL.QueryItem item : url.getQueryItems().values()) {
+ *     sb.setLength(0);
+ *     PercentCodec.decodeTo(item.value, true, sb);
+ * }
+ *
+ * PercentCodec.encodeTo("a b&c", Component.QUERY_PARAM, sb); // a%20b%26c
+ * </pre>
+ *
+ * If there is nothing to decode, decode() returns its input untouched,
+ * otherwise it returns a view which decodes on first access. decodeTo()
+ * methods write into caller supplied buffers and do not allocate.
+ *
+ * Chars other than '%' and '+' are copied as they are, so components of
+ * urls parsed by URL, which are ASCII only, can be decoded directly.
+ * Invalid escapes, '%' not followed by two hex digits, are rejected with
+ * IllegalArgumentException. URL validates escapes while parsing, so only
+ * arbitrary input may fail.
+ *
+ * Encoding takes chars as text, each char not allowed in the component,
+ * '%' included, is encoded as UTF-8 octets with uppercase hex digits.
+ */
+public final class PercentCodec
+{
+    private static final int REPLACEMENT = '\uFFFD';
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Url components chars are encoded for. ALPHA, DIGIT and unreserved
+     * "-" / "." / "_" / "~" are allowed in all of them, other allowed chars
+     * are listed for each component.
+     */
+    public enum Component
+    {
+        /**
+         * userinfo = *( unreserved / pct-encoded / sub-delims / ":" )
+         */
+        USERINFO("!$&'()*+,;=:"),
+
+        /**
+         * reg-name = *( unreserved / pct-encoded / sub-delims )
+         */
+        HOST("!$&'()*+,;="),
+
+        /**
+         * Path, segments separated with "/"
+         */
+        PATH("!$&'()*+,;=:@/"),
+
+        /**
+         * segment = *pchar, "/" is encoded
+         */
+        SEGMENT("!$&'()*+,;=:@"),
+
+        /**
+         * query = *( pchar / "/" / "?" )
+         */
+        QUERY("!$&'()*+,;=:@/?"),
+
+        /**
+         * Key or value of a query parameter, "&amp;", "=" and "+" are encoded,
+         * so they are split and form decoded back as they were
+         */
+        QUERY_PARAM("!$'()*,;:@/?"),
+
+        /**
+         * fragment = *( pchar / "/" / "?" )
+         */
+        FRAGMENT("!$&'()*+,;=:@/?");
+
+        private final boolean[] allowed = new boolean[128];
+
+        Component(String chars)
+        {
+            for (char c = '0'; c <= '9'; c++) {
+                allowed[c] = true;
+            }
+
+            for (char c = 'a'; c <= 'z'; c++) {
+                allowed[c] = true;
+                allowed[c - 32] = true;
+            }
+
+            for (char c : ("-._~" + chars).toCharArray()) {
+                allowed[c] = true;
+            }
+        }
+
+        /**
+         * @param c char
+         * @return  true if c is allowed in component without encoding
+         */
+        public boolean allows(char c)
+        {
+            return c < 128 && allowed[c];
+        }
+    }
+
+    private PercentCodec()
+    {
+    }
+
+    /**
+     * Check if chars need encoding
+     *
+     * @param s         chars
+     * @param component component chars are encoded for
+     * @return          true if s has a char not allowed in component
+     */
+    public static boolean needsEncoding(CharSequence s, Component component)
+    {
+        return needsEncoding(s, 0, s.length(), component);
+    }
+
+    private static boolean needsEncoding(CharSequence s, int start, int end,
+                                         Component component)
+    {
+        for (int i = start; i < end; i++) {
+            if (!component.allows(s.charAt(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Encode chars
+     *
+     * @param s         chars, may be null
+     * @param component component chars are encoded for
+     * @return          s itself if there is nothing to encode, encoded
+     *                  String otherwise
+     */
+    public static CharSequence encode(CharSequence s, Component component)
+    {
+        if (s == null || !needsEncoding(s, component)) {
+            return s;
+        }
+
+        return encodeTo(s, component, new StringBuilder(s.length() + 16)).toString();
+    }
+
+    /**
+     * Encode chars and append them to out
+     *
+     * @param s         chars
+     * @param component component chars are encoded for
+     * @param out       builder to append to
+     * @return          out
+     */
+    public static StringBuilder encodeTo(CharSequence s, Component component,
+                                         StringBuilder out)
+    {
+        return encodeTo(s, 0, s.length(), component, out);
+    }
+
+    /**
+     * Encode chars in [start, end) of s and append them to out. Runs of
+     * allowed chars are appended in bulk.
+     *
+     * @param s         chars
+     * @param start     start index, inclusive
+     * @param end       end index, exclusive
+     * @param component component chars are encoded for
+     * @param out       builder to append to
+     * @return          out
+     */
+    public static StringBuilder encodeTo(CharSequence s, int start, int end,
+                                         Component component, StringBuilder out)
+    {
+        int run = start; //Start of chars to be copied as they are
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (component.allows(c)) {
+                continue;
+            }
+
+            out.append(s, run, i);
+
+            int cp = c;
+            if (Character.isHighSurrogate(c) && i + 1 < end &&
+                Character.isLowSurrogate(s.charAt(i + 1))) {
+                cp = Character.toCodePoint(c, s.charAt(++i));
+            }
+
+            appendUtf8(out, cp);
+            run = i + 1;
+        }
+
+        return out.append(s, run, end);
+    }
+
+    private static void appendUtf8(StringBuilder out, int cp)
+    {
+        if (cp < 0x80) {
+            appendOctet(out, cp);
+        }
+        else if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+            //Unpaired surrogate, as String.getBytes() does
+            appendOctet(out, '?');
+        }
+        else if (cp < 0x800) {
+            appendOctet(out, 0xC0 | (cp >> 6));
+            appendOctet(out, 0x80 | (cp & 0x3F));
+        }
+        else if (cp < 0x10000) {
+            appendOctet(out, 0xE0 | (cp >> 12));
+            appendOctet(out, 0x80 | ((cp >> 6) & 0x3F));
+            appendOctet(out, 0x80 | (cp & 0x3F));
+        }
+        else {
+            appendOctet(out, 0xF0 | (cp >> 18));
+            appendOctet(out, 0x80 | ((cp >> 12) & 0x3F));
+            appendOctet(out, 0x80 | ((cp >> 6) & 0x3F));
+            appendOctet(out, 0x80 | (cp & 0x3F));
+        }
+    }
+
+    private static void appendOctet(StringBuilder out, int b)
+    {
+        out.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xF]);
+    }
+
+    /**
+     * Check if chars need decoding
+     *
+     * @param s    chars
+     * @param form true if '+' is decoded as space
+     * @return     true if s has '%', or '+' for form decoding
+     */
+    public static boolean needsDecoding(CharSequence s, boolean form)
+    {
+        return needsDecoding(s, 0, s.length(), form);
+    }
+
+    private static boolean needsDecoding(CharSequence s, int start, int end,
+                                         boolean form)
+    {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '%' || (c == '+' && form)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Decode chars, '+' is not decoded
+     *
+     * @param s chars, may be null
+     * @return  s itself if it has no '%', a decoding view otherwise
+     */
+    public static CharSequence decode(CharSequence s)
+    {
+        return decode(s, false);
+    }
+
+    /**
+     * Decode chars, returned view decodes s on first access, so s must not
+     * change until then. Views of a URL are valid until next reset() call.
+     *
+     * @param s    chars, may be null
+     * @param form true if '+' is decoded as space
+     * @return     s itself if there is nothing to decode, a view otherwise
+     * @throws IllegalArgumentException if s has an invalid escape, thrown
+     *                                  on first access of the view
+     */
+    public static CharSequence decode(CharSequence s, boolean form)
+    {
+        if (s == null || !needsDecoding(s, form)) {
+            return s;
+        }
+
+        return new Decoded(s, form);
+    }
+
+    /**
+     * Decode chars and append them to out
+     *
+     * @param s    chars
+     * @param form true if '+' is decoded as space
+     * @param out  builder to append to
+     * @return     out
+     * @throws IllegalArgumentException if s has an invalid escape
+     */
+    public static StringBuilder decodeTo(CharSequence s, boolean form,
+                                         StringBuilder out)
+    {
+        return decodeTo(s, 0, s.length(), form, out);
+    }
+
+    /**
+     * Decode chars in [start, end) of s and append them to out, e.g. with
+     * offsets of a QueryIndex
+     *
+     * @param s     chars
+     * @param start start index, inclusive
+     * @param end   end index, exclusive
+     * @param form  true if '+' is decoded as space
+     * @param out   builder to append to
+     * @return      out
+     * @throws IllegalArgumentException if s has an invalid escape
+     */
+    public static StringBuilder decodeTo(CharSequence s, int start, int end,
+                                         boolean form, StringBuilder out)
+    {
+        if (!needsDecoding(s, start, end, form)) {
+            return out.append(s, start, end);
+        }
+
+        int pos = start;
+        while (pos < end) {
+            long r = next(s, pos, end, form);
+            out.appendCodePoint((int) r);
+            pos = (int) (r >>> 32);
+        }
+
+        return out;
+    }
+
+    /**
+     * Decode chars in [start, end) of s into dst. Decoded length is never
+     * longer than end - start.
+     *
+     * @param s     chars
+     * @param start start index, inclusive
+     * @param end   end index, exclusive
+     * @param form  true if '+' is decoded as space
+     * @param dst   destination array
+     * @param off   offset in dst to write
+     * @return      count of chars written
+     * @throws IllegalArgumentException  if s has an invalid escape
+     * @throws IndexOutOfBoundsException if dst is too small
+     */
+    public static int decodeTo(CharSequence s, int start, int end,
+                               boolean form, char[] dst, int off)
+    {
+        int count = 0;
+        int pos = start;
+
+        while (pos < end) {
+            long r = next(s, pos, end, form);
+            count += Character.toChars((int) r, dst, off + count);
+            pos = (int) (r >>> 32);
+        }
+
+        return count;
+    }
+
+    /**
+     * Decode chars in [start, end) of s into dst as octets, without
+     * decoding them as UTF-8. Chars which are not escaped are written as
+     * their UTF-8 encoding, i.e. as a single octet for ASCII chars.
+     *
+     * @param s     chars
+     * @param start start index, inclusive
+     * @param end   end index, exclusive
+     * @param form  true if '+' is decoded as space
+     * @param dst   destination buffer, written from its position
+     * @return      count of octets written
+     * @throws IllegalArgumentException if s has an invalid escape
+     * @throws java.nio.BufferOverflowException if dst is too small
+     */
+    public static int decodeTo(CharSequence s, int start, int end,
+                               boolean form, ByteBuffer dst)
+    {
+        int begin = dst.position();
+        int pos = start;
+
+        while (pos < end) {
+            char c = s.charAt(pos);
+
+            if (c == '%') {
+                dst.put((byte) octet(s, pos, end));
+                pos += 3;
+            }
+            else if (c == '+' && form) {
+                dst.put((byte) ' ');
+                pos++;
+            }
+            else if (c < 0x80) {
+                dst.put((byte) c);
+                pos++;
+            }
+            else {
+                int cp = Character.codePointAt(s, pos);
+                putUtf8(dst, cp);
+                pos += Character.charCount(cp);
+            }
+        }
+
+        return dst.position() - begin;
+    }
+
+    private static void putUtf8(ByteBuffer dst, int cp)
+    {
+        if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+            //Unpaired surrogate, as String.getBytes() does
+            dst.put((byte) '?');
+        }
+        else if (cp < 0x800) {
+            dst.put((byte) (0xC0 | (cp >> 6)));
+            dst.put((byte) (0x80 | (cp & 0x3F)));
+        }
+        else if (cp < 0x10000) {
+            dst.put((byte) (0xE0 | (cp >> 12)));
+            dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            dst.put((byte) (0x80 | (cp & 0x3F)));
+        }
+        else {
+            dst.put((byte) (0xF0 | (cp >> 18)));
+            dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            dst.put((byte) (0x80 | (cp & 0x3F)));
+        }
+    }
+
+    private static int hex(char c)
+    {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+
+        c |= 0x20;
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Decode escape at pos, s.charAt(pos) is '%'
+     */
+    private static int octet(CharSequence s, int pos, int end)
+    {
+        if (pos + 2 < end) {
+            int hi = hex(s.charAt(pos + 1));
+            int lo = hex(s.charAt(pos + 2));
+
+            if (hi != -1 && lo != -1) {
+                return (hi << 4) | lo;
+            }
+        }
+
+        throw new IllegalArgumentException(
+                "Invalid percent-encoding at position " + pos + " : " + s);
+    }
+
+    /**
+     * Decode next code point at pos
+     *
+     * @return position after the code point in high 32 bits and the code
+     *         point in low 32 bits
+     */
+    private static long next(CharSequence s, int pos, int end, boolean form)
+    {
+        char c = s.charAt(pos);
+        if (c != '%') {
+            return result(pos + 1, (c == '+' && form) ? ' ' : c);
+        }
+
+        int b = octet(s, pos, end);
+        pos += 3;
+
+        if (b < 0x80) {
+            return result(pos, b);
+        }
+
+        int count; //Continuation octets
+        int cp;
+
+        if (b >= 0xC2 && b <= 0xDF) {
+            count = 1;
+            cp = b & 0x1F;
+        }
+        else if (b >= 0xE0 && b <= 0xEF) {
+            count = 2;
+            cp = b & 0x0F;
+        }
+        else if (b >= 0xF0 && b <= 0xF4) {
+            count = 3;
+            cp = b & 0x07;
+        }
+        else {
+            return result(pos, REPLACEMENT);
+        }
+
+        //Range of the first continuation octet excludes overlong forms and
+        //code points above U+10FFFF
+        int low  = b == 0xE0 ? 0xA0 : b == 0xF0 ? 0x90 : 0x80;
+        int high = b == 0xF4 ? 0x8F : 0xBF;
+
+        for (int i = 0; i < count; i++) {
+            if (pos >= end || s.charAt(pos) != '%') {
+                return result(pos, REPLACEMENT);
+            }
+
+            //Invalid octet is not consumed, it may start the next sequence,
+            //so a malformed sequence is replaced with one U+FFFD up to it
+            int cont = octet(s, pos, end);
+            if (cont < low || cont > high) {
+                return result(pos, REPLACEMENT);
+            }
+
+            cp = (cp << 6) | (cont & 0x3F);
+            pos += 3;
+            low  = 0x80;
+            high = 0xBF;
+        }
+
+        if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+            //Encoded surrogate is replaced as a whole, as JDK decoder does
+            return result(pos, REPLACEMENT);
+        }
+
+        return result(pos, cp);
+    }
+
+    private static long result(int pos, int cp)
+    {
+        return ((long) pos << 32) | cp;
+    }
+
+    /**
+     * Decoding view, decodes source chars into an array on first access
+     */
+    private static final class Decoded implements CharSequence
+    {
+        private final CharSequence src;
+        private final boolean form;
+        private char[] chars;
+        private int length;
+
+        private Decoded(CharSequence src, boolean form)
+        {
+            this.src  = src;
+            this.form = form;
+        }
+
+        private char[] decoded()
+        {
+            if (chars == null) {
+                char[] dst = new char[src.length()];
+                length = decodeTo(src, 0, src.length(), form, dst, 0);
+                chars = dst;
+            }
+
+            return chars;
+        }
+
+        @Override
+        public int length()
+        {
+            decoded();
+            return length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            char[] c = decoded();
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(
+                        "Index : " + index + ", length : " + length);
+            }
+
+            return c[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            char[] c = decoded();
+            if (start < 0 || start > end || end > length) {
+                throw new IndexOutOfBoundsException(
+                        "Start : " + start + ", end : " + end +
+                        ", length : " + length);
+            }
+
+            return new String(c, start, end - start);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(decoded(), 0, length);
+        }
+    }
+}
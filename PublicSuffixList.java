@@ -0,0 +1,493 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Public suffix lookup, finds the public suffix of a host, e.g. "co.uk",
+ * and its registrable domain, the suffix plus one label, e.g.
+ * "example.co.uk" for "www.example.co.uk". Rules are read from a file in
+ * the format of https://publicsuffix.org/list/ and matched as its
+ * algorithm describes : exception rules win, otherwise the rule with the
+ * most labels, a host matching no rule has its last label as suffix.
+ *
+ * <pre>
+ * PublicSuffixList list = PublicSuffixList.getDefault();
+ * PublicSuffixList.Match match = new PublicSuffixList.Match();
+ *
+ * for (String s : urls) {
+ *     url.reset(s);
+ *     CharSequence site = list.match(url, match).getRegistrableDomain();
+ * }
+ * </pre>
+ *
+ * Rules are compiled into a trie of labels, read right to left. Nodes are
+ * kept in flat arrays and children are found in a single open addressing
+ * table keyed by parent node and label hash. A lookup walks labels of the
+ * host from its end, hashing each label while finding its start, so a
+ * label costs one table probe and a char comparison. Nothing is allocated,
+ * results are views recycled by each call with the same Match.
+ *
+ * Labels are compared ASCII case-insensitively, rules with non-ASCII
+ * labels are converted to punycode while loading, as hosts of urls are
+ * ASCII. A trailing dot of a host is ignored. Instances are immutable and
+ * thread-safe.
+ */
+public final class PublicSuffixList
+{
+    /**
+     * File name of bundled list, looked up at the classpath root
+     */
+    public static final String DEFAULT_FILE = "public_suffix_list.dat";
+
+    private static final int RULE      = 1;      //Labels to node are a rule
+    private static final int WILDCARD  = 1 << 1; //Any child label ends a rule
+    private static final int EXCEPTION = 1 << 2; //Labels to node are an exception
+
+    //Nodes, 0 is root. Labels are lowercase chars [labelStart, labelEnd)
+    private final char[] labels;
+    private final int[] labelStart;
+    private final int[] labelEnd;
+    private final int[] hashes;
+    private final int[] parents;
+    private final byte[] flags;
+
+    private final int[] slots; //Child node of (parent, label hash), 0 if empty
+    private final int mask;
+    private final int rules;
+
+    private static volatile PublicSuffixList defaultList;
+
+    private PublicSuffixList(List<String> labelList, List<Integer> parentList,
+                             byte[] flags, int rules)
+    {
+        int count = labelList.size();
+        int length = 0;
+        for (String label : labelList) {
+            length += label.length();
+        }
+
+        this.labels     = new char[length];
+        this.labelStart = new int[count];
+        this.labelEnd   = new int[count];
+        this.hashes     = new int[count];
+        this.parents    = new int[count];
+        this.flags      = flags;
+        this.rules      = rules;
+
+        this.slots = new int[Integer.highestOneBit(Math.max(4, count) * 2 - 1) << 1];
+        this.mask  = slots.length - 1;
+
+        int pos = 0;
+        for (int id = 1; id < count; id++) {
+            String label = labelList.get(id);
+            label.getChars(0, label.length(), labels, pos);
+
+            labelStart[id] = pos;
+            labelEnd[id]   = pos + label.length();
+            parents[id]    = parentList.get(id);
+            hashes[id]     = hash(label, 0, label.length());
+            pos += label.length();
+
+            int i = slot(parents[id], hashes[id]);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+        }
+    }
+
+    /**
+     * Get list loaded from bundled {@link #DEFAULT_FILE}, private domains
+     * included. Bundled file is a subset of the Public Suffix List, common
+     * generic and country code suffixes only, so hosts under other
+     * suffixes fall back to their last label. Use
+     * {@link #load(Path, boolean)} with the full list from
+     * https://publicsuffix.org/list/ for complete coverage.
+     *
+     * @return default list
+     * @throws IllegalStateException if file is not found on classpath
+     * @throws UncheckedIOException  if file cannot be read
+     */
+    public static PublicSuffixList getDefault()
+    {
+        PublicSuffixList list = defaultList;
+        if (list == null) {
+            synchronized (PublicSuffixList.class) {
+                list = defaultList;
+                if (list == null) {
+                    list = loadDefault();
+                    defaultList = list;
+                }
+            }
+        }
+
+        return list;
+    }
+
+    private static PublicSuffixList loadDefault()
+    {
+        try (InputStream in = PublicSuffixList.class.getResourceAsStream("/" + DEFAULT_FILE)) {
+            if (in == null) {
+                throw new IllegalStateException(DEFAULT_FILE + " is not found on classpath");
+            }
+
+            return load(in, true);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Load rules from a file
+     *
+     * @param file         list file, UTF-8
+     * @param privateRules true to include rules of private domains section,
+     *                     e.g. "github.io"
+     * @return             list
+     * @throws IOException if file cannot be read
+     */
+    public static PublicSuffixList load(Path file, boolean privateRules)
+            throws IOException
+    {
+        try (InputStream in = Files.newInputStream(file)) {
+            return load(in, privateRules);
+        }
+    }
+
+    /**
+     * Load rules from a stream, stream is read to its end but not closed
+     *
+     * @param in           list content, UTF-8
+     * @param privateRules true to include rules of private domains section,
+     *                     e.g. "github.io"
+     * @return             list
+     * @throws IOException if stream cannot be read
+     */
+    public static PublicSuffixList load(InputStream in, boolean privateRules)
+            throws IOException
+    {
+        List<String> labels = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+        byte[] flags = new byte[64];
+        int rules = 0;
+
+        labels.add("");
+        parents.add(-1);
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        boolean inPrivate = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith("//")) {
+                if (line.contains("===BEGIN PRIVATE DOMAINS===")) {
+                    inPrivate = true;
+                }
+                else if (line.contains("===END PRIVATE DOMAINS===")) {
+                    inPrivate = false;
+                }
+                continue;
+            }
+
+            if (line.isEmpty() || (inPrivate && !privateRules)) {
+                continue;
+            }
+
+            //Rule is the first word of a line
+            int space = 0;
+            while (space < line.length() && !Character.isWhitespace(line.charAt(space))) {
+                space++;
+            }
+            String rule = line.substring(0, space);
+
+            int flag = RULE;
+            if (rule.startsWith("!")) {
+                flag = EXCEPTION;
+                rule = rule.substring(1);
+            }
+            else if (rule.startsWith("*.")) {
+                flag = WILDCARD;
+                rule = rule.substring(2);
+            }
+
+            rule = IDN.toASCII(rule, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+
+            int node = 0;
+            int end = rule.length();
+            while (end > 0) {
+                int start = rule.lastIndexOf('.', end - 1) + 1;
+                String label = rule.substring(start, end);
+
+                String key = node + "." + label;
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = labels.size();
+                    ids.put(key, id);
+                    labels.add(label);
+                    parents.add(node);
+                }
+
+                node = id;
+                end = start - 1;
+            }
+
+            if (flags.length <= node) {
+                flags = Arrays.copyOf(flags, Math.max(node + 1, flags.length * 2));
+            }
+
+            flags[node] |= flag;
+            rules++;
+        }
+
+        return new PublicSuffixList(labels, parents,
+                                    Arrays.copyOf(flags, labels.size()), rules);
+    }
+
+    /**
+     * @return Count of rules
+     */
+    public int size()
+    {
+        return rules;
+    }
+
+    /**
+     * Match host of url, only registered names have a public suffix, IP
+     * addresses do not
+     *
+     * @param url    parsed url
+     * @param result match to fill
+     * @return       result
+     */
+    public Match match(URL url, Match result)
+    {
+        CharSequence domain = url.getDomain();
+        if (domain == null || url.getHostType() != URL.HostType.REG_NAME) {
+            return result.clear();
+        }
+
+        return match(domain, result);
+    }
+
+    /**
+     * Match host
+     *
+     * @param host   host, e.g. "www.example.co.uk"
+     * @param result match to fill, its views refer to host
+     * @return       result
+     */
+    public Match match(CharSequence host, Match result)
+    {
+        int end = host.length();
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+
+        int suffix = -1;
+        int node = 0;
+        int labelEnd = end;
+
+        while (labelEnd > 0) {
+            int h = 0;
+            int start = labelEnd;
+            char c;
+            while (start > 0 && (c = host.charAt(start - 1)) != '.') {
+                h = 31 * h + toLowerCase(c);
+                start--;
+            }
+
+            if (start == labelEnd) {
+                //Empty label
+                break;
+            }
+
+            if (suffix == -1) {
+                //Implicit "*" rule, last label is a suffix
+                suffix = start;
+            }
+
+            int child = child(node, host, start, labelEnd, h);
+            if (child != 0 && (flags[child] & EXCEPTION) != 0) {
+                suffix = labelEnd + 1;
+                break;
+            }
+
+            if ((flags[node] & WILDCARD) != 0 ||
+                (child != 0 && (flags[child] & RULE) != 0)) {
+                suffix = start;
+            }
+
+            if (child == 0) {
+                break;
+            }
+
+            node = child;
+            labelEnd = start - 1;
+        }
+
+        int registrable = -1;
+        if (suffix > 0) {
+            int start = suffix - 1;
+            while (start > 0 && host.charAt(start - 1) != '.') {
+                start--;
+            }
+
+            if (start != suffix - 1) {
+                registrable = start;
+            }
+        }
+
+        return result.set(host, suffix, registrable, end);
+    }
+
+    private int child(int node, CharSequence s, int start, int end, int h)
+    {
+        for (int i = slot(node, h); slots[i] != 0; i = (i + 1) & mask) {
+            int id = slots[i];
+            if (hashes[id] == h && parents[id] == node &&
+                labelEquals(id, s, start, end)) {
+                return id;
+            }
+        }
+
+        return 0;
+    }
+
+    private boolean labelEquals(int id, CharSequence s, int start, int end)
+    {
+        int pos = labelStart[id];
+        if (labelEnd[id] - pos != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (labels[pos++] != toLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int slot(int parent, int hash)
+    {
+        int h = (parent * 0x9E3779B9) ^ hash;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Label hash, chars from last to first as labels are read right to left
+     */
+    private static int hash(CharSequence s, int start, int end)
+    {
+        int h = 0;
+        for (int i = end - 1; i >= start; i--) {
+            h = 31 * h + toLowerCase(s.charAt(i));
+        }
+
+        return h;
+    }
+
+    private static char toLowerCase(char c)
+    {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    /**
+     * Result of a match, views are recycled by the next match with the same
+     * instance and they are valid as long as matched host is
+     */
+    public static final class Match
+    {
+        private URL.CharBuffer suffix;
+        private URL.CharBuffer registrable;
+        private int suffixStart = -1;
+        private int registrableStart = -1;
+        private boolean hasSuffix;
+        private boolean hasRegistrable;
+
+        private Match clear()
+        {
+            suffixStart      = -1;
+            registrableStart = -1;
+            hasSuffix        = false;
+            hasRegistrable   = false;
+
+            return this;
+        }
+
+        private Match set(CharSequence host, int suffixStart,
+                          int registrableStart, int end)
+        {
+            this.suffixStart      = suffixStart;
+            this.registrableStart = registrableStart;
+            this.hasSuffix        = suffixStart != -1;
+            this.hasRegistrable   = registrableStart != -1;
+
+            if (hasSuffix) {
+                suffix = suffix == null ?
+                         new URL.CharBuffer(host, suffixStart, end) :
+                         suffix.set(host, suffixStart, end);
+            }
+
+            if (hasRegistrable) {
+                registrable = registrable == null ?
+                              new URL.CharBuffer(host, registrableStart, end) :
+                              registrable.set(host, registrableStart, end);
+            }
+
+            return this;
+        }
+
+        /**
+         * @return Public suffix, e.g. "co.uk", null if host is empty or it
+         *         is not a registered name
+         */
+        public CharSequence getPublicSuffix()
+        {
+            return hasSuffix ? suffix : null;
+        }
+
+        /**
+         * @return Registrable domain, e.g. "example.co.uk", null if host is
+         *         a public suffix itself or it has no suffix
+         */
+        public CharSequence getRegistrableDomain()
+        {
+            return hasRegistrable ? registrable : null;
+        }
+
+        /**
+         * @return Start index of public suffix in host, -1 if there is none
+         */
+        public int getSuffixStart()
+        {
+            return suffixStart;
+        }
+
+        /**
+         * @return Start index of registrable domain in host, -1 if there is
+         *         none
+         */
+        public int getRegistrableStart()
+        {
+            return registrableStart;
+        }
+    }
+}
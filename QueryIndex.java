@@ -0,0 +1,359 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ordered, multi-valued index of query key value pairs backed by primitive
+ * arrays, an alternative to QueryItem map of URL.
+ *
+ * Pairs are kept in the order they appear in query, each pair is four
+ * offsets into url : key start, key end, value start, value end.
+ * Distinct keys are indexed in an open addressing table which holds index
+ * of the first pair of each key, pairs with same key are chained with
+ * next indexes. Key hashes are computed with String.hashCode() formula
+ * while splitting the query, so a lookup with any CharSequence does not
+ * walk the query again and does not allocate.
+ *
+ * <pre>
+ * for (int i = index.first("user"); i != -1; i = index.next(i)) {
+ *     CharSequence value = index.value(i);
+ * }
+ *
+ * for (int i = 0; i < index.size(); i++) {
+ *     System.out.println(index.key(i) + " = " + index.value(i));
+ * }
+ * </pre>
+ *
+ * Index belongs to a URL instance and it is refilled when URL is reset.
+ * Methods returning views create a new view on each call, offsets can be
+ * used with {@link #source()} to avoid it.
+ */
+public final class QueryIndex
+{
+    private static final int KEY_START   = 0;
+    private static final int KEY_END     = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END   = 3;
+
+    private CharSequence src;
+    private int size;
+
+    private int[] offsets = new int[4 * 8]; //Four offsets per pair
+    private int[] hashes  = new int[8];     //Key hash of each pair
+    private int[] next    = new int[8];     //Next pair with same key or -1
+    private int[] tails   = new int[8];     //Last pair of key, for first pairs
+    private int[] table   = new int[16];    //First pair index + 1, 0 if empty
+
+    QueryIndex()
+    {
+    }
+
+    /**
+     * Remove all pairs, used if url has no query
+     */
+    void clear(CharSequence src)
+    {
+        this.src = src;
+
+        if (size != 0) {
+            Arrays.fill(table, 0);
+            size = 0;
+        }
+    }
+
+    /**
+     * Split query at [start, end) of src into pairs, query must be
+     * validated already
+     */
+    void reset(CharSequence src, int start, int end)
+    {
+        clear(src);
+
+        int head = start;
+        int split = Integer.MAX_VALUE;
+        int hash = 0;    //Hash of chars since head
+        int keyHash = 0; //Hash of chars between head and split
+
+        for (int pos = start; pos <= end; pos++) {
+            char c;
+            if (pos == end || (c = src.charAt(pos)) == '&') {
+                add(head, split, pos, split == Integer.MAX_VALUE ? hash : keyHash);
+                head = pos + 1;
+                split = Integer.MAX_VALUE;
+                hash = 0;
+            }
+            else {
+                //Same as URL query items, last '=' splits key and value
+                if (c == '=') {
+                    split = pos;
+                    keyHash = hash;
+                }
+                hash = 31 * hash + c;
+            }
+        }
+    }
+
+    private static int slot(int hash, int mask)
+    {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void add(int head, int split, int end, int hash)
+    {
+        split = Math.min(split, end);
+
+        if (size == hashes.length) {
+            int cap = size * 2;
+            offsets = Arrays.copyOf(offsets, 4 * cap);
+            hashes  = Arrays.copyOf(hashes, cap);
+            next    = Arrays.copyOf(next, cap);
+            tails   = Arrays.copyOf(tails, cap);
+        }
+
+        final int i = size++;
+        offsets[4 * i + KEY_START]   = head;
+        offsets[4 * i + KEY_END]     = split;
+        offsets[4 * i + VALUE_START] = Math.min(split + 1, end);
+        offsets[4 * i + VALUE_END]   = end;
+        hashes[i] = hash;
+        next[i]   = -1;
+
+        int s = find(src, head, split, hash);
+        if (table[s] != 0) {
+            int first = table[s] - 1;
+            next[tails[first]] = i;
+            tails[first] = i;
+            tails[i] = -1; //Not a first pair
+            return;
+        }
+
+        table[s] = i + 1;
+        tails[i] = i;
+
+        if (size * 2 > table.length) {
+            rehash();
+        }
+    }
+
+    private void rehash()
+    {
+        table = new int[table.length * 2];
+        final int mask = table.length - 1;
+
+        for (int i = 0; i < size; i++) {
+            if (tails[i] == -1) {
+                continue;
+            }
+
+            //Only first pairs of keys are in table
+            int s = slot(hashes[i], mask);
+            while (table[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            table[s] = i + 1;
+        }
+    }
+
+    /**
+     * @return slot of key if it exists, otherwise the empty slot to put it
+     */
+    private int find(CharSequence key, int start, int end, int hash)
+    {
+        final int mask = table.length - 1;
+        final int len = end - start;
+
+        int s = slot(hash, mask);
+        while (table[s] != 0) {
+            int i = table[s] - 1;
+            if (hashes[i] == hash &&
+                offsets[4 * i + KEY_END] - offsets[4 * i + KEY_START] == len &&
+                regionEquals(offsets[4 * i + KEY_START], key, start, len)) {
+                return s;
+            }
+            s = (s + 1) & mask;
+        }
+
+        return s;
+    }
+
+    private boolean regionEquals(int pos, CharSequence key, int start, int len)
+    {
+        for (int i = 0; i < len; i++) {
+            if (src.charAt(pos + i) != key.charAt(start + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int hash(CharSequence key)
+    {
+        if (key instanceof String) {
+            return key.hashCode();
+        }
+
+        int h = 0;
+        for (int i = 0; i < key.length(); i++) {
+            h = 31 * h + key.charAt(i);
+        }
+
+        return h;
+    }
+
+    /**
+     * @return number of key value pairs
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Find first pair of a key, lookup compares raw (not decoded) content
+     *
+     * @param key Any char sequence
+     * @return    index of first pair with key, -1 if there is none
+     */
+    public int first(CharSequence key)
+    {
+        if (size == 0) {
+            return -1;
+        }
+
+        int s = find(key, 0, key.length(), hash(key));
+
+        return table[s] - 1;
+    }
+
+    /**
+     * @param index Index of a pair
+     * @return      index of next pair with same key, -1 if there is none
+     */
+    public int next(int index)
+    {
+        return next[index];
+    }
+
+    /**
+     * @return true if query has key
+     */
+    public boolean contains(CharSequence key)
+    {
+        return first(key) != -1;
+    }
+
+    /**
+     * @return number of pairs with key
+     */
+    public int count(CharSequence key)
+    {
+        int count = 0;
+        for (int i = first(key); i != -1; i = next[i]) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return value of the first pair with key, null if key does not exist
+     */
+    public CharSequence getFirst(CharSequence key)
+    {
+        int i = first(key);
+
+        return i == -1 ? null : value(i);
+    }
+
+    /**
+     * @return values of all pairs with key in query order, empty list if
+     *         key does not exist
+     */
+    public List<CharSequence> getAll(CharSequence key)
+    {
+        List<CharSequence> values = new ArrayList<>();
+        for (int i = first(key); i != -1; i = next[i]) {
+            values.add(value(i));
+        }
+
+        return values;
+    }
+
+    /**
+     * @return key of pair at index
+     */
+    public CharSequence key(int index)
+    {
+        return new URL.CharBuffer(src, keyStart(index), keyEnd(index));
+    }
+
+    /**
+     * @return value of pair at index, empty if pair has no '='
+     */
+    public CharSequence value(int index)
+    {
+        return new URL.CharBuffer(src, valueStart(index), valueEnd(index));
+    }
+
+    /**
+     * @return url which offsets refer to
+     */
+    public CharSequence source()
+    {
+        return src;
+    }
+
+    /**
+     * @param index index of pair
+     * @return      offset of key start in {@link #source()}
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    public int keyStart(int index)
+    {
+        checkIndex(index);
+        return offsets[4 * index + KEY_START];
+    }
+
+    /**
+     * @param index index of pair
+     * @return      offset of key end in {@link #source()}, exclusive
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    public int keyEnd(int index)
+    {
+        checkIndex(index);
+        return offsets[4 * index + KEY_END];
+    }
+
+    /**
+     * @param index index of pair
+     * @return      offset of value start in {@link #source()}, equal to
+     *              valueEnd(index) if pair has no '='
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    public int valueStart(int index)
+    {
+        checkIndex(index);
+        return offsets[4 * index + VALUE_START];
+    }
+
+    /**
+     * @param index index of pair
+     * @return      offset of value end in {@link #source()}, exclusive
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    public int valueEnd(int index)
+    {
+        checkIndex(index);
+        return offsets[4 * index + VALUE_END];
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                "index : " + index + ", size : " + size);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Visitor of query parameters, see {@link URL#forEachQueryParam(QueryVisitor)}
+ *
+ * <pre>
+ * URL url = new URL(URL.LAZY);
+ *
+ * url.reset(s).forEachQueryParam((key, value) -> {
+ *     if ("id".contentEquals(key)) {
+ *         id = value.toString();
+ *         return false;
+ *     }
+ *     return true;
+ * });
+ * </pre>
+ *
+ * Parameters are visited in the order they appear in query, split as
+ * query items are, last '=' splits key and value. Keys and values are
+ * percent-encoded views, recycled for each parameter, so they are valid
+ * only during the call.
+ */
+@FunctionalInterface
+public interface QueryVisitor
+{
+    /**
+     * @param key   key of parameter
+     * @param value value of parameter, empty if parameter has no '='
+     * @return      true to visit next parameter, false to stop
+     */
+    boolean visit(CharSequence key, CharSequence value);
+}
@@ -0,0 +1,321 @@
+import java.util.Locale;
+
+/**
+ * Registry of known schemes. A registered scheme is a single interned
+ * instance, so it can be compared by identity. Equality by content is
+ * kept as well, a Scheme equals a String or a URL.CharBuffer view of the
+ * same lowercase scheme and its hash is the String hash of it :
+ *
+ * <pre>
+ * if (url.getScheme() == Scheme.HTTPS) {
+ *     ...
+ * }
+ *
+ * Scheme redis = Scheme.register("redis", 6379, 0);
+ * </pre>
+ *
+ * URL recognizes registered schemes case-insensitively in place while
+ * parsing, with the hash computed in the same walk that validates scheme
+ * chars, and returns the registered instance from
+ * {@link URL#getScheme()}, so no lowercase copy or view is created. A port
+ * equal to the default port of scheme is removed while parsing, as RFC
+ * 3986 Section 3.2.3 recommends.
+ *
+ * Rules are flags of scheme-specific behavior, e.g. {@link #HOST_REQUIRED}
+ * makes URL reject urls of the scheme without a host. Lookups are
+ * lock-free, registration is synchronized and copies the table, as it is
+ * expected to happen a few times at startup.
+ */
+public final class Scheme implements CharSequence
+{
+    /**
+     * Rule of schemes whose transport is secure, e.g. TLS for https
+     */
+    public static final int SECURE = 1;
+
+    /**
+     * Rule of schemes which require a non-empty host, e.g. RFC 7230
+     * Section 2.7.1 for http : "A recipient that processes such a URI
+     * reference MUST reject it as invalid."
+     */
+    public static final int HOST_REQUIRED = 1 << 1;
+
+    private static volatile Scheme[] table = new Scheme[16];
+    private static int count;
+
+    public static final Scheme HTTP  = register("http",  80,  HOST_REQUIRED);
+    public static final Scheme HTTPS = register("https", 443, HOST_REQUIRED | SECURE);
+    public static final Scheme WS    = register("ws",    80,  HOST_REQUIRED);
+    public static final Scheme WSS   = register("wss",   443, HOST_REQUIRED | SECURE);
+    public static final Scheme FTP   = register("ftp",   21,  HOST_REQUIRED);
+
+    private final String name;
+    private final int hash;
+    private final int defaultPort;
+    private final int rules;
+
+    private Scheme(String name, int defaultPort, int rules)
+    {
+        this.name        = name;
+        this.hash        = name.hashCode();
+        this.defaultPort = defaultPort;
+        this.rules       = rules;
+    }
+
+    /**
+     * Register a scheme, registering the same scheme again with the same
+     * port and rules returns the registered instance
+     *
+     * @param name        scheme, case-insensitive, e.g. "redis"
+     * @param defaultPort default port, -1 if scheme has none
+     * @param rules       rules combined with bitwise or, e.g.
+     *                    HOST_REQUIRED | SECURE
+     * @return            registered scheme
+     * @throws IllegalArgumentException if name is not
+     *                                  ALPHA *( ALPHA / DIGIT / "+" / "-" / "." )
+     *                                  or port is out of range
+     * @throws IllegalStateException    if scheme is registered with another
+     *                                  port or rules
+     */
+    public static synchronized Scheme register(String name, int defaultPort,
+                                               int rules)
+    {
+        if (!isValid(name)) {
+            throw new IllegalArgumentException("Invalid scheme : " + name);
+        }
+
+        if (defaultPort < -1 || defaultPort > 65535) {
+            throw new IllegalArgumentException("Invalid port : " + defaultPort);
+        }
+
+        String lower = name.toLowerCase(Locale.ROOT);
+        Scheme existing = lookup(lower, 0, lower.length(), lower.hashCode());
+        if (existing != null) {
+            if (existing.defaultPort != defaultPort || existing.rules != rules) {
+                throw new IllegalStateException(
+                        "Scheme is registered with other port or rules : " + lower);
+            }
+
+            return existing;
+        }
+
+        Scheme scheme = new Scheme(lower, defaultPort, rules);
+
+        Scheme[] t = table;
+        if ((count + 1) * 2 > t.length) {
+            t = new Scheme[t.length * 2];
+            for (Scheme s : table) {
+                if (s != null) {
+                    put(t, s);
+                }
+            }
+        }
+        else {
+            t = t.clone();
+        }
+
+        put(t, scheme);
+        count++;
+        table = t;
+
+        return scheme;
+    }
+
+    private static void put(Scheme[] t, Scheme scheme)
+    {
+        int mask = t.length - 1;
+        int i = slot(scheme.hash, mask);
+        while (t[i] != null) {
+            i = (i + 1) & mask;
+        }
+        t[i] = scheme;
+    }
+
+    private static boolean isValid(String name)
+    {
+        if (name.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean alpha = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!alpha && (i == 0 || !((c >= '0' && c <= '9') ||
+                                       c == '+' || c == '-' || c == '.'))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Find a registered scheme
+     *
+     * @param name scheme, case-insensitive
+     * @return     registered scheme, null if name is not registered
+     */
+    public static Scheme of(CharSequence name)
+    {
+        return lookup(name, 0, name.length());
+    }
+
+    /**
+     * Find a registered scheme in [start, end) of s
+     *
+     * @return registered scheme, null if there is none
+     */
+    static Scheme lookup(CharSequence s, int start, int end)
+    {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + toLowerCase(s.charAt(i));
+        }
+
+        return lookup(s, start, end, h);
+    }
+
+    /**
+     * Find a registered scheme in [start, end) of s
+     *
+     * @param hash hash of lowercase chars, as String.hashCode() computes
+     * @return     registered scheme, null if there is none
+     */
+    static Scheme lookup(CharSequence s, int start, int end, int hash)
+    {
+        Scheme[] t = table;
+        int mask = t.length - 1;
+
+        for (int i = slot(hash, mask); t[i] != null; i = (i + 1) & mask) {
+            Scheme scheme = t[i];
+            if (scheme.hash == hash && scheme.matches(s, start, end)) {
+                return scheme;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean matches(CharSequence s, int start, int end)
+    {
+        if (name.length() != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != toLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int slot(int hash, int mask)
+    {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    static char toLowerCase(char c)
+    {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    /**
+     * @return Default port, -1 if scheme has none
+     */
+    public int getDefaultPort()
+    {
+        return defaultPort;
+    }
+
+    /**
+     * @return Rules combined with bitwise or
+     */
+    public int getRules()
+    {
+        return rules;
+    }
+
+    /**
+     * @return true if scheme has {@link #SECURE} rule
+     */
+    public boolean isSecure()
+    {
+        return (rules & SECURE) != 0;
+    }
+
+    /**
+     * @return true if scheme has {@link #HOST_REQUIRED} rule
+     */
+    public boolean requiresHost()
+    {
+        return (rules & HOST_REQUIRED) != 0;
+    }
+
+    @Override
+    public int length()
+    {
+        return name.length();
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return name.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return name.subSequence(start, end);
+    }
+
+    /**
+     * @param o object to compare
+     * @return  true if o is a CharSequence with the same chars, e.g.
+     *          "http" for {@link #HTTP}
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this) {
+            return true;
+        }
+
+        if (!(o instanceof CharSequence) || o instanceof Scheme) {
+            return false;
+        }
+
+        CharSequence s = (CharSequence) o;
+        if (s.length() != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return String.hashCode() of scheme
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /**
+     * @return Scheme, lowercase
+     */
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -1,6 +1,14 @@
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Generic URLParser implementation based on RFC 3986
@@ -20,46 +28,250 @@ import java.util.Map;
  * implementation.
  *
  * Some required parts are skipped as it makes project scope grow
- * IP validation(v4 & v6),
- * URI reference resolution(therefore Path component validation)
+ * relative references, which are resolved to urls with URLResolver
+ *
+ * Host is classified while parsing authority, see {@link HostType}. IPv4
+ * and IPv6 addresses are parsed into primitives, so they can be used
+ * without InetAddress or intermediate strings.
+ *
+ * Chars are classified with a lookup table of RFC 3986 character classes,
+ * only ASCII chars are accepted in every component, host included, others
+ * must be percent-encoded. For urls parsed from byte arrays, path and query
+ * may be scanned with Vector API, see VectorScanner.
+ *
+ * --------------------------------------------------------------------
+ *
+ * An instance may be reused to parse many urls one after another with
+ * {@link #reset(CharSequence)}. Authority, component views and query items
+ * are recycled between calls, so once internal arrays grow to fit the
+ * largest url seen, parsing does not allocate. As a consequence, anything
+ * returned from getters is only valid until next reset() call.
+ *
+ * Parsing records component boundaries, views are created or recycled on
+ * first call to a getter. With {@link #LAZY} option, query items are also
+ * created on first call to {@link #getQueryItems()} rather than while
+ * parsing, a query only scanned with {@link #forEachQueryParam} never
+ * builds them.
+ *
+ * Urls can be parsed directly from byte[] or ByteBuffer, each byte is
+ * taken as a char (ISO-8859-1), so no charset decoding or copy is made.
+ * Components then are views over the original bytes. As RFC 3986 allows
+ * only ASCII chars, UTF-8 text must be percent-encoded anyway.
+ *
+ * Components are returned as they appear in url, percent-encoded. They can
+ * be decoded with PercentCodec, which returns the same view if there is
+ * nothing to decode.
  *
  */
 public class URL
 {
-    private static final Map<String, String> DEFAULT_SCHEME_PORTS;
-    static {
-        DEFAULT_SCHEME_PORTS = new HashMap<>();
+    /**
+     * Option to defer creating component views and query items until the
+     * first call to corresponding getter. Parsing then only validates url
+     * and records component boundaries. Useful if only some components
+     * are read, e.g. domain and path for routing.
+     */
+    public static final int LAZY = 1;
 
-        DEFAULT_SCHEME_PORTS.put("http",  "80");
-        DEFAULT_SCHEME_PORTS.put("https", "443");
-    }
+    /**
+     * Option to compute fingerprints while parsing, see
+     * {@link #getFingerprint()}. Without it, fingerprints are computed on
+     * first call to a fingerprint getter, so url content must not change
+     * until then. Either way, hashing is a second pass after the parse
+     * scan, url is copied into a byte buffer and hashed from there.
+     */
+    public static final int FINGERPRINT = 1 << 1;
 
-    private static class Authority
+    /**
+     * Kinds of errors reported for malformed urls, reason strings are used
+     * in exception messages
+     */
+    public enum ErrorKind
     {
-        private CharSequence userInfo;
-        private CharSequence domain;
-        private CharSequence port;
+        NONE(""),
+        NO_SCHEME("No scheme found"),
+        INVALID_SCHEME("Scheme must confirm to " +
+                       "ALPHA *( ALPHA / DIGIT / '+' / '-' / '.' )"),
+        INVALID_USER_INFO("user-info must confirm to " +
+                          "*( unreserved / pct-encoded / sub-delims / ':' )"),
+        INVALID_HOST("Host must confirm to " +
+                     "'[' ( IPv6address / IPvFuture  ) ']' or " +
+                     "*( unreserved / pct-encoded / sub-delims )"),
+        MISSING_HOST("Scheme requires a non-empty host"),
+        INVALID_PORT("Port must confirm to = *DIGIT"),
+        INVALID_PATH("Path must confirm to *( pchar / '/' )"),
+        INVALID_QUERY("Query must confirm to *( pchar / '/' / '?' )"),
+        INVALID_FRAGMENT("Fragment must confirm to *( pchar / '/' / '?' )");
+
+        private final String reason;
+
+        ErrorKind(String reason)
+        {
+            this.reason = reason;
+        }
 
-        private Authority(CharSequence userInfo, CharSequence domain,
-                                                 CharSequence port)
+        /**
+         * @return description of the rule which is broken
+         */
+        public String reason()
         {
-            this.userInfo = userInfo;
-            this.domain   = domain;
-            this.port     = port;
+            return reason;
         }
     }
 
-    private final String url;
+    /**
+     * Kinds of hosts, RFC 3986 Section 3.2.2
+     */
+    public enum HostType
+    {
+        /**
+         * Registered name, e.g. "example.com", or an empty host
+         */
+        REG_NAME,
+
+        /**
+         * IPv4 address in dotted-decimal form, e.g. "127.0.0.1"
+         */
+        IPV4,
 
-    private CharSequence scheme;
-    private Authority authority;
-    private CharSequence path;
-    private CharSequence query;
-    private CharSequence fragment;
+        /**
+         * IPv6 address in brackets, e.g. "[::1]"
+         */
+        IPV6,
 
-    private Map<CharSequence, QueryItem> queryItems; //Key value queries in order
+        /**
+         * IP address of a future version in brackets, e.g. "[v7.a:b]"
+         */
+        IPVFUTURE
+    }
 
+    private static final ThreadLocal<URL> VALIDATOR =
+                                    ThreadLocal.withInitial(() -> new URL(LAZY));
 
+    //Parse listener of all instances, null if instrumentation is disabled,
+    //which costs a single volatile read per parse
+    private static volatile ParseListener listener;
+    private static volatile int sampleMask;
+
+    private static class Authority
+    {
+        //Boundaries in url, start is -1 if component does not exist
+        private int userInfoStart = -1;
+        private int userInfoEnd;
+        private int domainStart;
+        private int domainEnd;
+        private int portStart = -1;
+        private int portEnd;
+
+        //Host address, set for IP hosts only
+        private HostType hostType;
+        private int ipv4;
+        private long ipv6High;
+        private long ipv6Low;
+
+        //Views, created on first use and recycled afterwards
+        private CharBuffer userInfo;
+        private CharBuffer domain;
+        private CharBuffer port;
+
+        private Authority reset()
+        {
+            this.userInfoStart = -1;
+            this.portStart     = -1;
+            this.hostType      = HostType.REG_NAME;
+            this.ipv4          = 0;
+            this.ipv6High      = 0;
+            this.ipv6Low       = 0;
+
+            return this;
+        }
+    }
+
+    /*
+     * Bits of components whose views are set for current url, views are
+     * set lazily in getters
+     */
+    private static final int SCHEME_SET      = 1;
+    private static final int USERINFO_SET    = 1 << 1;
+    private static final int DOMAIN_SET      = 1 << 2;
+    private static final int PORT_SET        = 1 << 3;
+    private static final int PATH_SET        = 1 << 4;
+    private static final int QUERY_SET       = 1 << 5;
+    private static final int FRAGMENT_SET    = 1 << 6;
+    private static final int QUERY_ITEMS_SET = 1 << 7;
+    private static final int QUERY_INDEX_SET = 1 << 8;
+    private static final int FINGERPRINT_SET = 1 << 9;
+
+    private final int options;
+
+    private CharSequence url;
+
+    //Component boundaries in url, start is -1 if component does not exist
+    private CharSequence schemeSrc; //url or its lowercase scheme copy
+    private int schemeEnd;
+    private Scheme knownScheme;     //null if scheme is not registered
+    private Authority authority;    //null if url has no authority
+    private int pathStart;
+    private int pathEnd;
+    private int queryStart = -1;
+    private int queryEnd;
+    private int fragmentStart = -1;
+
+    private int viewsSet;
+
+    private ErrorKind error = ErrorKind.NONE;
+    private int errorPos = -1;
+
+    //Views, created on first use and recycled afterwards
+    private CharBuffer scheme;
+    private CharBuffer path;
+    private CharBuffer query;
+    private CharBuffer fragment;
+
+    //64-bit hashes, 0 if component does not exist
+    private long fingerprint;
+    private long hostFingerprint;
+    private long pathFingerprint;
+    private long queryFingerprint;
+
+    private QueryMap queryItems; //Key value queries in order
+    private QueryIndex queryIndex;
+    private CharBuffer paramKey;   //Views passed to query visitors
+    private CharBuffer paramValue;
+
+    private Authority authorityHolder;
+    private AsciiBuffer bytes;
+
+    private QueryItem[] itemPool;
+    private int itemCount;
+
+    //Set if url is parsed from bytes and a vectorized scanner is present
+    private byte[] scanArray;
+    private int scanOffset;
+    private String lowerScheme = ""; //Last lowercase copy of a scheme
+    private int parseCount;          //Parses notified, for latency sampling
+    private ByteBuffer hashBuf = ByteBuffer.allocate(0); //Url copy for fingerprints
+
+
+    /**
+     * Create an empty instance to be filled later with
+     * {@link #reset(CharSequence)}
+     */
+    public URL()
+    {
+        this(0);
+    }
+
+    /**
+     * Create an empty instance to be filled later with
+     * {@link #reset(CharSequence)}
+     *
+     * @param options 0 or {@link #LAZY}
+     */
+    public URL(int options)
+    {
+        this.options = options;
+    }
 
     /**
      * Parse url conforming to RFC3986
@@ -70,65 +282,547 @@ public class URL
      */
     public URL(String url)
     {
-        this.url = url;
-        this.queryItems = new LinkedHashMap<>();
+        this(url, 0);
+    }
 
-        parse();
+    /**
+     * Parse url conforming to RFC3986
+     *
+     * @param url     Url string to parse
+     * @param options 0 or {@link #LAZY}
+     * @exception IllegalArgumentException if url param does not conform
+     *                                     to RFC 3986 rules
+     */
+    public URL(String url, int options)
+    {
+        this(options);
+        reset(url);
+    }
+
+    /**
+     * Parse url conforming to RFC3986 from bytes, see
+     * {@link #reset(byte[], int, int)}
+     *
+     * @param buf Buffer holding url
+     * @param off Url start offset in buf
+     * @param len Url length in bytes
+     * @exception IllegalArgumentException if url param does not conform
+     *                                     to RFC 3986 rules
+     */
+    public URL(byte[] buf, int off, int len)
+    {
+        this();
+        reset(buf, off, len);
+    }
+
+    /**
+     * Parse url conforming to RFC3986 from a heap or direct buffer, see
+     * {@link #reset(ByteBuffer, int, int)}
+     *
+     * @param buf Buffer holding url
+     * @param off Url start index in buf, absolute
+     * @param len Url length in bytes
+     * @exception IllegalArgumentException if url param does not conform
+     *                                     to RFC 3986 rules
+     */
+    public URL(ByteBuffer buf, int off, int len)
+    {
+        this();
+        reset(buf, off, len);
+    }
+
+    /**
+     * Discard previous parse result and parse url from bytes. Components
+     * will be views over buf, so buf content must not be changed while
+     * they are in use.
+     *
+     * @param buf Buffer holding url
+     * @param off Url start offset in buf
+     * @param len Url length in bytes
+     * @return    this instance
+     * @exception IllegalArgumentException if url param does not conform
+     *                                     to RFC 3986 rules
+     */
+    public URL reset(byte[] buf, int off, int len)
+    {
+        if (!tryReset(buf, off, len)) {
+            throw new IllegalArgumentException(errorStr(errorPos, error.reason));
+        }
+
+        return this;
+    }
+
+    /**
+     * Discard previous parse result and parse url from a heap or direct
+     * buffer. Buffer position and limit are not used or changed. Components
+     * will be views over buf, so buf content must not be changed while
+     * they are in use.
+     *
+     * @param buf Buffer holding url
+     * @param off Url start index in buf, absolute
+     * @param len Url length in bytes
+     * @return    this instance
+     * @exception IllegalArgumentException if url param does not conform
+     *                                     to RFC 3986 rules
+     */
+    public URL reset(ByteBuffer buf, int off, int len)
+    {
+        if (!tryReset(buf, off, len)) {
+            throw new IllegalArgumentException(errorStr(errorPos, error.reason));
+        }
+
+        return this;
+    }
+
+    /**
+     * Discard previous parse result and parse url conforming to RFC3986.
+     * Views returned from getters before this call are recycled, they must
+     * not be used afterwards.
+     *
+     * @param url Url to parse
+     * @return    this instance
+     * @exception IllegalArgumentException if url param does not conform
+     *                                     to RFC 3986 rules
+     */
+    public URL reset(CharSequence url)
+    {
+        if (!tryReset(url)) {
+            throw new IllegalArgumentException(errorStr(errorPos, error.reason));
+        }
+
+        return this;
     }
 
     /**
-     * @return    parsed URL's scheme
+     * Discard previous parse result and parse url conforming to RFC3986
+     * without throwing an exception. If url is malformed, error kind and
+     * position are available from {@link #getError()} and
+     * {@link #getErrorPosition()}, components are empty then.
+     *
+     * @param url Url to parse
+     * @return    true if url conforms to RFC 3986 rules
+     */
+    public boolean tryReset(CharSequence url)
+    {
+        ParseListener l = listener;
+        boolean sampled = l != null && (parseCount++ & sampleMask) == 0;
+        long begin = sampled ? System.nanoTime() : 0;
+
+        this.url           = url;
+        this.authority     = null;
+        this.queryStart    = -1;
+        this.fragmentStart = -1;
+        this.viewsSet      = 0;
+        this.itemCount     = 0;
+        this.error         = ErrorKind.NONE;
+        this.errorPos      = -1;
+
+        if (queryItems != null) {
+            queryItems.reset();
+        }
+
+        if (SCANNER != null && url == bytes && bytes.array() != null) {
+            this.scanArray  = bytes.array();
+            this.scanOffset = bytes.offset();
+        }
+        else {
+            this.scanArray = null;
+        }
+
+        if (parse()) {
+            if ((options & FINGERPRINT) != 0) {
+                fingerprint();
+            }
+
+            if (l != null) {
+                l.parsed(this, sampled ? System.nanoTime() - begin : -1);
+            }
+            return true;
+        }
+
+        //Leave no partial result behind
+        this.schemeSrc     = url;
+        this.schemeEnd     = 0;
+        this.knownScheme   = null;
+        this.authority     = null;
+        this.pathStart     = 0;
+        this.pathEnd       = 0;
+        this.queryStart    = -1;
+        this.fragmentStart = -1;
+        this.itemCount     = 0;
+
+        if (queryItems != null) {
+            queryItems.reset();
+        }
+
+        if (l != null) {
+            l.failed(url, error, errorPos,
+                     sampled ? System.nanoTime() - begin : -1);
+        }
+
+        return false;
+    }
+
+    /**
+     * Same as {@link #tryReset(CharSequence)} for url in bytes, see
+     * {@link #reset(byte[], int, int)}
+     *
+     * @return true if url conforms to RFC 3986 rules
+     */
+    public boolean tryReset(byte[] buf, int off, int len)
+    {
+        if (bytes == null) {
+            bytes = new AsciiBuffer();
+        }
+
+        return tryReset(bytes.set(buf, off, len));
+    }
+
+    /**
+     * Same as {@link #tryReset(CharSequence)} for url in a heap or direct
+     * buffer, see {@link #reset(ByteBuffer, int, int)}
+     *
+     * @return true if url conforms to RFC 3986 rules
+     */
+    public boolean tryReset(ByteBuffer buf, int off, int len)
+    {
+        if (bytes == null) {
+            bytes = new AsciiBuffer();
+        }
+
+        return tryReset(bytes.set(buf, off, len));
+    }
+
+    /**
+     * Create compact form of this url to keep it in memory for long,
+     * see {@link CompactURL}. Url is not parsed again.
+     *
+     * @return compact form of this url
+     * @exception IllegalStateException    if there is no parsed url
+     * @exception IllegalArgumentException if url is longer than compact
+     *                                     form can hold
+     */
+    public CompactURL compact()
+    {
+        if (url == null || error != ErrorKind.NONE) {
+            throw new IllegalStateException("No parsed url");
+        }
+
+        final boolean hasAuthority = authority != null;
+
+        return CompactURL.of(url.toString(), schemeEnd, schemeSrc != url,
+                             hasAuthority ? authority.domainStart   : -1,
+                             hasAuthority && authority.userInfoStart != -1 ?
+                                            authority.userInfoEnd   : -1,
+                             hasAuthority ? authority.domainEnd     : -1,
+                             hasAuthority ? authority.portStart     : -1,
+                             pathStart, pathEnd, queryStart, queryEnd,
+                             fragmentStart);
+    }
+
+    /**
+     * Check if url conforms to RFC 3986 rules without throwing an exception
+     * or creating any object. A per thread instance is used to parse url.
+     *
+     * @param url Url to validate
+     * @return    {@link ErrorKind#NONE} if url is valid, kind of the first
+     *            error otherwise
+     */
+    public static ErrorKind validate(CharSequence url)
+    {
+        URL validator = VALIDATOR.get();
+        validator.tryReset(url);
+
+        //Don't keep caller's url reachable from the thread
+        validator.url       = null;
+        validator.schemeSrc = null;
+
+        return validator.error;
+    }
+
+    /**
+     * Set listener notified of every parse of all URL instances, e.g.
+     * {@link ParseMetrics}. Parse time is measured for one of each
+     * sampleInterval parses of an instance, as reading the clock costs
+     * more than parsing a short url. Without a listener, instrumentation
+     * costs a single volatile read per parse.
+     *
+     * @param listener       listener, null to disable instrumentation
+     * @param sampleInterval parses per parse time sample, a power of two,
+     *                       1 to measure all parses
+     * @exception IllegalArgumentException if sampleInterval is not a power
+     *                                     of two
+     */
+    public static void setParseListener(ParseListener listener,
+                                        int sampleInterval)
+    {
+        if (sampleInterval <= 0 || (sampleInterval & (sampleInterval - 1)) != 0) {
+            throw new IllegalArgumentException(
+                "Sample interval must be a power of two : " + sampleInterval);
+        }
+
+        URL.sampleMask = sampleInterval - 1;
+        URL.listener   = listener;
+    }
+
+    /**
+     * @return    parse listener, null if instrumentation is disabled
+     */
+    public static ParseListener getParseListener()
+    {
+        return listener;
+    }
+
+    /**
+     * @return    kind of the error if last parse failed,
+     *            {@link ErrorKind#NONE} otherwise
+     */
+    public ErrorKind getError()
+    {
+        return error;
+    }
+
+    /**
+     * @return    position of the offending char if last parse failed,
+     *            -1 otherwise
+     */
+    public int getErrorPosition()
+    {
+        return errorPos;
+    }
+
+    /**
+     * Set view to [start, end) of src, view is created if it is null
+     */
+    private static CharBuffer view(CharBuffer view, CharSequence src,
+                                   int start, int end)
+    {
+        return view == null ? new CharBuffer(src, start, end) :
+                              view.set(src, start, end);
+    }
+
+    /**
+     * @return    parsed URL's scheme, lowercase, the registered
+     *            {@link Scheme} instance if scheme is registered
      */
     public CharSequence getScheme()
     {
+        if (knownScheme != null) {
+            return knownScheme;
+        }
+
+        if ((viewsSet & SCHEME_SET) == 0) {
+            scheme = view(scheme, schemeSrc, 0, schemeEnd);
+            viewsSet |= SCHEME_SET;
+        }
+
         return scheme;
     }
 
+    /**
+     * @return    registered scheme of parsed URL, compared by identity,
+     *            null if scheme is not registered
+     */
+    public Scheme getRegisteredScheme()
+    {
+        return knownScheme;
+    }
+
     /**
      * @return    parsed URL's userInfo
      */
-    public CharSequence getUserInfo()
+    public CharBuffer getUserInfo()
     {
-        return authority == null ? null : authority.userInfo;
+        if (authority == null || authority.userInfoStart == -1) {
+            return null;
+        }
+
+        if ((viewsSet & USERINFO_SET) == 0) {
+            authority.userInfo = view(authority.userInfo, url,
+                                      authority.userInfoStart,
+                                      authority.userInfoEnd);
+            viewsSet |= USERINFO_SET;
+        }
+
+        return authority.userInfo;
     }
 
     /**
      * @return    parsed URL's domain
      */
-    public CharSequence getDomain()
+    public CharBuffer getDomain()
     {
-        return authority == null ? null : authority.domain;
+        if (authority == null) {
+            return null;
+        }
+
+        if ((viewsSet & DOMAIN_SET) == 0) {
+            authority.domain = view(authority.domain, url,
+                                    authority.domainStart, authority.domainEnd);
+            viewsSet |= DOMAIN_SET;
+        }
+
+        return authority.domain;
     }
 
     /**
      * @return    parsed URL's port
      */
-    public CharSequence getPort()
+    public CharBuffer getPort()
+    {
+        if (authority == null || authority.portStart == -1) {
+            return null;
+        }
+
+        if ((viewsSet & PORT_SET) == 0) {
+            authority.port = view(authority.port, url,
+                                  authority.portStart, authority.portEnd);
+            viewsSet |= PORT_SET;
+        }
+
+        return authority.port;
+    }
+
+    /**
+     * @return    type of parsed URL's host, null if url has no authority
+     */
+    public HostType getHostType()
+    {
+        return authority == null ? null : authority.hostType;
+    }
+
+    /**
+     * @return    IPv4 address of host, e.g. 0x7F000001 for "127.0.0.1", 0 if
+     *            host is not an IPv4 address
+     */
+    public int getIPv4()
+    {
+        return authority == null ? 0 : authority.ipv4;
+    }
+
+    /**
+     * @return    first 64 bits of IPv6 address of host, e.g.
+     *            0x20010DB800000000 for "[2001:db8::1]", 0 if host is not an
+     *            IPv6 address
+     */
+    public long getIPv6High()
     {
-        return authority == null ? null : authority.port;
+        return authority == null ? 0 : authority.ipv6High;
+    }
+
+    /**
+     * @return    last 64 bits of IPv6 address of host, e.g. 1 for
+     *            "[2001:db8::1]", 0 if host is not an IPv6 address
+     */
+    public long getIPv6Low()
+    {
+        return authority == null ? 0 : authority.ipv6Low;
     }
 
     /**
      * @return    parsed URL's path
      */
-    public CharSequence getPath()
+    public CharBuffer getPath()
     {
+        if ((viewsSet & PATH_SET) == 0) {
+            path = view(path, url, pathStart, pathEnd);
+            viewsSet |= PATH_SET;
+        }
+
         return path;
     }
 
+    /**
+     * Append authority with its leading "//" as it appears in url, nothing
+     * if url has no authority. Chars are appended from url rather than
+     * views, so a String url is copied in bulk.
+     *
+     * @param out builder to append to
+     * @return    out
+     */
+    StringBuilder appendAuthority(StringBuilder out)
+    {
+        return authority == null ? out : out.append(url, schemeEnd + 1, pathStart);
+    }
+
+    /**
+     * @return chars of url, components are ranges of it
+     */
+    CharSequence source()
+    {
+        return url;
+    }
+
+    /**
+     * Fill start and end index pairs of components in source(), in order
+     * scheme, userinfo, host, port, path, query and fragment. Start is -1
+     * if component does not exist.
+     *
+     * @param out array of at least 14 ints
+     */
+    void bounds(int[] out)
+    {
+        Authority a = authority;
+
+        out[0]  = 0;
+        out[1]  = schemeEnd;
+        out[2]  = a == null ? -1 : a.userInfoStart;
+        out[3]  = a == null ? -1 : a.userInfoEnd;
+        out[4]  = a == null ? -1 : a.domainStart;
+        out[5]  = a == null ? -1 : a.domainEnd;
+        out[6]  = a == null ? -1 : a.portStart;
+        out[7]  = a == null ? -1 : a.portEnd;
+        out[8]  = pathStart;
+        out[9]  = pathEnd;
+        out[10] = queryStart;
+        out[11] = queryEnd;
+        out[12] = fragmentStart;
+        out[13] = url.length();
+    }
+
+    /**
+     * Append first len chars of path, as appendAuthority() does
+     *
+     * @param out builder to append to
+     * @param len count of chars, not more than path length
+     * @return    out
+     */
+    StringBuilder appendPath(StringBuilder out, int len)
+    {
+        return out.append(url, pathStart, pathStart + len);
+    }
+
     /**
      * @return    parsed URL's query
      */
-    public CharSequence getQuery()
+    public CharBuffer getQuery()
     {
+        if (queryStart == -1) {
+            return null;
+        }
+
+        if ((viewsSet & QUERY_SET) == 0) {
+            query = view(query, url, queryStart, queryEnd);
+            viewsSet |= QUERY_SET;
+        }
+
         return query;
     }
 
     /**
      * @return    parsed URL's fragment
      */
-    public CharSequence getFragment()
+    public CharBuffer getFragment()
     {
+        if (fragmentStart == -1) {
+            return null;
+        }
+
+        if ((viewsSet & FRAGMENT_SET) == 0) {
+            fragment = view(fragment, url, fragmentStart, url.length());
+            viewsSet |= FRAGMENT_SET;
+        }
+
         return fragment;
     }
 
@@ -136,100 +830,538 @@ public class URL
      * Get query item map if any.
      * Any query key may hold multiple values
      *
+     * Map is read-only, put(), remove(), clear() and removal through its
+     * views throw UnsupportedOperationException. It is the same instance on each call
+     * and it is cleared and refilled on next reset(), so copy items which
+     * must outlive the url, e.g. into a HashMap of Strings.
+     *
      * @return Query map
      */
     public Map<CharSequence, QueryItem> getQueryItems()
     {
+        if (queryItems == null) {
+            queryItems = new QueryMap();
+        }
+
+        if ((viewsSet & QUERY_ITEMS_SET) == 0) {
+            //Items are added while parsing unless LAZY option is set
+            if ((options & LAZY) != 0 && queryStart != -1) {
+                splitQuery();
+            }
+            viewsSet |= QUERY_ITEMS_SET;
+        }
+
         return queryItems;
     }
 
     /**
+     * Visit query parameters in order, without creating query items or an
+     * index. Query is walked on each call, so with {@link #LAZY} option,
+     * callers who scan a query once never build the query item map.
      *
-     * @param c character to check against s
-     * @param s character list to search c in
-     * @return true if one of s' characters is equal to c
-     *         false otherwise
-     *
+     * @param visitor visitor, called with recycled key and value views
+     * @return        false if visitor stopped, true otherwise, also if url
+     *                has no query
      */
-    private static boolean isOneOfThem(char c, String s)
+    public boolean forEachQueryParam(QueryVisitor visitor)
     {
-        for (int i = 0; i < s.length(); i++) {
-            if (c == s.charAt(i)) {
-                return true;
+        if (queryStart == -1) {
+            return true;
+        }
+
+        if (paramKey == null) {
+            paramKey   = new CharBuffer();
+            paramValue = new CharBuffer();
+        }
+
+        int head = queryStart;
+        int split = -1;
+
+        for (int pos = queryStart; pos <= queryEnd; pos++) {
+            char c;
+            if (pos == queryEnd || (c = url.charAt(pos)) == '&') {
+                int keyEnd = split == -1 ? pos : split;
+                paramKey.set(url, head, keyEnd);
+                paramValue.set(url, Math.min(keyEnd + 1, pos), pos);
+
+                if (!visitor.visit(paramKey, paramValue)) {
+                    return false;
+                }
+
+                head = pos + 1;
+                split = -1;
+            }
+            else if (c == '=') {
+                split = pos;
             }
         }
 
-        return false;
+        return true;
     }
 
     /**
-     * RFC 3986 2.2. Reserved Chars
+     * Get query pairs as a flat index, see {@link QueryIndex}. Index is
+     * built on first call from already validated query, independent of
+     * query items, so with {@link #LAZY} option, query items are never
+     * created if only the index is used.
      *
-     * sub-delims  = "!" / "$" / "&" / "'" / "(" / ")"
-     *                   / "*" / "+" / "," / ";" / "="
+     * @return Query index, empty if url has no query
      */
-    private static boolean isSubDelim(char c)
+    public QueryIndex getQueryIndex()
     {
-        return isOneOfThem(c, "!$&'()*+,;=");
+        if (queryIndex == null) {
+            queryIndex = new QueryIndex();
+        }
+
+        if ((viewsSet & QUERY_INDEX_SET) == 0) {
+            if (queryStart == -1) {
+                queryIndex.clear(url);
+            }
+            else {
+                queryIndex.reset(url, queryStart, queryEnd);
+            }
+            viewsSet |= QUERY_INDEX_SET;
+        }
+
+        return queryIndex;
     }
 
     /**
-     *   RFC 3986 2.3. Unreserved Chars
+     * Get 64-bit fingerprint of url for deduplication and sharding.
+     *
+     * Fingerprint combines fingerprints of all components, scheme and host
+     * are hashed case insensitively and query is hashed regardless of the
+     * order of its parameters, see {@link #getQueryFingerprint()}. So urls
+     * differing only in these have the same fingerprint. Components are
+     * hashed as they appear in url otherwise, e.g. percent-encodings are
+     * not decoded, see URLNormalizer to normalize urls beforehand.
+     *
+     * Fingerprints are the same for same url content, whether url is
+     * parsed from a CharSequence, bytes or a ByteBuffer.
      *
-     *   unreserved  = ALPHA / DIGIT / "-" / "." / "_" / "~"
+     * @return Fingerprint of url
      */
-    private static boolean isUnreserved(char c)
+    public long getFingerprint()
     {
-        return Character.isAlphabetic(c) ||
-            Character.isDigit(c) || isOneOfThem(c, "-._~");
+        fingerprints();
+        return fingerprint;
     }
 
     /**
-     * Hex Digit = 0 to F
+     * @return Fingerprint of domain, case insensitive, 0 if url has no
+     *         authority
      */
-    private static boolean isHexDigit(char c)
+    public long getHostFingerprint()
     {
-        return Character.digit(c, 16) != -1;
+        fingerprints();
+        return hostFingerprint;
     }
 
     /**
-     * pct-encoded   = "%" HEXDIG HEXDIG
+     * @return Fingerprint of path
      */
-    private static boolean isPctEncoded(String s, int pos)
+    public long getPathFingerprint()
     {
-        if (s.charAt(pos) == '%' && pos + 2 != s.length()) {
-            if (isHexDigit(s.charAt(pos + 1)) &&
-                isHexDigit(s.charAt(pos + 2))) {
-                return true;
+        fingerprints();
+        return pathFingerprint;
+    }
+
+    /**
+     * Parameters are hashed separately and their hashes are summed, so
+     * "a=1&b=2" and "b=2&a=1" have the same fingerprint, while repeated
+     * parameters are not cancelled out.
+     *
+     * @return Fingerprint of query, 0 if url has no query
+     */
+    public long getQueryFingerprint()
+    {
+        fingerprints();
+        return queryFingerprint;
+    }
+
+    private void fingerprints()
+    {
+        if ((viewsSet & FINGERPRINT_SET) == 0) {
+            fingerprint();
+        }
+    }
+
+    /*
+     * Fingerprints are MurmurHash3 x64 style hashes over url chars taken as
+     * bytes, which is lossless as parsing rejects non-ASCII chars, including
+     * in the host. Url is copied into a byte array once and eight chars are
+     * read as a little-endian long.
+     */
+    private static final long C1    = 0x87c37b91114253d5L;
+    private static final long C2    = 0x4cf5ad432745937fL;
+    private static final long SEED  = 0x9E3779B97F4A7C15L;
+    private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+    private void fingerprint()
+    {
+        final int len = url.length();
+        if (hashBuf.capacity() < len + 8) {
+            //Tails are read as a long, so there is a long of slack at end
+            hashBuf = ByteBuffer.allocate(Math.max(len + 8, hashBuf.capacity() * 2))
+                                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        final ByteBuffer b = hashBuf;
+        final byte[] dst = b.array();
+
+        if (url == bytes && bytes.array() != null) {
+            System.arraycopy(bytes.array(), bytes.offset(), dst, 0, len);
+        }
+        else {
+            //Parsing rejects non-ASCII chars in all components, so the
+            //narrowing cast keeps each char as is
+            for (int i = 0; i < len; i++) {
+                dst[i] = (byte) url.charAt(i);
             }
         }
 
-        return false;
+        long userInfo = 0;
+        long host = 0;
+        long port = 0;
+
+        if (authority != null) {
+            if (authority.userInfoStart != -1) {
+                userInfo = hash(b, authority.userInfoStart,
+                                authority.userInfoEnd, false);
+            }
+
+            host = hash(b, authority.domainStart, authority.domainEnd, true);
+
+            if (authority.portStart != -1) {
+                port = hash(b, authority.portStart, authority.portEnd, false);
+            }
+        }
+
+        hostFingerprint  = host;
+        pathFingerprint  = hash(b, pathStart, pathEnd, false);
+        queryFingerprint = queryStart == -1 ? 0 : queryHash(b, queryStart, queryEnd);
+
+        long fragment = fragmentStart == -1 ? 0 : hash(b, fragmentStart, len, false);
+
+        //Each component has its own odd multiplier, so components are not
+        //interchangeable, products are independent and computed in parallel
+        long h = hash(b, 0, schemeEnd, true) * 0x9E3779B185EBCA87L +
+                 userInfo         * 0xC2B2AE3D27D4EB4FL +
+                 host             * 0x165667B19E3779F9L +
+                 port             * 0x85EBCA77C2B2AE63L +
+                 pathFingerprint  * 0x27D4EB2F165667C5L +
+                 queryFingerprint * C1 +
+                 fragment         * C2;
+
+        fingerprint = fmix(h ^ len);
+        viewsSet |= FINGERPRINT_SET;
     }
 
     /**
-     * RFC 3986 Section 3.3.  Path
+     * Blocks of eight chars are mixed into two independent lanes
+     * alternately, so two blocks are processed in parallel, lanes are
+     * combined before finalization
      *
-     * pchar  = unreserved / pct-encoded / sub-delims / ":" / "@"
+     * @param fold true to hash uppercase ASCII letters as lowercase
+     */
+    private static long hash(ByteBuffer b, int start, int end, boolean fold)
+    {
+        long h1 = SEED;
+        long h2 = SEED2;
+        int i = start;
+
+        for (; i + 16 <= end; i += 16) {
+            long b1 = b.getLong(i);
+            long b2 = b.getLong(i + 8);
+            if (fold) {
+                b1 = toLowerCase(b1);
+                b2 = toLowerCase(b2);
+            }
+
+            h1 = mix(h1, b1);
+            h2 = mix(h2, b2);
+        }
+
+        if (i + 8 <= end) {
+            h1 = mix(h1, fold ? toLowerCase(b.getLong(i)) : b.getLong(i));
+            i += 8;
+        }
+
+        long block = 0;
+        if (i != end) {
+            //Less than eight chars left, chars after end are masked out
+            block = b.getLong(i) & (-1L >>> ((8 - (end - i)) << 3));
+            if (fold) {
+                block = toLowerCase(block);
+            }
+        }
+
+        return finish(h1 ^ Long.rotateLeft(h2, 31), block, end - start);
+    }
+
+    /**
+     * Lowercase eight ASCII chars at once. A byte gets its high bit set
+     * after adding 0x3F if char is 'A' or above, and after adding 0x25 if
+     * char is above 'Z'. As chars are below 0x80, there is no carry.
+     */
+    private static long toLowerCase(long block)
+    {
+        long ge = block + 0x3F3F3F3F3F3F3F3FL;
+        long gt = block + 0x2525252525252525L;
+        long upper = ge & ~gt & 0x8080808080808080L;
+
+        return block | (upper >>> 2);
+    }
+
+    /**
+     * Hash of query where parameters are hashed separately and summed.
+     * '&' is searched eight chars at a time, a byte is zero after xor with
+     * '&' if it is '&', and only a zero byte gets its high bit set after
+     * subtracting one, as chars are ASCII.
+     */
+    private static long queryHash(ByteBuffer b, int start, int end)
+    {
+        long sum = 0;
+        int head = start;
+        int i = start;
+
+        while (i + 8 <= end) {
+            long x = b.getLong(i) ^ 0x2626262626262626L;
+            long found = (x - 0x0101010101010101L) & ~x & 0x8080808080808080L;
+            if (found == 0) {
+                i += 8;
+                continue;
+            }
+
+            int amp = i + (Long.numberOfTrailingZeros(found) >>> 3);
+            sum += hash(b, head, amp, false);
+            head = amp + 1;
+            i = head;
+        }
+
+        for (; i < end; i++) {
+            if (b.get(i) == '&') {
+                sum += hash(b, head, i, false);
+                head = i + 1;
+            }
+        }
+
+        sum += hash(b, head, end, false);
+
+        return fmix(sum);
+    }
+
+    private static long mix(long h, long block)
+    {
+        block *= C1;
+        block = Long.rotateLeft(block, 31);
+        block *= C2;
+
+        h ^= block;
+        h = Long.rotateLeft(h, 27);
+        return h * 5 + 0x52dce729;
+    }
+
+    private static long finish(long h, long block, int len)
+    {
+        if ((len & 7) != 0) {
+            block *= C1;
+            block = Long.rotateLeft(block, 31);
+            block *= C2;
+            h ^= block;
+        }
+
+        return fmix(h ^ len);
+    }
+
+    private static long fmix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    /*
+     * Character classes, RFC 3986 Section 2 and Appendix A. Each ASCII char
+     * has a bitmask of classes it belongs to, chars above 127 belong to none
+     */
+    private static final int ALPHA      = 1;
+    private static final int DIGIT      = 1 << 1;
+    private static final int HEX        = 1 << 2;
+    private static final int SCHEME     = 1 << 3; // ALPHA / DIGIT / "+" / "-" / "."
+    private static final int UNRESERVED = 1 << 4; // ALPHA / DIGIT / "-" / "." / "_" / "~"
+    private static final int SUB_DELIM  = 1 << 5; // "!" / "$" / "&" / "'" / "(" / ")"
+                                                  // / "*" / "+" / "," / ";" / "="
+    private static final int USERINFO   = 1 << 6; // unreserved / sub-delims / ":"
+    private static final int PCHAR      = 1 << 7; // unreserved / sub-delims / ":" / "@"
+    private static final int PATH       = 1 << 8; // pchar / "/"
+    private static final int QUERY      = 1 << 9; // pchar / "/" / "?", also fragment
+    private static final int QUERY_TEXT = 1 << 10; // query chars except "&" / "="
+
+    private static final short[] CHAR_CLASS = new short[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            addClass(c, ALPHA);
+            addClass(Character.toUpperCase(c), ALPHA);
+        }
+
+        for (char c = '0'; c <= '9'; c++) {
+            addClass(c, DIGIT | HEX);
+        }
+
+        for (char c = 'a'; c <= 'f'; c++) {
+            addClass(c, HEX);
+            addClass(Character.toUpperCase(c), HEX);
+        }
+
+        addClass("+-.", SCHEME);
+        addClass("-._~", UNRESERVED);
+        addClass("!$&'()*+,;=", SUB_DELIM);
+
+        for (char c = 0; c < CHAR_CLASS.length; c++) {
+            if (is(c, ALPHA | DIGIT)) {
+                addClass(c, SCHEME | UNRESERVED);
+            }
+
+            if (is(c, UNRESERVED | SUB_DELIM)) {
+                addClass(c, USERINFO | PCHAR);
+            }
+        }
+
+        addClass(':', USERINFO);
+        addClass(":@", PCHAR);
+
+        for (char c = 0; c < CHAR_CLASS.length; c++) {
+            if (is(c, PCHAR)) {
+                addClass(c, PATH | QUERY);
+            }
+        }
+
+        addClass('/', PATH);
+        addClass("/?", QUERY);
+
+        for (char c = 0; c < CHAR_CLASS.length; c++) {
+            if (is(c, QUERY) && c != '&' && c != '=') {
+                addClass(c, QUERY_TEXT);
+            }
+        }
+    }
+
+    /**
+     * Finds next char which needs attention in path or query of urls
+     * parsed from bytes, so plain chars can be skipped in bulk. Only chars
+     * which are valid and carry no meaning for the parser are skipped.
      *
-     * @param  s,  string to check against
-     * @param  pos pos of char to start checking
-     * @return     -1      if not pchar
-     *             pos + 1 if unreserved / sub-delims/ ':' / '@'
-     *             pos + 3 if pct-encoded
+     * A vectorized implementation is loaded if available, see VectorScanner
      */
-    private static int isPchar(String s, int pos)
+    interface DelimiterScanner
     {
-        char c = s.charAt(pos);
-        if (!isUnreserved(c) && !isSubDelim(c) && !isOneOfThem(c, ":@")) {
-            if (isPctEncoded(s, pos)) {
-                return pos + 3;
+        int PATH  = URL.PATH;
+        int QUERY = URL.QUERY_TEXT;
+
+        /**
+         * @param buf  bytes to scan
+         * @param from index to start scanning
+         * @param to   index to end scanning, exclusive
+         * @return     index of first byte in [from, to) which is not a path
+         *             char or '%', to if there is none
+         */
+        int skipPath(byte[] buf, int from, int to);
+
+        /**
+         * @param buf  bytes to scan
+         * @param from index to start scanning
+         * @param to   index to end scanning, exclusive
+         * @return     index of first byte in [from, to) which is not a query
+         *             char or is one of '&', '=', '%', to if there is none
+         */
+        int skipQuery(byte[] buf, int from, int to);
+
+        /**
+         * Scalar scan, used for tails shorter than vector length
+         *
+         * @param mask PATH or QUERY
+         * @return     index of first byte in [from, to) which is not in mask
+         */
+        static int skipScalar(byte[] buf, int from, int to, int mask)
+        {
+            while (from < to && is((char) (buf[from] & 0xFF), mask)) {
+                from++;
             }
 
-            return -1;
+            return from;
+        }
+    }
+
+    private static final DelimiterScanner SCANNER = loadScanner();
+
+    private static DelimiterScanner loadScanner()
+    {
+        try {
+            return (DelimiterScanner) Class.forName("VectorScanner")
+                                           .getDeclaredConstructor()
+                                           .newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            //Not compiled or jdk.incubator.vector module is not present,
+            //scalar loops will be used
+            return null;
+        }
+    }
+
+    private static void addClass(char c, int mask)
+    {
+        CHAR_CLASS[c] |= mask;
+    }
+
+    private static void addClass(String chars, int mask)
+    {
+        for (int i = 0; i < chars.length(); i++) {
+            addClass(chars.charAt(i), mask);
+        }
+    }
+
+    /**
+     * @param c    character to check
+     * @param mask character classes
+     * @return     true if c belongs to one of the classes in mask
+     */
+    private static boolean is(char c, int mask)
+    {
+        return c < CHAR_CLASS.length && (CHAR_CLASS[c] & mask) != 0;
+    }
+
+    /**
+     * pct-encoded   = "%" HEXDIG HEXDIG
+     */
+    private static boolean isPctEncoded(CharSequence s, int pos)
+    {
+        return s.charAt(pos) == '%' && pos + 2 < s.length() &&
+               is(s.charAt(pos + 1), HEX) && is(s.charAt(pos + 2), HEX);
+    }
+
+    /**
+     * Validates char at pos against mask, percent encoded octets are
+     * accepted as a single char.
+     *
+     * @param  s    string to check against
+     * @param  pos  pos of char to check
+     * @param  c    char at pos, caller has already read it
+     * @param  mask allowed character classes
+     * @return      -1      if char is not allowed
+     *              pos + 1 if char is in mask
+     *              pos + 3 if pct-encoded
+     */
+    private static int skipChar(CharSequence s, int pos, char c, int mask)
+    {
+        if (c < CHAR_CLASS.length && (CHAR_CLASS[c] & mask) != 0) {
+            return pos + 1;
         }
 
-        return pos + 1;
+        return isPctEncoded(s, pos) ? pos + 3 : -1;
     }
 
 
@@ -249,123 +1381,146 @@ public class URL
      * encounter port component, we check that port number against scheme
      * default. Therefore, we need to convert now or later anyway.
      *
-     * @param pos Position to end of scheme, must point to ':'
+     * Scheme is the first component, url must start with it, so parsing
+     * starts at position 0 and ends at first ':' char.
+     *
      * @return    Position to end of scheme so it will point one after
-     *            ':' char.
-     * @exception IllegalArgumentException  if scheme is already parsed
-     *                                      if scheme component does not
-     *                                      confirm to RFC syntax
+     *            ':' char, -1 if scheme component does not confirm to
+     *            RFC syntax
      */
-    private int parseScheme(int pos)
+    private int parseScheme()
     {
-        if (scheme != null) {
-            throw new IllegalArgumentException(
-                errorStr(pos, "Multiple scheme components"));
+        // scheme      = ALPHA *( ALPHA / DIGIT / '+' / '-' / '.' )
+        int pos = 0;
+        int hash = 0;
+        boolean upper = false;
+        while (pos != url.length()) {
+            char c = url.charAt(pos);
+            if (c == ':') {
+                break;
+            }
+
+            if (!is(c, SCHEME)) {
+                if (c == '/' || c == '?' || c == '#') {
+                    return fail(ErrorKind.NO_SCHEME, 0);
+                }
+
+                return fail(ErrorKind.INVALID_SCHEME, pos);
+            }
+
+            if (c >= 'A' && c <= 'Z') {
+                upper = true;
+                c += 32;
+            }
+
+            hash = 31 * hash + c;
+            pos++;
         }
 
-        // Scheme validation starts
-        // scheme      = ALPHA *( ALPHA / DIGIT / '+' / '-' / '.' )
-        if (pos == 0 || !Character.isAlphabetic(url.charAt(0)) ) {
-            throw new IllegalArgumentException(
-                errorStr(0, "Scheme must start with alphabetic chars"));
+        if (pos == url.length()) {
+            return fail(ErrorKind.NO_SCHEME, 0);
         }
 
-        int begin = 0;
-        while (begin != pos) {
-            char c = url.charAt(begin);
-            if (!Character.isDigit(c) &&
-                !Character.isAlphabetic(c) && !isOneOfThem(c, "+-.")) {
-                throw new IllegalArgumentException(
-                    errorStr(pos, "scheme must confirm to " +
-                                  "ALPHA *( ALPHA / DIGIT / '+' / '-' / '.' )"));
-            }
+        if (pos == 0 || !is(url.charAt(0), ALPHA)) {
+            return fail(ErrorKind.INVALID_SCHEME, 0);
+        }
 
-            begin++;
+        //Registered schemes are recognized in place, hash is of lowercase
+        //chars, so "HTTP" finds Scheme.HTTP without a copy
+        knownScheme = Scheme.lookup(url, 0, pos, hash);
+
+        CharSequence src = url;
+        if (upper) {
+            if (knownScheme != null) {
+                src = knownScheme;
+            }
+            else {
+                //Rare case, only here we create a lowercase copy, last copy
+                //is kept as the same scheme is likely to be seen again
+                if (!isLowerCaseOf(lowerScheme, url, pos)) {
+                    lowerScheme = url.subSequence(0, pos).toString()
+                                     .toLowerCase(Locale.ROOT);
+                }
+                src = lowerScheme;
+            }
         }
-        //Scheme validation end
 
-        scheme = new CharBuffer(url.substring(0, pos).toLowerCase(), 0, pos);
+        schemeSrc = src;
+        schemeEnd = pos;
 
         pos++; // Skip ':' char
         return pos;
     }
 
     /**
-     *
-     * @param begin Position to start of user-info
-     * @param pos   Position to end of user-info, must point to '@' char
-     * @return      Position to end of user info, so it will point one after
-     *              '@' char.
-     *
-     * @exception IllegalArgumentException if user-info component does not
-     *                                     confirm to RFC syntax
+     * @return true if lower is lowercase form of first len chars of s
      */
-    private int parseUserInfo(int begin, int pos)
+    private static boolean isLowerCaseOf(String lower, CharSequence s, int len)
     {
-        final int PCT_ENCODED_LEN = 3;
+        if (lower.length() != len) {
+            return false;
+        }
 
-        // User info validation
-        // userinfo    = *( unreserved / pct-encoded / sub-delims / ":" )
-        int i = begin;
-        while (i != pos) {
-            char c = url.charAt(i);
-            if (!isUnreserved(c) && !isSubDelim(c) && c != ':') {
-                if (isPctEncoded(url, i)) {
-                    i += PCT_ENCODED_LEN;
-                    continue;
-                }
-                throw new IllegalArgumentException(
-                    errorStr(i, "user-info must confirm to " +
-                           "*( unreserved / pct-encoded / sub-delims / ':' )"));
+        for (int i = 0; i < len; i++) {
+            if (lower.charAt(i) != Scheme.toLowerCase(s.charAt(i))) {
+                return false;
             }
-
-            i++;
         }
 
-        authority.userInfo = new CharBuffer(url, begin, pos);
-
-        pos++; // Skip '@' char
-        return pos;
+        return true;
     }
 
-
     /**
      * RFC 3986 Section 3.2
      * The authority component is preceded by a double slash ("//") and
      * is terminated by the next slash ("/"), question mark ("?"),
      * or number sign ("#") character, or by the end of the URI.
      *
+     * User-info and port are validated while walking authority, so each
+     * char is visited once. Until '@' is seen, we can't know if chars
+     * belong to user-info or host, so we only keep a flag whether they all
+     * are valid user-info chars. Similarly, a flag is kept for port chars
+     * after the last ':'.
      *
      * @param pos Position to start parsing, must point to "//" char couple
-     * @return    Position to end of authority component
-     *
-     * @exception IllegalArgumentException if authority already parsed
-     *                                     if authority component does not
-     *                                     confirm to RFC syntax
+     * @return    Position to end of authority component, -1 if authority
+     *            component does not confirm to RFC syntax
      */
     private int parseAuthority(int pos)
     {
-        if (authority != null) {
-            throw new IllegalArgumentException(
-                errorStr(pos, "Multiple authority components"));
+        if (authorityHolder == null) {
+            authorityHolder = new Authority();
         }
-
-        authority = new Authority(null, null, null);
-
-        boolean end = false;
+        authority = authorityHolder.reset();
 
         pos += "//".length(); //Skip authority start chars : "//",
         int colon = Integer.MAX_VALUE; //Port delimiter position
         int begin = pos;
 
-        while (pos != url.length() && !end) {
+        boolean userInfoValid = true; //All chars since begin are user-info
+        boolean portValid = true;     //All chars since colon are digits
+        int literalEnd = -1;          //Position after ']' of an IP-literal
+        int hostInvalid = -1;         //First non reg-name char since begin
+
+        while (pos != url.length()) {
             char c = url.charAt(pos);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+
+            if (c == '[' && pos == begin) {
+                //IP-literal host, its colons are not port delimiters
+                literalEnd = parseIPLiteral(pos);
+                if (literalEnd == -1) {
+                    return fail(ErrorKind.INVALID_HOST, pos);
+                }
+
+                userInfoValid = false;
+                pos = literalEnd;
+                continue;
+            }
+
             switch (c) {
-                case '?':
-                case '/':
-                case '#':
-                    end = true;
-                    break;
                 case ':':
                     /*
                      * Either this is port delimiter : 127.0.0.1:80
@@ -375,27 +1530,74 @@ public class URL
                      * when we encounter '@';
                      */
                     colon = pos;
+                    portValid = true;
                     pos++;
                     break;
+
                 case '@':
-                    pos = parseUserInfo(begin, pos);
+                    // User info validation
+                    // userinfo    = *( unreserved / pct-encoded / sub-delims / ":" )
+                    if (authority.userInfoStart != -1 || !userInfoValid) {
+                        return fail(ErrorKind.INVALID_USER_INFO, begin);
+                    }
+
+                    authority.userInfoStart = begin;
+                    authority.userInfoEnd   = pos;
 
                     //Colon we encountered before was user-info's, we track
                     //hostname:port colon encounter, so reset it back
                     colon = Integer.MAX_VALUE;
+                    hostInvalid = -1;
 
+                    pos++; // Skip '@' char
                     begin = pos;
                     break;
+
                 default:
+                    //reg-name = *( unreserved / pct-encoded / sub-delims ),
+                    //checked in the same walk, chars after a colon are
+                    //port or user-info chars
+                    if (hostInvalid == -1 && colon == Integer.MAX_VALUE &&
+                        !is(c, UNRESERVED | SUB_DELIM) &&
+                        (c != '%' || !isPctEncoded(url, pos))) {
+                        hostInvalid = pos;
+                    }
+
+                    portValid &= is(c, DIGIT);
+                    if (userInfoValid) {
+                        int next = skipChar(url, pos, c, USERINFO);
+                        if (next != -1) {
+                            pos = next;
+                            break;
+                        }
+                        userInfoValid = false;
+                    }
                     pos++;
                     break;
             }
         }
 
-
         final int domainEnd = Math.min(colon, pos);
-        // Here omitting ipv4 or ipv6 validation
-        authority.domain = new CharBuffer(url, begin, domainEnd);
+        authority.domainStart = begin;
+        authority.domainEnd   = domainEnd;
+
+        if (literalEnd != -1) {
+            if (domainEnd != literalEnd) {
+                //Chars after ']' other than port
+                return fail(ErrorKind.INVALID_HOST, literalEnd);
+            }
+        }
+        else {
+            if (hostInvalid != -1) {
+                return fail(ErrorKind.INVALID_HOST, hostInvalid);
+            }
+
+            long ipv4 = parseIPv4(url, begin, domainEnd);
+            if (ipv4 != -1) {
+                authority.hostType = HostType.IPV4;
+                authority.ipv4     = (int) ipv4;
+            }
+        }
 
         /*
          * RFC 3986 Section 3.3.3. Port
@@ -408,87 +1610,301 @@ public class URL
          * of the scheme's default.
          */
         if (domainEnd != pos){
-            CharBuffer port = new CharBuffer(url, domainEnd + 1, pos);
-            if (!port.chars().allMatch(Character::isDigit)) {
-                throw new IllegalArgumentException(
-                    errorStr(domainEnd + 1, "Port must confirm to = *DIGIT"));
+            if (!portValid) {
+                return fail(ErrorKind.INVALID_PORT, domainEnd + 1);
             }
 
-            CharSequence defaultPort = DEFAULT_SCHEME_PORTS.get(scheme);
-            if (defaultPort != null && defaultPort.equals(port)) {
-                port = null;
-            }
+            authority.portStart = domainEnd + 1;
+            authority.portEnd   = pos;
 
-            authority.port = port;
+            if (knownScheme != null &&
+                knownScheme.getDefaultPort() == portNumber(domainEnd + 1, pos)) {
+                authority.portStart = -1;
+            }
         }
 
         return pos;
     }
 
+    /**
+     * @return value of port digits in [start, end), leading zeros are
+     *         skipped, -2 if port is empty or longer than a port can be
+     */
+    private int portNumber(int start, int end)
+    {
+        while (start != end && url.charAt(start) == '0') {
+            start++;
+        }
+
+        if (end - start > 5) {
+            return -2;
+        }
+
+        int port = 0;
+        for (int i = start; i < end; i++) {
+            port = port * 10 + (url.charAt(i) - '0');
+        }
+
+        return start == end && url.charAt(end - 1) != '0' ? -2 : port;
+    }
+
 
     /**
-     * RFC 3986 Section 3.3. Path
+     * RFC 3986 Section 3.2.2. Host
      *
-     * The path is terminated by the first question mark ("?") or
-     * number sign ("#") character, or by the end of the URI
+     * IP-literal = "[" ( IPv6address / IPvFuture  ) "]"
+     * IPvFuture  = "v" 1*HEXDIG "." 1*( unreserved / sub-delims / ":" )
      *
-     * @param start start pos to indicate head of path component
-     * @param end   position to end of path component, -1 if unknown
-     * @return      Position to end of path component
+     * @param pos position of '['
+     * @return    position after ']', -1 if literal is invalid
+     */
+    private int parseIPLiteral(int pos)
+    {
+        int end = pos + 1;
+        while (end != url.length() && url.charAt(end) != ']') {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                return -1;
+            }
+            end++;
+        }
+
+        if (end == url.length() || end == pos + 1) {
+            return -1;
+        }
+
+        char first = url.charAt(pos + 1);
+        if (first == 'v' || first == 'V') {
+            int dot = pos + 2;
+            while (dot < end && is(url.charAt(dot), HEX)) {
+                dot++;
+            }
+
+            if (dot == pos + 2 || dot + 1 >= end || url.charAt(dot) != '.') {
+                return -1;
+            }
+
+            for (int i = dot + 1; i < end; i++) {
+                if (!is(url.charAt(i), USERINFO)) {
+                    return -1;
+                }
+            }
+
+            authority.hostType = HostType.IPVFUTURE;
+        }
+        else {
+            if (!parseIPv6(pos + 1, end)) {
+                return -1;
+            }
+
+            authority.hostType = HostType.IPV6;
+        }
+
+        return end + 1;
+    }
+
+    /**
+     * IPv6address, RFC 4291 Section 2.2 text forms, e.g. "2001:db8::1" or
+     * "::ffff:192.0.2.1". Groups are written into two longs, first group
+     * in the highest bits. Groups after "::" are collected separately,
+     * right aligned, as their final position is known only at the end.
      *
-     * @exception IllegalArgumentException if path already parsed
-     *                                     if path component does not
-     *                                     confirm to RFC syntax
+     * @param start start index, after '['
+     * @param end   end index, at ']'
+     * @return      true if chars are a valid IPv6 address
      */
-    private int parsePath(int start, int end)
+    private boolean parseIPv6(int start, int end)
     {
-        if (path != null) {
-            throw new IllegalArgumentException(
-                                  errorStr(start, "Multiple path components"));
+        long high = 0;
+        long low = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int groups = 0;
+        boolean gap = false; //"::" is seen
+        int pos = start;
+
+        if (end - start >= 2 && url.charAt(pos) == ':' && url.charAt(pos + 1) == ':') {
+            gap = true;
+            pos += 2;
         }
 
-        if (end == -1) {
-            //This is the case we need to find end of Path
-            end = start;
-            while (end != url.length()) {
-                char c = url.charAt(end);
-                if (c == '?' || c == '#') {
-                    break;
+        while (pos < end) {
+            int value = 0;
+            int next = pos;
+            while (next < end && next - pos < 4 && is(url.charAt(next), HEX)) {
+                char c = url.charAt(next);
+                value = (value << 4) | (c <= '9' ? c - '0' : (c | 0x20) - 'a' + 10);
+                next++;
+            }
+
+            if (next == pos) {
+                return false;
+            }
+
+            if (next < end && url.charAt(next) == '.') {
+                //IPv4 form of last two groups
+                long ipv4 = parseIPv4(url, pos, end);
+                if (ipv4 == -1 || (gap ? groups > 5 : groups != 6)) {
+                    return false;
+                }
+
+                if (gap) {
+                    tailHigh = (tailHigh << 32) | (tailLow >>> 32);
+                    tailLow  = (tailLow << 32) | ipv4;
+                }
+                else {
+                    low |= ipv4;
+                }
+
+                groups += 2;
+                break;
+            }
+
+            //"::" stands for at least one group
+            if (groups >= (gap ? 7 : 8)) {
+                return false;
+            }
+
+            if (gap) {
+                tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                tailLow  = (tailLow << 16) | value;
+            }
+            else if (groups < 4) {
+                high |= (long) value << (48 - groups * 16);
+            }
+            else {
+                low |= (long) value << (48 - (groups - 4) * 16);
+            }
+
+            groups++;
+            pos = next;
+
+            if (pos == end) {
+                break;
+            }
+
+            if (url.charAt(pos) != ':' || pos + 1 == end) {
+                return false;
+            }
+
+            pos++;
+            if (url.charAt(pos) == ':') {
+                if (gap) {
+                    return false;
                 }
-                end++;
+
+                gap = true;
+                pos++;
             }
         }
 
-        path = new CharBuffer(url, start, end);
+        if (gap ? groups > 7 : groups != 8) {
+            return false;
+        }
+
+        authority.ipv6High = high | tailHigh;
+        authority.ipv6Low  = low | tailLow;
 
-        /*
-         * RFC 3986 3.3.  Path
-         * If a URI contains an authority component, then the path component
-         * must either be empty or begin with a slash ("/") character
-         */
-        if (authority != null) {
-            if (path.length() != 0 && path.charAt(0) != '/') {
-                throw new IllegalArgumentException(
-                    errorStr(start, "When authority present, path must " +
-                                    "be empty string or start with /"));
+        return true;
+    }
+
+    /**
+     * IPv4address = dec-octet "." dec-octet "." dec-octet "." dec-octet
+     *
+     * dec-octet is 0 to 255 without leading zeros, other forms are valid
+     * reg-names, e.g. "1.2.3.04"
+     *
+     * @return address as an unsigned value, -1 if chars in [start, end) are
+     *         not an IPv4 address
+     */
+    private static long parseIPv4(CharSequence s, int start, int end)
+    {
+        long address = 0;
+        int pos = start;
+
+        for (int i = 0; i < 4; i++) {
+            if (i != 0) {
+                if (pos == end || s.charAt(pos) != '.') {
+                    return -1;
+                }
+                pos++;
+            }
+
+            int octet = 0;
+            int digits = 0;
+            while (pos < end && digits < 3) {
+                char c = s.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+
+                octet = octet * 10 + c - '0';
+                digits++;
+                pos++;
+            }
+
+            if (digits == 0 || octet > 255 ||
+                (digits > 1 && s.charAt(pos - digits) == '0')) {
+                return -1;
             }
+
+            address = (address << 8) | octet;
         }
-        else {
-            /*
-             * RFC 3986 3.3.  Path
-             * if a URI does not contain an authority component,
-             * then the path cannot begin with two slash characters ("//")
-             */
-            if (path.length() > 1 && path.charAt(0) == '/' &&
-                path.charAt(1) == '/') {
-                throw new IllegalArgumentException(
-                    errorStr(start, "When authority is not present, " +
-                                    "path cannot start with //"));
+
+        return pos == end ? address : -1;
+    }
+
+    /**
+     * RFC 3986 Section 3.3. Path
+     *
+     * The path is terminated by the first question mark ("?") or
+     * number sign ("#") character, or by the end of the URI
+     *
+     * path chars = *( pchar / "/" )
+     *
+     * @param start start pos to indicate head of path component
+     * @return      Position to end of path component, -1 if path
+     *              component does not confirm to RFC syntax
+     */
+    private int parsePath(int start)
+    {
+        int end = start;
+        while (end != url.length()) {
+            if (scanArray != null) {
+                end = SCANNER.skipPath(scanArray, scanOffset + end,
+                                       scanOffset + url.length()) - scanOffset;
+                if (end == url.length()) {
+                    break;
+                }
+            }
+
+            char c = url.charAt(end);
+            if (c == '?' || c == '#') {
+                break;
+            }
+
+            int next = skipChar(url, end, c, PATH);
+            if (next == -1) {
+                return fail(ErrorKind.INVALID_PATH, end);
             }
+            end = next;
         }
 
+        pathStart = start;
+        pathEnd   = end;
+
         /*
          * RFC 3986 3.3.  Path
+         * If a URI contains an authority component, then the path component
+         * must either be empty or begin with a slash ("/") character
+         *
+         * if a URI does not contain an authority component,
+         * then the path cannot begin with two slash characters ("//")
+         *
+         * ------------------------------
+         *
+         * Both hold by construction, authority ends at '/', '?', '#' or end
+         * of the URI and "//" after scheme is always parsed as authority.
          *
          * In addition, a URI reference (Section 4.1) may be a relative-path
          * reference, in which case the first path segment cannot
@@ -510,85 +1926,107 @@ public class URL
      * character and terminated by a number sign ("#") character or
      * by the end of the URI
      *
-     * @param pos Position to start parsing, must point to '?' char
-     * @return    Position to end of query component
+     * Query is validated and split into key value pairs in the same walk.
      *
-     * @exception IllegalArgumentException if query already parsed
-     *                                     if query component does not
-     *                                     confirm to RFC syntax
+     * @param pos Position to start parsing, must point to '?' char
+     * @return    Position to end of query component, -1 if query
+     *            component does not confirm to RFC syntax
      */
     private int parseQuery(int pos)
     {
-        if (query != null) {
-            throw new IllegalArgumentException(
-                           errorStr(pos, "Multiple query components"));
-        }
-
         pos++; //Skip '?' char
 
-        int begin = pos;
-        while (pos != url.length()) {
-            char c = url.charAt(pos);
-            if (c == '#') {
-                break;
-            }
-
-            // Query validation
-            // query       = *( pchar / '/' / '?' )
-            if (c != '/' && c != '?') {
-                pos = isPchar(url, pos);
-                if (pos == -1) {
-                    throw new IllegalArgumentException(
-                        errorStr(pos, "Query must confirm to " +
-                                      "*( pchar / '/' / '?' )"));
-                }
-            }
-            else {
-                pos++;
-            }
-        }
-
-        query = new CharBuffer(url, begin, pos);
+        final int begin = pos;
+        final boolean items = (options & LAZY) == 0;
 
         /*
          * '=' char expected as split char between key and value
          * INT_MAX is sentinel to indicate not yet '=' encountered
          */
         int split = Integer.MAX_VALUE;
+        int head = pos;
 
-        int curr = 0;
-        int head = 0;
+        while (true) {
+            if (scanArray != null) {
+                pos = SCANNER.skipQuery(scanArray, scanOffset + pos,
+                                        scanOffset + url.length()) - scanOffset;
+            }
 
-        do {
-            char c;
-            if (curr == query.length() || (c = query.charAt(curr)) == '&') {
-                //Print even there is no key=value structure but key
-                split = Math.min(split, curr);
-                final int valueHead = Math.min(split + 1, curr);
-                QueryItem item = new QueryItem(query, head, split,
-                                                                 valueHead, curr);
-                QueryItem prev = queryItems.putIfAbsent(item.key, item);
-                if (prev != null) {
-                    //There is an item with same key, tail this object as last
-                    //object of its children
-                    while (prev.next != null) {
-                        prev = prev.next;
-                    }
-                    prev.next = item;
+            char c = 0;
+            if (pos == url.length() || (c = url.charAt(pos)) == '#' || c == '&') {
+                if (items) {
+                    addItem(head, split, pos);
+                }
+
+                if (c != '&') {
+                    break;
                 }
 
                 //Move to next key value pair
-                head = curr + 1;
+                head = pos + 1;
                 split = Integer.MAX_VALUE;
             }
             else if (c == '=') {
-                split = curr;
+                split = pos;
             }
-        } while (curr++ != query.length());
+
+            // Query validation
+            // query       = *( pchar / '/' / '?' )
+            int next = skipChar(url, pos, c, QUERY);
+            if (next == -1) {
+                return fail(ErrorKind.INVALID_QUERY, pos);
+            }
+            pos = next;
+        }
+
+        queryStart = begin;
+        queryEnd   = pos;
 
         return pos;
     }
 
+    /**
+     * Split already validated query into items, used if items are not
+     * created while parsing.
+     */
+    private void splitQuery()
+    {
+        int split = Integer.MAX_VALUE;
+        int head = queryStart;
+
+        for (int pos = queryStart; pos <= queryEnd; pos++) {
+            char c;
+            if (pos == queryEnd || (c = url.charAt(pos)) == '&') {
+                addItem(head, split, pos);
+
+                head = pos + 1;
+                split = Integer.MAX_VALUE;
+            }
+            else if (c == '=') {
+                split = pos;
+            }
+        }
+    }
+
+    /**
+     * Add a query item for a key value pair
+     *
+     * @param head  Position of key start
+     * @param split Position of '=' char, INT_MAX if pair has no '='
+     * @param end   Position of pair end
+     */
+    private void addItem(int head, int split, int end)
+    {
+        if (queryItems == null) {
+            queryItems = new QueryMap();
+        }
+
+        //Print even there is no key=value structure but key
+        split = Math.min(split, end);
+        final int valueHead = Math.min(split + 1, end);
+        queryItems.add(nextItem().set(url, head, split, valueHead, end));
+    }
+
 
     /**
      * RFC 3986 Section 3.5. Fragment
@@ -597,43 +2035,66 @@ public class URL
      *
      *
      * @param pos Position to start parsing, must point to '#' char
-     * @return    Position to end of fragment component which is URL end
-     *
-     * @exception IllegalArgumentException  if fragment component does not
-     *                                      confirm to RFC syntax
+     * @return    Position to end of fragment component which is URL end,
+     *            -1 if fragment component does not confirm to RFC syntax
      */
     private int parseFragment(int pos)
     {
-        // As RFC defines every char after '#' as fragment, we should not
-        // hit this case to parse fragment again, it could only be a bug
-        assert (fragment == null);
-
         pos++; // Skip # char
 
         // Fragment validation
         // fragment    = *( pchar / "/" / "?" )
         int begin = pos;
         while (begin != url.length()) {
-            char c = url.charAt(begin);
-            if (!isOneOfThem(c, "/?")) {
-                begin = isPchar(url, begin);
-                if (begin == -1) {
-                    throw new IllegalArgumentException(
-                        errorStr(begin, "Fragment must confirm to" +
-                                        " *( pchar / '/' / '?' )"));
-                }
-            }
-            else {
-                begin++;
+            int next = skipChar(url, begin, url.charAt(begin), QUERY);
+            if (next == -1) {
+                return fail(ErrorKind.INVALID_FRAGMENT, begin);
             }
+            begin = next;
+        }
+
+        fragmentStart = pos;
+
+        return url.length();
+    }
+
+
+    /**
+     * @return an item from the pool, pool grows if all items are in use
+     */
+    private QueryItem nextItem()
+    {
+        if (itemPool == null) {
+            itemPool = new QueryItem[8];
+        }
+        else if (itemCount == itemPool.length) {
+            itemPool = Arrays.copyOf(itemPool, itemPool.length * 2);
         }
 
-        fragment = new CharBuffer(url, pos, url.length());
+        QueryItem item = itemPool[itemCount];
+        if (item == null) {
+            item = new QueryItem();
+            itemPool[itemCount] = item;
+        }
+
+        itemCount++;
+        return item;
+    }
+
+    /**
+     * Record parse error, no string or exception is created here, so
+     * rejecting a url is as cheap as accepting it
+     *
+     * @return -1, to be returned by component parsers
+     */
+    private int fail(ErrorKind kind, int pos)
+    {
+        this.error    = kind;
+        this.errorPos = pos;
 
-        return url.length();
+        return -1;
     }
 
-
     /*
      * Used as reason string input to appropritate exceptions occured
      * while parsing URL
@@ -661,104 +2122,96 @@ public class URL
      * As this class is not scheme-specific, I omit decoding percentage
      * encoded parts
      *
-     * Path component start is not indicated with a specific char, although
-     * it is a required part in every URL, so my understanding is path
-     * component existence may be detected either before or after
-     * component encounters.
+     * URL is parsed in a single forward walk, each component parser
+     * validates its chars and returns position of the char which ends it,
+     * so no char is visited twice:
      *
      * scheme://authority/path?query#frag
      *
-     * So,
-     * 1 - if we parsed authority, next part is path
-     * 2 - if we hit '?' and not parsed part yet, 'not parsed part' before
-     *     '?' is path
-     * 3 - if we hit '#', and not parsed path yet, 'not parsed part'  before
-     *     '#' is path
-     * 4 - if we hit end of URI and not parsed path yet, 'not parsed part'
-     *     before end of URI is path.
+     * 1 - URL must start with scheme, terminated by ':'
+     * 2 - if "//" follows, authority comes next
+     * 3 - path comes next, it may be empty, terminated by '?', '#' or end
+     * 4 - if we hit '?', query comes next, terminated by '#' or end
+     * 5 - if we hit '#', rest of the URI is fragment
      *
-     * @exception IllegalArgumentException if URL does not confirm to RFC
-     *                                     syntax
+     * @return true if URL confirms to RFC syntax, false otherwise and error
+     *         is recorded
      */
-    private void parse()
+    private boolean parse()
     {
-        int pos = 0;   //Current pos on URL string
-        int begin = 0; //Last string snippet head which is not parsed yet
+        int pos = parseScheme();
+        if (pos == -1) {
+            return false;
+        }
 
-        while (pos < url.length()) {
-            char c = url.charAt(pos);
+        if (pos + 1 < url.length() &&
+            url.charAt(pos) == '/' && url.charAt(pos + 1) == '/') {
+            int begin = pos;
+            pos = parseAuthority(pos);
+            if (pos == -1) {
+                return false;
+            }
 
-            /*
-             * RFC 3986 Section 3 Syntax Components
-             *
-             * The scheme and path components are required, though the path
-             * may be empty (no characters);
-             *
-             * So we check scheme before parsing any other components
-             */
-            switch (c) {
-                case '?':
-                    if (scheme == null) {
-                        throw new IllegalArgumentException(
-                                      errorStr(0, "No scheme found"));
-                    }
+            if (authority.domainStart == authority.domainEnd &&
+                knownScheme != null && knownScheme.requiresHost()) {
+                return fail(ErrorKind.MISSING_HOST, begin + 2) != -1;
+            }
+        }
+        else if (knownScheme != null && knownScheme.requiresHost()) {
+            return fail(ErrorKind.MISSING_HOST, pos) != -1;
+        }
 
-                    if (path == null) {
-                        pos = parsePath(begin, pos);
-                    }
-                    pos = parseQuery(pos);
-                    break;
+        pos = parsePath(pos);
+        if (pos == -1) {
+            return false;
+        }
 
-                case '#':
-                    if (scheme == null) {
-                        throw new IllegalArgumentException(
-                                     errorStr(0, "No scheme found"));
-                    }
+        if (pos != url.length() && url.charAt(pos) == '?') {
+            pos = parseQuery(pos);
+            if (pos == -1) {
+                return false;
+            }
+        }
 
-                    if (path == null) {
-                        pos = parsePath(begin, pos);
-                    }
-                    pos = parseFragment(pos);
-                    begin = pos;
-                    break;
+        if (pos != url.length()) {
+            return parseFragment(pos) != -1;
+        }
 
-                case ':':
-                    pos = parseScheme(pos);
-                    begin = pos;
-                    break;
+        return true;
+    }
 
-                case '/':
-                    pos++;
-                    //Check "//" condition to start parsing authority
-                    if (pos != url.length() && url.charAt(pos) == '/') {
 
-                        if (scheme == null) {
-                            throw new IllegalArgumentException(
-                                         errorStr(0, "No scheme found"));
-                        }
+    /**
+     * Hash of char sequence content, same as String.hashCode() formula so
+     * any CharSequence implementation with same content gives same hash
+     */
+    private static int contentHash(CharSequence s)
+    {
+        if (s instanceof String || s instanceof CharBuffer) {
+            return s.hashCode(); //Both are cached
+        }
 
-                        //pass input to point at "//"
-                        pos = parseAuthority(pos - 1);
-                        //path starts at pos, end will be calculated
-                        pos = parsePath(pos, -1);
-                        begin = pos;
-                    }
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
+        }
 
-                    break;
+        return h;
+    }
 
-                default:
-                    pos++;
-                    break;
-            }
+    private static boolean contentEquals(CharSequence s1, CharSequence s2)
+    {
+        if (s1.length() != s2.length()) {
+            return false;
         }
 
-        if (scheme == null) {
-            throw new IllegalArgumentException(errorStr(0, "No scheme found"));
+        for (int i = 0; i < s1.length(); i++) {
+            if (s1.charAt(i) != s2.charAt(i)) {
+                return false;
+            }
         }
 
-        if (path == null) {
-            parsePath(begin, pos);
-        }
+        return true;
     }
 
 
@@ -766,19 +2219,42 @@ public class URL
      * Holds reference to a char sequence with start and end positions
      * This class is used to keep reference to a part of a String object
      * without creating unnecessary copy
+     *
+     * Instances owned by URL are recycled via set() on each parse
+     *
+     * Content contract interoperates with String : hashCode() is the same
+     * as String.hashCode() of content and equals() accepts a CharBuffer, a
+     * String or a {@link Scheme} of the same content, so a view can be
+     * used to look up a String-keyed HashMap without toString().
+     * String.equals() rejects a view, use String.contentEquals() for the
+     * other direction. Comparisons below are made in place, none of them
+     * allocates.
      */
-    private static class CharBuffer implements CharSequence
+    public static final class CharBuffer implements CharSequence,
+                                                    Comparable<CharSequence>
     {
-        private final CharSequence src;
-        private final int start;
-        private final int end;
+        private CharSequence src;
+        private int start;
+        private int end;
         private int hash;
 
-        private CharBuffer(CharSequence src, int start, int end)
+        private CharBuffer()
+        {
+        }
+
+        CharBuffer(CharSequence src, int start, int end)
+        {
+            set(src, start, end);
+        }
+
+        CharBuffer set(CharSequence src, int start, int end)
         {
-            this.src = src;
+            this.src   = src;
             this.start = start;
-            this.end = end;
+            this.end   = end;
+            this.hash  = 0;
+
+            return this;
         }
 
         @Override
@@ -804,7 +2280,7 @@ public class URL
         {
             int h = 0;
             if (hash == 0 && end - start > 0) {
-                for (int i = 0; i < end - start; i++) {
+                for (int i = start; i < end; i++) {
                     h = 31 * h + src.charAt(i);
                 }
 
@@ -814,27 +2290,281 @@ public class URL
             return hash;
         }
 
+        /**
+         * @param o object to compare
+         * @return  true if o is a CharBuffer, a String or a Scheme with the
+         *          same content
+         */
         @Override
         public boolean equals(Object o)
         {
-            if (o.getClass() != this.getClass()) {
-                return false;
+            if (o == this) {
+                return true;
+            }
+
+            if (o instanceof CharBuffer) {
+                CharBuffer other = (CharBuffer) o;
+                if (hash != 0 && other.hash != 0 && hash != other.hash) {
+                    return false;
+                }
+
+                return contentEquals(other);
             }
 
-            CharBuffer other = (CharBuffer) o;
+            return (o instanceof String || o instanceof Scheme) &&
+                   contentEquals((CharSequence) o);
+        }
+
+        /**
+         * @param s char sequence to compare
+         * @return  true if s has the same chars
+         */
+        public boolean contentEquals(CharSequence s)
+        {
+            return s.length() == end - start && regionMatches(0, s, 0, end - start);
+        }
+
+        /**
+         * Compare ignoring case, as String.equalsIgnoreCase() does
+         *
+         * @param s char sequence to compare
+         * @return  true if s has the same chars ignoring case
+         */
+        public boolean equalsIgnoreCase(CharSequence s)
+        {
+            return s != null && s.length() == end - start &&
+                   regionMatches(true, 0, s, 0, end - start);
+        }
+
+        /**
+         * @param prefix prefix to check
+         * @return       true if this starts with prefix
+         */
+        public boolean startsWith(CharSequence prefix)
+        {
+            return regionMatches(0, prefix, 0, prefix.length());
+        }
+
+        /**
+         * @param suffix suffix to check, e.g. ".example.com"
+         * @return       true if this ends with suffix
+         */
+        public boolean endsWith(CharSequence suffix)
+        {
+            int len = suffix.length();
+            return regionMatches(end - start - len, suffix, 0, len);
+        }
+
+        /**
+         * Compare a region, as String.regionMatches() does
+         *
+         * @param offset      start of region in this
+         * @param other       char sequence to compare
+         * @param otherOffset start of region in other
+         * @param len         length of region
+         * @return            true if regions have the same chars, false if
+         *                    either region is out of bounds
+         */
+        public boolean regionMatches(int offset, CharSequence other,
+                                     int otherOffset, int len)
+        {
+            return regionMatches(false, offset, other, otherOffset, len);
+        }
 
-            if (this.length() != other.length()) {
+        /**
+         * Compare a region, as String.regionMatches() does
+         *
+         * @param ignoreCase  true to compare ignoring case
+         * @param offset      start of region in this
+         * @param other       char sequence to compare
+         * @param otherOffset start of region in other
+         * @param len         length of region
+         * @return            true if regions have the same chars, false if
+         *                    either region is out of bounds
+         */
+        public boolean regionMatches(boolean ignoreCase, int offset,
+                                     CharSequence other, int otherOffset,
+                                     int len)
+        {
+            if (offset < 0 || otherOffset < 0 ||
+                offset > (long) end - start - len ||
+                otherOffset > (long) other.length() - len) {
                 return false;
             }
 
-            for (int i = 0; i < length(); i++) {
-                if (this.charAt(i) != other.charAt(i)) {
+            for (int i = 0; i < len; i++) {
+                char c1 = src.charAt(start + offset + i);
+                char c2 = other.charAt(otherOffset + i);
+                if (c1 != c2 && (!ignoreCase || !equalsIgnoreCase(c1, c2))) {
                     return false;
                 }
             }
 
             return true;
         }
+
+        private static boolean equalsIgnoreCase(char c1, char c2)
+        {
+            if ((c1 | c2) < 128) {
+                //ASCII letters differ only in 0x20 bit
+                int lower = c1 | 0x20;
+                return lower == (c2 | 0x20) && lower >= 'a' && lower <= 'z';
+            }
+
+            char u1 = Character.toUpperCase(c1);
+            char u2 = Character.toUpperCase(c2);
+
+            return u1 == u2 ||
+                   Character.toLowerCase(u1) == Character.toLowerCase(u2);
+        }
+
+        /**
+         * Compare lexicographically, as String.compareTo() does
+         *
+         * @param s char sequence to compare
+         * @return  difference of the first different chars, or difference
+         *          of lengths if one is a prefix of the other
+         */
+        @Override
+        public int compareTo(CharSequence s)
+        {
+            int len = Math.min(end - start, s.length());
+            for (int i = 0; i < len; i++) {
+                char c1 = src.charAt(start + i);
+                char c2 = s.charAt(i);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+
+            return (end - start) - s.length();
+        }
+
+        @Override
+        public String toString()
+        {
+            if (src instanceof String) {
+                return ((String) src).substring(start, end);
+            }
+
+            return new StringBuilder(end - start).append(src, start, end)
+                                                 .toString();
+        }
+    }
+
+    /**
+     * Char sequence over bytes of a byte[] or a ByteBuffer, each byte is
+     * a char in range [0, 255]. Used as url source, so components of urls
+     * parsed from bytes are views over the original bytes.
+     *
+     * Heap buffers are read through their backing array, direct buffers
+     * with absolute get calls.
+     */
+    static final class AsciiBuffer implements CharSequence
+    {
+        private byte[] array;   //Null if buffer is direct
+        private ByteBuffer buf;
+        private int off;
+        private int len;
+
+        AsciiBuffer()
+        {
+        }
+
+        AsciiBuffer(byte[] array, int off, int len)
+        {
+            set(array, off, len);
+        }
+
+        AsciiBuffer set(byte[] array, int off, int len)
+        {
+            if ((off | len) < 0 || off + len > array.length) {
+                throw new IndexOutOfBoundsException(
+                    "off : " + off + ", len : " + len +
+                    ", array length : " + array.length);
+            }
+
+            this.array = array;
+            this.buf   = null;
+            this.off   = off;
+            this.len   = len;
+
+            return this;
+        }
+
+        AsciiBuffer set(ByteBuffer buf, int off, int len)
+        {
+            if ((off | len) < 0 || off + len > buf.capacity()) {
+                throw new IndexOutOfBoundsException(
+                    "off : " + off + ", len : " + len +
+                    ", buffer capacity : " + buf.capacity());
+            }
+
+            if (buf.hasArray()) {
+                return set(buf.array(), buf.arrayOffset() + off, len);
+            }
+
+            this.array = null;
+            this.buf   = buf;
+            this.off   = off;
+            this.len   = len;
+
+            return this;
+        }
+
+        /**
+         * @return backing array if source is a byte[] or heap buffer,
+         *         null otherwise
+         */
+        byte[] array()
+        {
+            return array;
+        }
+
+        /**
+         * @return offset of first char in backing array or buffer
+         */
+        int offset()
+        {
+            return off;
+        }
+
+        @Override
+        public int length()
+        {
+            return len;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            if (array != null) {
+                return (char) (array[off + index] & 0xFF);
+            }
+
+            return (char) (buf.get(off + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new CharBuffer(this, start, end);
+        }
+
+        @Override
+        public String toString()
+        {
+            if (array != null) {
+                return new String(array, off, len, StandardCharsets.ISO_8859_1);
+            }
+
+            char[] chars = new char[len];
+            for (int i = 0; i < len; i++) {
+                chars[i] = charAt(i);
+            }
+
+            return new String(chars);
+        }
     }
 
     /**
@@ -879,17 +2609,212 @@ public class URL
      */
     public static class QueryItem
     {
-        public final CharSequence key;
-        public final CharSequence value;
+        public final CharBuffer key;
+        public final CharBuffer value;
 
         public QueryItem next;
 
 
-        private QueryItem(CharSequence src, int keyHead, int keyEnd,
-                          int valueHead, int valueEnd)
+        private QueryItem()
+        {
+            this.key   = new CharBuffer();
+            this.value = new CharBuffer();
+        }
+
+        /**
+         * Get key decoded as form data, '+' is decoded as space
+         *
+         * @return key itself if there is nothing to decode, a decoding
+         *         view otherwise, see {@link PercentCodec#decode}
+         */
+        public CharSequence decodedKey()
+        {
+            return PercentCodec.decode(key, true);
+        }
+
+        /**
+         * Get value decoded as form data, '+' is decoded as space
+         *
+         * @return value itself if there is nothing to decode, a decoding
+         *         view otherwise, see {@link PercentCodec#decode}
+         */
+        public CharSequence decodedValue()
+        {
+            return PercentCodec.decode(value, true);
+        }
+
+        private QueryItem set(CharSequence src, int keyHead, int keyEnd,
+                              int valueHead, int valueEnd)
+        {
+            key.set(src, keyHead, keyEnd);
+            value.set(src, valueHead, valueEnd);
+            this.next = null;
+
+            return this;
+        }
+    }
+
+    /**
+     * Insertion ordered, read-only map of query items which is cleared and
+     * refilled on each parse without allocation.
+     *
+     * Open addressing table keeps index of the first item of each key in
+     * heads array, same key items are chained through QueryItem.next field.
+     * Lookups compare key content, so any CharSequence can be used as key.
+     *
+     * Iterating entries creates entry objects, get() does not.
+     */
+    private static class QueryMap extends AbstractMap<CharSequence, QueryItem>
+    {
+        private QueryItem[] heads = new QueryItem[8]; //First item of each key
+        private QueryItem[] tails = new QueryItem[8]; //Last item of each key
+        private int[] table = new int[16]; //Index to heads plus one, 0 if empty
+        private int size;
+
+        private static int slot(int hash, int mask)
+        {
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private int find(CharSequence key, int hash)
+        {
+            final int mask = table.length - 1;
+
+            int i = slot(hash, mask);
+            while (table[i] != 0) {
+                if (contentEquals(heads[table[i] - 1].key, key)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+
+            return i;
+        }
+
+        private void add(QueryItem item)
+        {
+            int i = find(item.key, item.key.hashCode());
+            if (table[i] != 0) {
+                //There is an item with same key, tail this object as last
+                //object of its children
+                tails[table[i] - 1].next = item;
+                tails[table[i] - 1]      = item;
+                return;
+            }
+
+            if (size == heads.length) {
+                heads = Arrays.copyOf(heads, size * 2);
+                tails = Arrays.copyOf(tails, size * 2);
+            }
+
+            heads[size] = item;
+            tails[size] = item;
+            size++;
+            table[i] = size;
+
+            if (size * 2 > table.length) {
+                rehash();
+            }
+        }
+
+        private void rehash()
+        {
+            table = new int[table.length * 2];
+            final int mask = table.length - 1;
+
+            for (int j = 0; j < size; j++) {
+                int i = slot(heads[j].key.hashCode(), mask);
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = j + 1;
+            }
+        }
+
+        @Override
+        public QueryItem get(Object key)
+        {
+            if (!(key instanceof CharSequence) || size == 0) {
+                return null;
+            }
+
+            CharSequence k = (CharSequence) key;
+            int i = find(k, contentHash(k));
+
+            return table[i] == 0 ? null : heads[table[i] - 1];
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public QueryItem remove(Object key)
+        {
+            throw new UnsupportedOperationException("Query map is read-only");
+        }
+
+        @Override
+        public void clear()
+        {
+            throw new UnsupportedOperationException("Query map is read-only");
+        }
+
+        private void reset()
+        {
+            if (size != 0) {
+                Arrays.fill(table, 0);
+                Arrays.fill(heads, 0, size, null);
+                Arrays.fill(tails, 0, size, null);
+                size = 0;
+            }
+        }
+
+        @Override
+        public Set<Entry<CharSequence, QueryItem>> entrySet()
         {
-            this.key = new CharBuffer(src, keyHead, keyEnd);
-            this.value = new CharBuffer(src, valueHead, valueEnd);
+            return new AbstractSet<Entry<CharSequence, QueryItem>>()
+            {
+                @Override
+                public Iterator<Entry<CharSequence, QueryItem>> iterator()
+                {
+                    return new Iterator<Entry<CharSequence, QueryItem>>()
+                    {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<CharSequence, QueryItem> next()
+                        {
+                            if (next >= size) {
+                                throw new NoSuchElementException();
+                            }
+
+                            QueryItem item = heads[next++];
+                            return new SimpleImmutableEntry<>(item.key, item);
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return size;
+                }
+            };
         }
     }
 }
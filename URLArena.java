@@ -0,0 +1,507 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Arena of parsed urls for keeping large batches in memory.
+ *
+ * Url bytes are appended one after another into large pages, heap or
+ * direct ByteBuffers, and component boundaries are recorded in parallel
+ * primitive columns, so a batch of millions of urls is a few arrays and
+ * pages rather than millions of String and URL object graphs. Urls are
+ * parsed once when added, read later by index :
+ *
+ * <pre>
+ * URLArena arena = new URLArena();
+ * for (String s : batch) {
+ *     arena.add(s);
+ * }
+ *
+ * URLArena.View view = arena.view();
+ * for (int i = 0; i < arena.size(); i++) {
+ *     CharSequence domain = view.moveTo(i).getDomain();
+ * }
+ *
+ * arena.scan(URLArena.Column.HOST, (index, host) -> ...);
+ * arena.clear(); //Reuse pages and columns for the next batch
+ * </pre>
+ *
+ * Columns follow CompactURL layout : scheme end, user-info end, domain
+ * end, path start, path end and query end are stored, other boundaries
+ * are derived from them, e.g. port starts after domain end and ends at
+ * path start. That is 37 bytes per url plus url bytes, e.g. 99 bytes for
+ * the 62 chars url in CompactURL docs, which takes 136 bytes as a
+ * CompactURL and 976 bytes as a URL.
+ *
+ * Scheme is lowercased when a url is added, other components are kept as
+ * they are. A url never spans pages, so its components are views over a
+ * single page. Views returned from View and scan() are recycled, they are valid
+ * until next call. {@link #clear()} drops all urls and keeps pages and
+ * columns, so batches after the first one do not allocate. An arena is
+ * not thread-safe.
+ */
+public final class URLArena
+{
+    /**
+     * Components which can be scanned, see {@link #scan(Column, ColumnVisitor)}
+     */
+    public enum Column
+    {
+        SCHEME, USER_INFO, HOST, PORT, PATH, QUERY, FRAGMENT
+    }
+
+    /**
+     * Visitor of a column, see {@link #scan(Column, ColumnVisitor)}
+     */
+    @FunctionalInterface
+    public interface ColumnVisitor
+    {
+        /**
+         * @param index index of url
+         * @param value component of url, a recycled view, valid only
+         *              during the call
+         * @return      true to visit next url, false to stop
+         */
+        boolean visit(int index, CharSequence value);
+    }
+
+    public static final int DEFAULT_PAGE_SIZE = 1 << 20;
+
+    private static final byte HAS_AUTHORITY = 1;
+    private static final byte HAS_USERINFO  = 1 << 1;
+    private static final byte HAS_PORT      = 1 << 2;
+    private static final byte HAS_QUERY     = 1 << 3;
+    private static final byte HAS_FRAGMENT  = 1 << 4;
+
+    private final int pageShift;
+    private final int pageMask;
+    private final boolean direct;
+
+    private ByteBuffer[] pages = new ByteBuffer[0];
+    private URL.AsciiBuffer[] pageViews = new URL.AsciiBuffer[0];
+    private int pageCount;  //Pages in use
+    private int pagePos;    //Write position in last page in use
+
+    //Columns, position is page index << pageShift | offset in page
+    private long[] positions = new long[0];
+    private int[] lengths = new int[0];
+    private int[] schemeEnds = new int[0];
+    private int[] userInfoEnds = new int[0];
+    private int[] domainEnds = new int[0];
+    private int[] pathStarts = new int[0];
+    private int[] pathEnds = new int[0];
+    private int[] queryEnds = new int[0];
+    private byte[] flags = new byte[0];
+    private int size;
+
+    private final URL parser = new URL(URL.LAZY);
+    private final int[] bounds = new int[14];
+    private final View scanner = new View();
+
+    /**
+     * Create an arena of heap pages of {@link #DEFAULT_PAGE_SIZE} bytes
+     */
+    public URLArena()
+    {
+        this(DEFAULT_PAGE_SIZE, false);
+    }
+
+    /**
+     * @param pageSize size of a page in bytes, a power of two, longest url
+     *                 which can be added
+     * @param direct   true to allocate pages off-heap as direct
+     *                 ByteBuffers
+     * @throws IllegalArgumentException if page size is not a power of two
+     *                                  or it is larger than 1 GiB
+     */
+    public URLArena(int pageSize, boolean direct)
+    {
+        if (pageSize <= 0 || pageSize > (1 << 30) ||
+            (pageSize & (pageSize - 1)) != 0) {
+            throw new IllegalArgumentException(
+                "Page size must be a power of two up to 1 GiB : " + pageSize);
+        }
+
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.pageMask  = pageSize - 1;
+        this.direct    = direct;
+    }
+
+    /**
+     * Parse and add a url
+     *
+     * @param url url to add
+     * @return    index of url, -1 if url is malformed, see
+     *            {@link URL#validate(CharSequence)}
+     * @throws IllegalArgumentException if url is longer than page size
+     */
+    public int add(CharSequence url)
+    {
+        if (!parser.tryReset(url)) {
+            return -1;
+        }
+
+        //Parsing rejects non-ASCII chars, so each char fits into a byte
+        int len = url.length();
+        ByteBuffer page = reserve(len);
+        for (int i = 0; i < len; i++) {
+            page.put(pagePos + i, (byte) url.charAt(i));
+        }
+
+        return append(len);
+    }
+
+    /**
+     * Parse and add a url given as bytes, each byte is taken as a char as
+     * {@link URL#reset(byte[], int, int)} does
+     *
+     * @param buf url bytes
+     * @param off offset of url in buf
+     * @param len length of url
+     * @return    index of url, -1 if url is malformed
+     * @throws IllegalArgumentException if url is longer than page size
+     */
+    public int add(byte[] buf, int off, int len)
+    {
+        if (!parser.tryReset(buf, off, len)) {
+            return -1;
+        }
+
+        reserve(len).put(pagePos, buf, off, len);
+
+        return append(len);
+    }
+
+    /**
+     * Make room for len bytes, moving to next page if they don't fit into
+     * the current one
+     *
+     * @return page to write at pagePos
+     */
+    private ByteBuffer reserve(int len)
+    {
+        if (len > pageMask + 1) {
+            throw new IllegalArgumentException(
+                "Url is longer than page size, length : " + len);
+        }
+
+        if (pageCount == 0 || pagePos + len > pageMask + 1) {
+            if (pageCount == pages.length) {
+                int n = pages.length + 1;
+                pages = Arrays.copyOf(pages, n);
+                pageViews = Arrays.copyOf(pageViews, n);
+
+                pages[n - 1] = direct ? ByteBuffer.allocateDirect(pageMask + 1) :
+                                        ByteBuffer.allocate(pageMask + 1);
+                pageViews[n - 1] = new URL.AsciiBuffer().set(pages[n - 1], 0,
+                                                             pageMask + 1);
+            }
+
+            pageCount++;
+            pagePos = 0;
+        }
+
+        return pages[pageCount - 1];
+    }
+
+    /**
+     * Record boundaries of the url parser holds, its bytes are written at
+     * pagePos
+     */
+    private int append(int len)
+    {
+        if (size == positions.length) {
+            int n = Math.max(16, size * 2);
+            positions    = Arrays.copyOf(positions, n);
+            lengths      = Arrays.copyOf(lengths, n);
+            schemeEnds   = Arrays.copyOf(schemeEnds, n);
+            userInfoEnds = Arrays.copyOf(userInfoEnds, n);
+            domainEnds   = Arrays.copyOf(domainEnds, n);
+            pathStarts   = Arrays.copyOf(pathStarts, n);
+            pathEnds     = Arrays.copyOf(pathEnds, n);
+            queryEnds    = Arrays.copyOf(queryEnds, n);
+            flags        = Arrays.copyOf(flags, n);
+        }
+
+        final int[] b = bounds;
+        parser.bounds(b);
+
+        //Scheme is stored lowercase, so views of it need no lowercase copy
+        ByteBuffer page = pages[pageCount - 1];
+        for (int i = pagePos; i < pagePos + b[1]; i++) {
+            byte c = page.get(i);
+            if (c >= 'A' && c <= 'Z') {
+                page.put(i, (byte) (c + 32));
+            }
+        }
+
+        byte f = 0;
+        if (b[4] != -1) {
+            f |= HAS_AUTHORITY;
+            f |= b[2] != -1 ? HAS_USERINFO : 0;
+            f |= b[6] != -1 ? HAS_PORT : 0;
+        }
+        f |= b[10] != -1 ? HAS_QUERY : 0;
+        f |= b[12] != -1 ? HAS_FRAGMENT : 0;
+
+        int i = size;
+        positions[i]    = ((long) (pageCount - 1) << pageShift) | pagePos;
+        lengths[i]      = len;
+        schemeEnds[i]   = b[1];
+        userInfoEnds[i] = b[3];
+        domainEnds[i]   = b[5];
+        pathStarts[i]   = b[8];
+        pathEnds[i]     = b[9];
+        queryEnds[i]    = b[11];
+        flags[i]        = f;
+
+        pagePos += len;
+        size++;
+
+        return i;
+    }
+
+    /**
+     * @return count of urls
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return bytes of pages allocated, in use or not
+     */
+    public long capacity()
+    {
+        return (long) pages.length * (pageMask + 1);
+    }
+
+    /**
+     * Drop all urls, pages and columns are kept to be reused
+     */
+    public void clear()
+    {
+        size      = 0;
+        pageCount = 0;
+        pagePos   = 0;
+    }
+
+    /**
+     * Parse url at index again for the full URL api, e.g. query items.
+     * URL is parsed over page bytes, no copy is made.
+     *
+     * @param index index of url
+     * @param url   instance to reset
+     * @return      url
+     */
+    public URL get(int index, URL url)
+    {
+        check(index);
+
+        long pos = positions[index];
+        return url.reset(pages[(int) (pos >>> pageShift)],
+                         (int) (pos & pageMask), lengths[index]);
+    }
+
+    /**
+     * @return a new cursor over urls of arena
+     */
+    public View view()
+    {
+        return new View();
+    }
+
+    /**
+     * Visit a component of all urls in order, urls without the component
+     * are skipped. e.g. for the host column, views over hosts are passed
+     * to visitor without touching other components.
+     *
+     * @param column  component to scan
+     * @param visitor visitor
+     * @return        false if visitor stopped the scan, true otherwise
+     */
+    public boolean scan(Column column, ColumnVisitor visitor)
+    {
+        for (int i = 0; i < size; i++) {
+            CharSequence value = scanner.moveTo(i).get(column);
+            if (value != null && !visitor.visit(i, value)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void check(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                "Index : " + index + ", size : " + size);
+        }
+    }
+
+    /**
+     * Flyweight cursor over urls of an arena. Getters return views over
+     * page bytes, recycled on each call, so a view is valid until the
+     * next call to the same getter.
+     */
+    public final class View
+    {
+        private final URL.CharBuffer[] views =
+                new URL.CharBuffer[Column.values().length];
+        private URL.AsciiBuffer page;
+        private int index;
+        private int off;
+        private byte f;
+
+        private View()
+        {
+            for (int i = 0; i < views.length; i++) {
+                views[i] = new URL.CharBuffer(null, 0, 0);
+            }
+        }
+
+        /**
+         * @param index index of url
+         * @return      this
+         */
+        public View moveTo(int index)
+        {
+            check(index);
+
+            long pos = positions[index];
+            this.index = index;
+            this.page  = pageViews[(int) (pos >>> pageShift)];
+            this.off   = (int) (pos & pageMask);
+            this.f     = flags[index];
+
+            return this;
+        }
+
+        /**
+         * @return    index of url
+         */
+        public int index()
+        {
+            return index;
+        }
+
+        private CharSequence view(Column column, int start, int end)
+        {
+            return views[column.ordinal()].set(page, off + start, off + end);
+        }
+
+        CharSequence get(Column column)
+        {
+            switch (column) {
+                case SCHEME:    return getScheme();
+                case USER_INFO: return getUserInfo();
+                case HOST:      return getDomain();
+                case PORT:      return getPort();
+                case PATH:      return getPath();
+                case QUERY:     return getQuery();
+                default:        return getFragment();
+            }
+        }
+
+        /**
+         * @return    url's scheme, lowercase, the registered
+         *            {@link Scheme} instance if scheme is registered
+         */
+        public CharSequence getScheme()
+        {
+            int end = schemeEnds[index];
+            Scheme known = Scheme.lookup(page, off, off + end);
+            if (known != null) {
+                return known;
+            }
+
+            return view(Column.SCHEME, 0, end);
+        }
+
+        /**
+         * @return    url's userInfo
+         */
+        public CharSequence getUserInfo()
+        {
+            if ((f & HAS_USERINFO) == 0) {
+                return null;
+            }
+
+            return view(Column.USER_INFO, schemeEnds[index] + "://".length(),
+                        userInfoEnds[index]);
+        }
+
+        /**
+         * @return    url's domain
+         */
+        public CharSequence getDomain()
+        {
+            if ((f & HAS_AUTHORITY) == 0) {
+                return null;
+            }
+
+            int start = (f & HAS_USERINFO) != 0 ?
+                        userInfoEnds[index] + 1 :
+                        schemeEnds[index] + "://".length();
+
+            return view(Column.HOST, start, domainEnds[index]);
+        }
+
+        /**
+         * @return    url's port, null if url has none or it is the default
+         *            port of scheme
+         */
+        public CharSequence getPort()
+        {
+            if ((f & HAS_PORT) == 0) {
+                return null;
+            }
+
+            return view(Column.PORT, domainEnds[index] + 1, pathStarts[index]);
+        }
+
+        /**
+         * @return    url's path
+         */
+        public CharSequence getPath()
+        {
+            return view(Column.PATH, pathStarts[index], pathEnds[index]);
+        }
+
+        /**
+         * @return    url's query
+         */
+        public CharSequence getQuery()
+        {
+            if ((f & HAS_QUERY) == 0) {
+                return null;
+            }
+
+            return view(Column.QUERY, pathEnds[index] + 1, queryEnds[index]);
+        }
+
+        /**
+         * @return    url's fragment
+         */
+        public CharSequence getFragment()
+        {
+            if ((f & HAS_FRAGMENT) == 0) {
+                return null;
+            }
+
+            int end = (f & HAS_QUERY) != 0 ? queryEnds[index] : pathEnds[index];
+
+            return view(Column.FRAGMENT, end + 1, lengths[index]);
+        }
+
+        /**
+         * @return    url as a new String
+         */
+        @Override
+        public String toString()
+        {
+            return new URL.CharBuffer(page, off, off + lengths[index]).toString();
+        }
+    }
+}
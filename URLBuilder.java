@@ -0,0 +1,727 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builder to rewrite a parsed url, e.g. to replace its host, add a
+ * tracking parameter or remove its fragment, and serialize it into a
+ * StringBuilder, char[] or ByteBuffer.
+ *
+ * <pre>
+ * URLBuilder builder = new URLBuilder();
+ *
+ * builder.reset(url)
+ *        .setHost("cdn.example.com")
+ *        .removeQueryParam("sessionid")
+ *        .addQueryParam("utm_source", "mail")
+ *        .setFragment(null);
+ *
+ * sb.setLength(0);
+ * builder.appendTo(sb);
+ * </pre>
+ *
+ * Components which are not changed are copied from the source url, and
+ * adjacent unchanged components, with delimiters between them, are copied
+ * as a single range, so a url with only its fragment removed is one bulk
+ * copy. New values are taken as text and percent-encoded once, when they
+ * are set, see {@link PercentCodec.Component}. Query parameter keys and
+ * values are split as URL query items are, last '=' splits key and value.
+ * If parameter edits leave no parameter, '?' is not written either.
+ *
+ * Builder keeps a reference to source chars of the url, so a reset() of
+ * the url invalidates the builder. Once its buffers grow, a reused builder
+ * does not allocate. Instances are not thread-safe.
+ */
+public final class URLBuilder
+{
+    private static final int SCHEME    = 0;
+    private static final int USERINFO  = 1;
+    private static final int HOST      = 2;
+    private static final int PORT      = 3;
+    private static final int PATH      = 4;
+    private static final int QUERY     = 5;
+    private static final int FRAGMENT  = 6;
+    private static final int COMPONENTS = 7;
+
+    //Query parameter kinds
+    private static final int KEPT     = 0; //As it is in query
+    private static final int REMOVED  = 1;
+    private static final int REPLACED = 2; //Key in query, value in chars
+    private static final int ADDED    = 3; //Key and value in chars
+
+    //Output targets
+    private static final int COUNT        = 0;
+    private static final int STRING_BUILD = 1;
+    private static final int CHAR_ARRAY   = 2;
+    private static final int BYTE_BUFFER  = 3;
+
+    private CharSequence src;
+    private final int[] srcBounds = new int[COMPONENTS * 2];
+
+    //Component ranges in src or chars, base is null if component is absent
+    private final CharSequence[] bases = new CharSequence[COMPONENTS];
+    private final int[] starts = new int[COMPONENTS];
+    private final int[] ends = new int[COMPONENTS];
+
+    private final StringBuilder chars = new StringBuilder(); //Encoded new values
+
+    //Query parameters, split on first edit. Six ints per parameter : kind,
+    //start, key end, end, value start and value end for replaced values
+    private int[] params = new int[6 * 8];
+    private int paramCount;
+    private boolean paramsSplit;
+    private boolean queryEdited;
+
+    //Output state
+    private int target;
+    private StringBuilder outBuilder;
+    private char[] outChars;
+    private ByteBuffer outBuffer;
+    private int outPos;
+    private CharSequence runSrc; //Pending range of chars to copy
+    private int runStart;
+    private int runEnd;
+
+    /**
+     * Create an empty builder, fill it with setters or reset(URL)
+     */
+    public URLBuilder()
+    {
+        clear();
+    }
+
+    /**
+     * Create a builder starting from url
+     *
+     * @param url parsed url
+     */
+    public URLBuilder(URL url)
+    {
+        reset(url);
+    }
+
+    /**
+     * Remove all components
+     *
+     * @return this
+     */
+    public URLBuilder clear()
+    {
+        src = null;
+        chars.setLength(0);
+        Arrays.fill(bases, null);
+        Arrays.fill(srcBounds, -1);
+        paramCount  = 0;
+        paramsSplit = false;
+        queryEdited = false;
+
+        return this;
+    }
+
+    /**
+     * Start from components of url, previous changes are discarded
+     *
+     * @param url parsed url
+     * @return    this
+     */
+    public URLBuilder reset(URL url)
+    {
+        clear();
+
+        src = url.source();
+        url.bounds(srcBounds);
+
+        for (int i = 0; i < COMPONENTS; i++) {
+            if (srcBounds[i * 2] != -1) {
+                bases[i]  = src;
+                starts[i] = srcBounds[i * 2];
+                ends[i]   = srcBounds[i * 2 + 1];
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * @param scheme scheme, e.g. "https"
+     * @return       this
+     * @throws IllegalArgumentException if scheme is not
+     *                                  ALPHA *( ALPHA / DIGIT / "+" / "-" / "." )
+     */
+    public URLBuilder setScheme(CharSequence scheme)
+    {
+        for (int i = 0; i < scheme.length(); i++) {
+            char c = scheme.charAt(i);
+            boolean alpha = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!alpha && (i == 0 || !((c >= '0' && c <= '9') ||
+                                       c == '+' || c == '-' || c == '.'))) {
+                throw new IllegalArgumentException("Invalid scheme : " + scheme);
+            }
+        }
+
+        if (scheme.length() == 0) {
+            throw new IllegalArgumentException("Empty scheme");
+        }
+
+        return set(SCHEME, scheme, null);
+    }
+
+    /**
+     * @param userInfo userinfo, e.g. "user:password", null to remove
+     * @return         this
+     * @throws IllegalStateException if there is no host
+     */
+    public URLBuilder setUserInfo(CharSequence userInfo)
+    {
+        if (userInfo != null && bases[HOST] == null) {
+            throw new IllegalStateException("Userinfo requires a host");
+        }
+
+        return set(USERINFO, userInfo, PercentCodec.Component.USERINFO);
+    }
+
+    /**
+     * Set host, an IP literal in brackets, e.g. "[::1]", is kept as it is,
+     * other hosts are encoded as reg-name
+     *
+     * @param host host, null to remove authority with its userinfo and port
+     * @return     this
+     */
+    public URLBuilder setHost(CharSequence host)
+    {
+        if (host == null) {
+            bases[USERINFO] = null;
+            bases[PORT]     = null;
+            return set(HOST, null, null);
+        }
+
+        boolean literal = host.length() > 0 && host.charAt(0) == '[';
+        return set(HOST, host, literal ? null : PercentCodec.Component.HOST);
+    }
+
+    /**
+     * @param port port in range [0, 65535], -1 to remove
+     * @return     this
+     * @throws IllegalArgumentException if port is out of range
+     * @throws IllegalStateException    if there is no host
+     */
+    public URLBuilder setPort(int port)
+    {
+        if (port < -1 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port : " + port);
+        }
+
+        if (port == -1) {
+            bases[PORT] = null;
+            return this;
+        }
+
+        if (bases[HOST] == null) {
+            throw new IllegalStateException("Port requires a host");
+        }
+
+        starts[PORT] = chars.length();
+        chars.append(port);
+        ends[PORT]  = chars.length();
+        bases[PORT] = chars;
+
+        return this;
+    }
+
+    /**
+     * Set path, segments are separated with '/'. If there is a host, a
+     * path not starting with '/' is written with a leading '/'.
+     *
+     * @param path path, e.g. "/a b/c" is written as "/a%20b/c"
+     * @return     this
+     */
+    public URLBuilder setPath(CharSequence path)
+    {
+        return set(PATH, path, PercentCodec.Component.PATH);
+    }
+
+    /**
+     * Set query, query parameter changes made before are discarded
+     *
+     * @param query query without '?', null to remove
+     * @return      this
+     */
+    public URLBuilder setQuery(CharSequence query)
+    {
+        paramCount  = 0;
+        paramsSplit = false;
+        queryEdited = false;
+
+        return set(QUERY, query, PercentCodec.Component.QUERY);
+    }
+
+    /**
+     * @param fragment fragment without '#', null to remove
+     * @return         this
+     */
+    public URLBuilder setFragment(CharSequence fragment)
+    {
+        return set(FRAGMENT, fragment, PercentCodec.Component.FRAGMENT);
+    }
+
+    private URLBuilder set(int component, CharSequence value,
+                           PercentCodec.Component encoding)
+    {
+        if (value == null) {
+            bases[component] = null;
+            return this;
+        }
+
+        starts[component] = chars.length();
+        if (encoding == null) {
+            chars.append(value);
+        }
+        else {
+            PercentCodec.encodeTo(value, encoding, chars);
+        }
+        ends[component]  = chars.length();
+        bases[component] = chars;
+
+        return this;
+    }
+
+    /**
+     * Add a query parameter after existing ones
+     *
+     * @param key   key
+     * @param value value, null to add key without '='
+     * @return      this
+     */
+    public URLBuilder addQueryParam(CharSequence key, CharSequence value)
+    {
+        splitParams();
+
+        int i = newParam();
+        params[i]     = ADDED;
+        params[i + 1] = chars.length();
+        PercentCodec.encodeTo(key, PercentCodec.Component.QUERY_PARAM, chars);
+        params[i + 2] = chars.length();
+        if (value != null) {
+            chars.append('=');
+            PercentCodec.encodeTo(value, PercentCodec.Component.QUERY_PARAM, chars);
+        }
+        params[i + 3] = chars.length();
+
+        return this;
+    }
+
+    /**
+     * Remove all query parameters with key
+     *
+     * @param key key, compared with keys in query once it is encoded
+     * @return    this
+     */
+    public URLBuilder removeQueryParam(CharSequence key)
+    {
+        splitParams();
+
+        int mark = chars.length();
+        PercentCodec.encodeTo(key, PercentCodec.Component.QUERY_PARAM, chars);
+
+        for (int i = 0; i < paramCount * 6; i += 6) {
+            if (params[i] != REMOVED && keyEquals(i, mark)) {
+                params[i] = REMOVED;
+                queryEdited = true;
+            }
+        }
+
+        chars.setLength(mark);
+        return this;
+    }
+
+    /**
+     * Replace value of first query parameter with key and remove others
+     * with the same key, add parameter if there is none
+     *
+     * @param key   key, compared with keys in query once it is encoded
+     * @param value value, null to keep key without '='
+     * @return      this
+     */
+    public URLBuilder setQueryParam(CharSequence key, CharSequence value)
+    {
+        splitParams();
+
+        int mark = chars.length();
+        PercentCodec.encodeTo(key, PercentCodec.Component.QUERY_PARAM, chars);
+        int keyEnd = chars.length();
+
+        int found = -1;
+        for (int i = 0; i < paramCount * 6; i += 6) {
+            if (params[i] != REMOVED && keyEquals(i, mark)) {
+                if (found == -1) {
+                    found = i;
+                }
+                else {
+                    params[i] = REMOVED;
+                }
+            }
+        }
+
+        if (found == -1) {
+            chars.setLength(mark);
+            return addQueryParam(key, value);
+        }
+
+        queryEdited = true;
+
+        if (params[found] == ADDED) {
+            //Encoded key is already at mark, write value after it
+            params[found + 1] = mark;
+            params[found + 2] = keyEnd;
+            if (value != null) {
+                chars.append('=');
+                PercentCodec.encodeTo(value, PercentCodec.Component.QUERY_PARAM, chars);
+            }
+            params[found + 3] = chars.length();
+            return this;
+        }
+
+        chars.setLength(mark);
+        params[found] = REPLACED;
+        params[found + 4] = chars.length();
+        if (value != null) {
+            chars.append('=');
+            PercentCodec.encodeTo(value, PercentCodec.Component.QUERY_PARAM, chars);
+        }
+        params[found + 5] = chars.length();
+
+        return this;
+    }
+
+    private boolean keyEquals(int i, int mark)
+    {
+        CharSequence base = params[i] == ADDED ? chars : bases[QUERY];
+        return PathSegments.regionMatches(base, params[i + 1], params[i + 2],
+                                          chars, mark, chars.length());
+    }
+
+    private int newParam()
+    {
+        if ((paramCount + 1) * 6 > params.length) {
+            params = Arrays.copyOf(params, params.length * 2);
+        }
+
+        queryEdited = true;
+        return 6 * paramCount++;
+    }
+
+    /**
+     * Split current query into parameters on first parameter edit
+     */
+    private void splitParams()
+    {
+        if (paramsSplit) {
+            return;
+        }
+
+        paramsSplit = true;
+        paramCount = 0;
+
+        CharSequence query = bases[QUERY];
+        if (query == null) {
+            //Parameters are added to an empty query
+            bases[QUERY]  = chars;
+            starts[QUERY] = chars.length();
+            ends[QUERY]   = chars.length();
+            return;
+        }
+
+        if (starts[QUERY] == ends[QUERY]) {
+            return;
+        }
+
+        final int end = ends[QUERY];
+        int head = starts[QUERY];
+        int split = -1;
+
+        for (int pos = head; pos <= end; pos++) {
+            char c;
+            if (pos == end || (c = query.charAt(pos)) == '&') {
+                int i = newParam();
+                params[i]     = KEPT;
+                params[i + 1] = head;
+                params[i + 2] = split == -1 ? pos : split;
+                params[i + 3] = pos;
+
+                head = pos + 1;
+                split = -1;
+            }
+            else if (c == '=') {
+                split = pos;
+            }
+        }
+
+        queryEdited = false;
+    }
+
+    /**
+     * Append url to out
+     *
+     * @param out builder to append to
+     * @return    out
+     * @throws IllegalStateException if there is no scheme
+     */
+    public StringBuilder appendTo(StringBuilder out)
+    {
+        target = STRING_BUILD;
+        outBuilder = out;
+        write();
+        outBuilder = null;
+
+        return out;
+    }
+
+    /**
+     * Write url into dst
+     *
+     * @param dst destination array
+     * @param off offset in dst to write
+     * @return    count of chars written
+     * @throws IllegalStateException     if there is no scheme
+     * @throws IndexOutOfBoundsException if dst is too small, see length()
+     */
+    public int writeTo(char[] dst, int off)
+    {
+        if (off < 0 || off > dst.length) {
+            throw new IndexOutOfBoundsException("Offset : " + off);
+        }
+
+        target = CHAR_ARRAY;
+        outChars = dst;
+        outPos = off;
+        write();
+        outChars = null;
+
+        return outPos - off;
+    }
+
+    /**
+     * Write url into dst as ASCII bytes, url chars are ASCII only
+     *
+     * @param dst destination buffer, written from its position
+     * @return    count of bytes written
+     * @throws IllegalStateException            if there is no scheme
+     * @throws java.nio.BufferOverflowException if dst is too small
+     */
+    public int writeTo(ByteBuffer dst)
+    {
+        int begin = dst.position();
+
+        target = BYTE_BUFFER;
+        outBuffer = dst;
+        write();
+        outBuffer = null;
+
+        return dst.position() - begin;
+    }
+
+    /**
+     * @return Length of url, chars written by writeTo()
+     * @throws IllegalStateException if there is no scheme
+     */
+    public int length()
+    {
+        target = COUNT;
+        outPos = 0;
+        write();
+
+        return outPos;
+    }
+
+    /**
+     * @return Url as a String
+     * @throws IllegalStateException if there is no scheme
+     */
+    @Override
+    public String toString()
+    {
+        return appendTo(new StringBuilder(length())).toString();
+    }
+
+    private void write()
+    {
+        if (bases[SCHEME] == null) {
+            throw new IllegalStateException("Url has no scheme");
+        }
+
+        runSrc = null;
+
+        component(SCHEME);
+        delimiter(":", srcBounds[1]);
+
+        boolean authority = bases[HOST] != null;
+        if (authority) {
+            //Authority starts after "//", before userinfo or host
+            int srcHost = srcBounds[4] == -1 ? -1 :
+                          srcBounds[2] != -1 ? srcBounds[2] : srcBounds[4];
+            delimiter("//", srcHost == -1 ? -1 : srcHost - 2);
+
+            if (bases[USERINFO] != null) {
+                component(USERINFO);
+                delimiter("@", srcBounds[3]);
+            }
+
+            component(HOST);
+
+            if (bases[PORT] != null) {
+                delimiter(":", srcBounds[6] - 1);
+                component(PORT);
+            }
+        }
+
+        if (bases[PATH] != null) {
+            if (authority && starts[PATH] != ends[PATH] &&
+                bases[PATH].charAt(starts[PATH]) != '/') {
+                delimiter("/", -1);
+            }
+            component(PATH);
+        }
+
+        if (bases[QUERY] != null) {
+            if (!queryEdited) {
+                delimiter("?", srcBounds[10] - 1);
+                component(QUERY);
+            }
+            else {
+                writeParams();
+            }
+        }
+
+        if (bases[FRAGMENT] != null) {
+            delimiter("#", srcBounds[12] - 1);
+            component(FRAGMENT);
+        }
+
+        flush();
+    }
+
+    private void writeParams()
+    {
+        CharSequence query = bases[QUERY];
+        boolean first = true;
+
+        for (int i = 0; i < paramCount * 6; i += 6) {
+            int kind = params[i];
+            if (kind == REMOVED) {
+                continue;
+            }
+
+            CharSequence base = kind == ADDED ? chars : query;
+            int start = params[i + 1];
+
+            if (first) {
+                delimiter("?", base == src && start == srcBounds[10] ? start - 1 : -1);
+                first = false;
+            }
+            else {
+                delimiter("&", base == src ? start - 1 : -1);
+            }
+
+            if (kind == REPLACED) {
+                copy(base, start, params[i + 2]);
+                copy(chars, params[i + 4], params[i + 5]);
+            }
+            else {
+                copy(base, start, params[i + 3]);
+            }
+        }
+    }
+
+    private void component(int component)
+    {
+        copy(bases[component], starts[component], ends[component]);
+    }
+
+    /**
+     * Write delimiter, from src at srcPos if it is there, so it joins the
+     * pending range
+     */
+    private void delimiter(String d, int srcPos)
+    {
+        if (src != null && srcPos >= 0 && srcPos + d.length() <= src.length() &&
+            PathSegments.regionMatches(src, srcPos, srcPos + d.length(),
+                                       d, 0, d.length())) {
+            copy(src, srcPos, srcPos + d.length());
+        }
+        else {
+            copy(d, 0, d.length());
+        }
+    }
+
+    private void copy(CharSequence s, int start, int end)
+    {
+        if (start == end) {
+            return;
+        }
+
+        if (s == runSrc && start == runEnd) {
+            runEnd = end;
+            return;
+        }
+
+        flush();
+        runSrc   = s;
+        runStart = start;
+        runEnd   = end;
+    }
+
+    private void flush()
+    {
+        if (runSrc == null) {
+            return;
+        }
+
+        CharSequence s = runSrc;
+        int start = runStart;
+        int end = runEnd;
+        runSrc = null;
+
+        switch (target) {
+            case COUNT:
+                outPos += end - start;
+                break;
+
+            case STRING_BUILD:
+                outBuilder.append(s, start, end);
+                break;
+
+            case CHAR_ARRAY:
+                if (outPos + end - start > outChars.length) {
+                    throw new IndexOutOfBoundsException(
+                            "Array length : " + outChars.length);
+                }
+
+                if (s instanceof String) {
+                    ((String) s).getChars(start, end, outChars, outPos);
+                }
+                else if (s instanceof StringBuilder) {
+                    ((StringBuilder) s).getChars(start, end, outChars, outPos);
+                }
+                else {
+                    for (int i = start; i < end; i++) {
+                        outChars[outPos + i - start] = s.charAt(i);
+                    }
+                }
+                outPos += end - start;
+                break;
+
+            case BYTE_BUFFER:
+                byte[] array = s instanceof URL.AsciiBuffer ?
+                               ((URL.AsciiBuffer) s).array() : null;
+                if (array != null) {
+                    outBuffer.put(array, ((URL.AsciiBuffer) s).offset() + start,
+                                  end - start);
+                }
+                else {
+                    for (int i = start; i < end; i++) {
+                        outBuffer.put((byte) s.charAt(i));
+                    }
+                }
+                break;
+        }
+    }
+}
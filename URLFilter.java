@@ -0,0 +1,736 @@
+import java.net.IDN;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Block and allow rules matched against parsed urls, e.g. for request
+ * filtering with block lists. A rule has a host, a path prefix and query
+ * key conditions, any of them may be omitted :
+ *
+ *   rule = [ "@@" ] [ host ] [ path ] [ "?" key *( "&amp;" key ) ]
+ *
+ *   example.com           host is example.com
+ *   *.example.com         host is a subdomain of example.com
+ *   .example.com          host is example.com or a subdomain of it
+ *   *                     any host, same as omitting host
+ *   example.com/ads       path is "/ads" or starts with "/ads/", whole
+ *                         segments are compared, "/adserver" is not matched
+ *   /track?uid&amp;session    any host, path under "/track" and query has both
+ *                         "uid" and "session" keys
+ *   @@.example.com/ads    allow rule, wins over block rules
+ *
+ * A url is blocked if a block rule matches it and no allow rule does.
+ * Hosts are compared case-insensitively, rules with non-ASCII hosts are
+ * converted to punycode. Paths and query keys are compared as they appear
+ * in url, percent-encoded. Empty lines and lines starting with '!' are
+ * comments.
+ *
+ * <pre>
+ * URLFilter filter = new URLFilter(Files.readAllLines(file));
+ * URLFilter.Match match = new URLFilter.Match();
+ *
+ * if (filter.match(url, match).isBlocked()) {
+ *     log.info("Blocked by " + filter.getRule(match.getRuleIndex()));
+ * }
+ * </pre>
+ *
+ * Rules are compiled into a single trie : host labels, read right to left
+ * as in PublicSuffixList, lead to host nodes, each host node has a trie of
+ * path segments and rules hang off path nodes. Rules of a host share its
+ * path trie, each rule keeps whether it matches the host, its subdomains
+ * or both, so "example.com" and "*.example.com/ads" do not match each
+ * other's urls. Nodes are kept in flat
+ * arrays, children are found in one open addressing table keyed by parent
+ * node and label hash. A match walks host labels once, walks path segments
+ * from each host node the host matches, at most one per label, and scans
+ * query keys once if a candidate rule has key conditions. Rules with key
+ * conditions are found by path node and keys present in url, so cost
+ * depends on url length, not on rule count, and nothing is allocated once
+ * a Match has grown to fit. Instances are immutable and thread-safe.
+ */
+public final class URLFilter
+{
+    private static final int EXACT = 1;      //Host ending at node is matched
+    private static final int BELOW = 1 << 1; //Hosts below node are matched
+    private static final int PATH  = 1 << 2; //Node is a path segment
+    private static final int KEYED = 1 << 3; //Rules with key conditions at node
+
+    //Nodes, 0 is root of host labels. Labels are chars [labelStart, labelEnd)
+    private final char[] labels;
+    private final int[] labelStart;
+    private final int[] labelEnd;
+    private final int[] hashes;
+    private final int[] parents;
+    private final byte[] flags;
+    private final int[] pathRoots; //Path trie root of a host node, -1 if none
+    private final int[] firstRules; //First rule without keys at a path node
+
+    private final int[] slots; //Child node of (parent, label hash), 0 if empty
+    private final int mask;
+
+    //Rules, in order they are given
+    private final String[] rules;
+    private final boolean[] allows;
+    private final byte[] hostModes; //EXACT and/or BELOW, hosts rule matches
+    private final int[] nextRules; //Next rule in the same chain, -1 if none
+    private final int[] keyStart;  //Key conditions [keyStart, keyEnd) of keys
+    private final int[] keyEnd;
+    private final int[] keys;
+
+    //Distinct query keys of conditions
+    private final String[] keyNames;
+    private final int[] keySlots; //Key id plus one, 0 if empty
+    private final int keyMask;
+
+    //Chains of rules with key conditions, keyed by path node and first key
+    //of rules, so only keys present in url are looked up
+    private final int[] keyedNodes;
+    private final int[] keyedKeys;
+    private final int[] keyedRules; //First rule plus one, 0 if empty
+    private final int keyedMask;
+
+    /**
+     * Rule trie while compiling
+     */
+    private static final class Builder
+    {
+        private final List<String> labels = new ArrayList<>();
+        private final List<Integer> parents = new ArrayList<>();
+        private final List<Integer> flags = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private Builder()
+        {
+            node(-1, "", 0);
+        }
+
+        private int node(int parent, String label, int flag)
+        {
+            String key = parent + ((flag & PATH) != 0 ? "/" : ".") + label;
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = labels.size();
+                ids.put(key, id);
+                labels.add(label);
+                parents.add(parent);
+                flags.add(flag);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Compile rules
+     *
+     * @param rules rules, see class comment for syntax
+     * @throws IllegalArgumentException if a rule is invalid
+     */
+    public URLFilter(Collection<String> rules)
+    {
+        Builder builder = new Builder();
+        List<String> ruleList = new ArrayList<>();
+        List<Integer> ruleNodes = new ArrayList<>();
+        List<Boolean> allowList = new ArrayList<>();
+        List<Integer> modeList = new ArrayList<>();
+        List<int[]> keyList = new ArrayList<>();
+        Map<String, Integer> keyIds = new HashMap<>();
+        Map<Integer, Integer> pathRootMap = new HashMap<>();
+
+        for (String line : rules) {
+            String rule = line.trim();
+            if (rule.isEmpty() || rule.startsWith("!")) {
+                continue;
+            }
+
+            boolean allow = rule.startsWith("@@");
+            String s = allow ? rule.substring(2) : rule;
+
+            int query = s.indexOf('?');
+            int[] ruleKeys = new int[0];
+            if (query != -1) {
+                ruleKeys = Arrays.stream(s.substring(query + 1).split("&"))
+                                 .filter(k -> !k.isEmpty())
+                                 .mapToInt(k -> keyIds.computeIfAbsent(k, x -> keyIds.size()))
+                                 .toArray();
+                if (ruleKeys.length == 0) {
+                    throw new IllegalArgumentException("No query key : " + rule);
+                }
+                s = s.substring(0, query);
+            }
+
+            int slash = s.indexOf('/');
+            String host = slash == -1 ? s : s.substring(0, slash);
+            String path = slash == -1 ? "" : s.substring(slash);
+
+            int node = addHost(builder, host, rule);
+            Integer pathRoot = pathRootMap.get(node);
+            if (pathRoot == null) {
+                pathRoot = builder.node(node, "", PATH);
+                pathRootMap.put(node, pathRoot);
+            }
+
+            node = pathRoot;
+            PathSegments segments = new PathSegments().reset(path);
+            while (segments.next()) {
+                if (segments.end() == path.length() && segments.start() == segments.end()) {
+                    //Trailing '/' of a prefix is ignored
+                    break;
+                }
+                node = builder.node(node, segments.segment().toString(), PATH);
+            }
+
+            ruleList.add(rule);
+            ruleNodes.add(node);
+            allowList.add(allow);
+            modeList.add(hostMode(host));
+            keyList.add(ruleKeys);
+        }
+
+        int count = builder.labels.size();
+        int length = 0;
+        for (String label : builder.labels) {
+            length += label.length();
+        }
+
+        this.labels     = new char[length];
+        this.labelStart = new int[count];
+        this.labelEnd   = new int[count];
+        this.hashes     = new int[count];
+        this.parents    = new int[count];
+        this.flags      = new byte[count];
+        this.pathRoots  = new int[count];
+        this.firstRules = new int[count];
+
+        this.slots = new int[Integer.highestOneBit(Math.max(4, count) * 2 - 1) << 1];
+        this.mask  = slots.length - 1;
+
+        Arrays.fill(pathRoots, -1);
+        Arrays.fill(firstRules, -1);
+        for (Map.Entry<Integer, Integer> e : pathRootMap.entrySet()) {
+            pathRoots[e.getKey()] = e.getValue();
+        }
+
+        int pos = 0;
+        for (int id = 0; id < count; id++) {
+            String label = builder.labels.get(id);
+            label.getChars(0, label.length(), labels, pos);
+
+            labelStart[id] = pos;
+            labelEnd[id]   = pos + label.length();
+            parents[id]    = builder.parents.get(id);
+            flags[id]      = builder.flags.get(id).byteValue();
+            pos += label.length();
+
+            boolean isPath = (flags[id] & PATH) != 0;
+            hashes[id] = isPath ? label.hashCode() : hash(label, 0, label.length());
+
+            if (id == 0 || pathRoots[parents[id]] == id) {
+                //Roots are not children in table
+                continue;
+            }
+
+            int i = slot(parents[id], hashes[id]);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+        }
+
+        int ruleCount = ruleList.size();
+        this.rules     = ruleList.toArray(new String[0]);
+        this.allows    = new boolean[ruleCount];
+        this.hostModes = new byte[ruleCount];
+        this.nextRules = new int[ruleCount];
+        this.keyStart  = new int[ruleCount];
+        this.keyEnd    = new int[ruleCount];
+
+        int keyCount = 0;
+        for (int[] k : keyList) {
+            keyCount += k.length;
+        }
+        this.keys = new int[keyCount];
+
+        int keyedCount = 0;
+        for (int[] k : keyList) {
+            keyedCount += k.length == 0 ? 0 : 1;
+        }
+
+        this.keyedRules = new int[Integer.highestOneBit(Math.max(4, keyedCount) * 2 - 1) << 1];
+        this.keyedNodes = new int[keyedRules.length];
+        this.keyedKeys  = new int[keyedRules.length];
+        this.keyedMask  = keyedRules.length - 1;
+
+        keyCount = 0;
+        for (int r = ruleCount - 1; r >= 0; r--) {
+            //Rules are chained in reverse, so a chain is in rule order
+            int node = ruleNodes.get(r);
+            int[] k = keyList.get(r);
+            allows[r]    = allowList.get(r);
+            hostModes[r] = modeList.get(r).byteValue();
+
+            if (k.length == 0) {
+                nextRules[r]     = firstRules[node];
+                firstRules[node] = r;
+            }
+            else {
+                int i = keyedSlot(node, k[0]);
+                nextRules[r]  = keyedRules[i] - 1;
+                keyedRules[i] = r + 1;
+                keyedNodes[i] = node;
+                keyedKeys[i]  = k[0];
+                flags[node]  |= KEYED;
+            }
+
+            keyStart[r] = keyCount;
+            System.arraycopy(k, 0, keys, keyCount, k.length);
+            keyCount += k.length;
+            keyEnd[r] = keyCount;
+        }
+
+        this.keyNames = new String[keyIds.size()];
+        for (Map.Entry<String, Integer> e : keyIds.entrySet()) {
+            keyNames[e.getValue()] = e.getKey();
+        }
+
+        this.keySlots = new int[Integer.highestOneBit(Math.max(4, keyNames.length) * 2 - 1) << 1];
+        this.keyMask  = keySlots.length - 1;
+
+        for (int id = 0; id < keyNames.length; id++) {
+            int i = keyNames[id].hashCode() & keyMask;
+            while (keySlots[i] != 0) {
+                i = (i + 1) & keyMask;
+            }
+            keySlots[i] = id + 1;
+        }
+    }
+
+    /**
+     * @return Hosts a rule host matches, EXACT for the host itself and
+     *         BELOW for its subdomains, both for any host
+     */
+    private static int hostMode(String host)
+    {
+        if (host.isEmpty() || host.equals("*") || host.startsWith(".")) {
+            return EXACT | BELOW;
+        }
+
+        return host.startsWith("*.") ? BELOW : EXACT;
+    }
+
+    /**
+     * Add labels of a rule host, host node is flagged with modes of all
+     * rules of the host, so it is skipped if no rule can match
+     *
+     * @return Host node, 0 for any host
+     */
+    private static int addHost(Builder builder, String host, String rule)
+    {
+        int flag = hostMode(host);
+        if (host.isEmpty() || host.equals("*")) {
+            return 0;
+        }
+        else if (host.startsWith("*.")) {
+            host = host.substring(2);
+        }
+        else if (host.startsWith(".")) {
+            host = host.substring(1);
+        }
+
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+
+        try {
+            host = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid host : " + rule, e);
+        }
+
+        int node = 0;
+        int end = host.length();
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            if (start == end) {
+                throw new IllegalArgumentException("Empty label : " + rule);
+            }
+
+            node = builder.node(node, host.substring(start, end), 0);
+            end = start - 1;
+        }
+
+        if (node == 0) {
+            throw new IllegalArgumentException("Invalid host : " + rule);
+        }
+
+        builder.flags.set(node, builder.flags.get(node) | flag);
+        return node;
+    }
+
+    /**
+     * @return Count of rules, comments excluded
+     */
+    public int size()
+    {
+        return rules.length;
+    }
+
+    /**
+     * @param index rule index, e.g. from {@link Match#getRuleIndex()}
+     * @return      rule as it is given, trimmed
+     */
+    public String getRule(int index)
+    {
+        return rules[index];
+    }
+
+    /**
+     * Match url against all rules
+     *
+     * @param url    parsed url
+     * @param result match to fill
+     * @return       result
+     */
+    public Match match(URL url, Match result)
+    {
+        result.begin(this, url);
+
+        //Rules of any host
+        if (matchPaths(0, EXACT | BELOW, result)) {
+            return result;
+        }
+
+        CharSequence host = url.getDomain();
+        if (host == null) {
+            return result;
+        }
+
+        int end = host.length();
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+
+        int node = 0;
+        int labelEnd = end;
+
+        while (labelEnd > 0) {
+            int h = 0;
+            int start = labelEnd;
+            char c;
+            while (start > 0 && (c = host.charAt(start - 1)) != '.') {
+                h = 31 * h + toLowerCase(c);
+                start--;
+            }
+
+            node = child(node, host, start, labelEnd, h, false);
+            if (node == 0) {
+                break;
+            }
+
+            int mode = start == 0 ? EXACT : BELOW;
+            if ((flags[node] & mode) != 0 && matchPaths(node, mode, result)) {
+                return result;
+            }
+
+            labelEnd = start - 1;
+        }
+
+        return result;
+    }
+
+    /**
+     * Walk path segments from path root of a host node
+     *
+     * @param mode EXACT if url host is the host of node, BELOW if it is a
+     *             subdomain of it, rules of other modes are skipped
+     * @return     true if an allow rule matched
+     */
+    private boolean matchPaths(int hostNode, int mode, Match result)
+    {
+        int node = pathRoots[hostNode];
+        if (node == -1) {
+            return false;
+        }
+
+        if (matchRules(node, mode, result)) {
+            return true;
+        }
+
+        result.splitPath();
+        for (int i = 0; i < result.segmentCount; i++) {
+            node = child(node, result.path, result.segments[i * 3],
+                         result.segments[i * 3 + 1], result.segments[i * 3 + 2], true);
+            if (node == 0) {
+                return false;
+            }
+
+            if (matchRules(node, mode, result)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check rules ending at a path node
+     *
+     * @return true if an allow rule matched
+     */
+    private boolean matchRules(int node, int mode, Match result)
+    {
+        if (matchChain(firstRules[node], mode, result)) {
+            return true;
+        }
+
+        if ((flags[node] & KEYED) == 0) {
+            return false;
+        }
+
+        result.scanKeys();
+        for (int i = 0; i < result.keysSetCount; i++) {
+            int s = keyedSlot(node, result.keysSet[i]);
+            if (keyedRules[s] != 0 &&
+                matchChain(keyedRules[s] - 1, mode, result)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean matchChain(int first, int mode, Match result)
+    {
+        for (int r = first; r != -1; r = nextRules[r]) {
+            if ((hostModes[r] & mode) != 0 && (allows[r] || result.rule == -1)) {
+                boolean matched = true;
+                for (int k = keyStart[r]; k < keyEnd[r] && matched; k++) {
+                    matched = result.hasKey(keys[k]);
+                }
+
+                if (matched) {
+                    result.rule = r;
+                    if (allows[r]) {
+                        result.allowed = true;
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return Slot of chain of (node, key), or the empty slot to put it
+     */
+    private int keyedSlot(int node, int key)
+    {
+        int h = (node * 0x9E3779B9) ^ (key * 0x85EBCA6B);
+        int i = (h ^ (h >>> 16)) & keyedMask;
+        while (keyedRules[i] != 0 && (keyedNodes[i] != node || keyedKeys[i] != key)) {
+            i = (i + 1) & keyedMask;
+        }
+
+        return i;
+    }
+
+    private int child(int node, CharSequence s, int start, int end, int h,
+                      boolean path)
+    {
+        for (int i = slot(node, h); slots[i] != 0; i = (i + 1) & mask) {
+            int id = slots[i];
+            if (hashes[id] == h && parents[id] == node &&
+                labelEquals(id, s, start, end, path)) {
+                return id;
+            }
+        }
+
+        return 0;
+    }
+
+    private boolean labelEquals(int id, CharSequence s, int start, int end,
+                                boolean path)
+    {
+        int pos = labelStart[id];
+        if (labelEnd[id] - pos != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (labels[pos++] != (path ? c : toLowerCase(c))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Id of query key, -1 if no rule has it
+     */
+    private int keyId(CharSequence key)
+    {
+        int h = key.hashCode();
+        for (int i = h & keyMask; keySlots[i] != 0; i = (i + 1) & keyMask) {
+            String name = keyNames[keySlots[i] - 1];
+            if (name.hashCode() == h && name.contentEquals(key)) {
+                return keySlots[i] - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private int slot(int parent, int hash)
+    {
+        int h = (parent * 0x9E3779B9) ^ hash;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Label hash, chars from last to first as labels are read right to left
+     */
+    private static int hash(CharSequence s, int start, int end)
+    {
+        int h = 0;
+        for (int i = end - 1; i >= start; i--) {
+            h = 31 * h + toLowerCase(s.charAt(i));
+        }
+
+        return h;
+    }
+
+    private static char toLowerCase(char c)
+    {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    /**
+     * Result of a match, also scratch space of matching, so an instance
+     * must not be shared between threads
+     */
+    public static final class Match
+    {
+        private final PathSegments cursor = new PathSegments();
+        private final QueryVisitor visitor = this::visitKey;
+
+        private URLFilter filter;
+        private URL url;
+        private int rule;
+        private boolean allowed;
+
+        //Path segments, split on first use : start, end and hash
+        private CharSequence path;
+        private int[] segments = new int[3 * 16];
+        private int segmentCount = -1;
+
+        //Query keys of conditions present in url, scanned on first use
+        private long[] keyBits = new long[1];
+        private int[] keysSet = new int[16];
+        private int keysSetCount;
+        private boolean keysScanned;
+
+        private void begin(URLFilter filter, URL url)
+        {
+            for (int i = 0; i < keysSetCount; i++) {
+                keyBits[keysSet[i] >>> 6] = 0;
+            }
+
+            if (keyBits.length * 64 < filter.keyNames.length) {
+                keyBits = new long[(filter.keyNames.length + 63) >>> 6];
+            }
+
+            this.filter       = filter;
+            this.url          = url;
+            this.rule         = -1;
+            this.allowed      = false;
+            this.segmentCount = -1;
+            this.keysSetCount = 0;
+            this.keysScanned  = false;
+        }
+
+        private void splitPath()
+        {
+            if (segmentCount != -1) {
+                return;
+            }
+
+            path = url.getPath();
+            cursor.reset(path);
+            segmentCount = 0;
+
+            while (cursor.next()) {
+                if (segmentCount * 3 + 3 > segments.length) {
+                    segments = Arrays.copyOf(segments, segments.length * 2);
+                }
+
+                segments[segmentCount * 3]     = cursor.start();
+                segments[segmentCount * 3 + 1] = cursor.end();
+                segments[segmentCount * 3 + 2] = cursor.hash();
+                segmentCount++;
+            }
+        }
+
+        private void scanKeys()
+        {
+            if (!keysScanned) {
+                keysScanned = true;
+                url.forEachQueryParam(visitor);
+            }
+        }
+
+        private boolean hasKey(int id)
+        {
+            scanKeys();
+            return (keyBits[id >>> 6] & (1L << id)) != 0;
+        }
+
+        private boolean visitKey(CharSequence key, CharSequence value)
+        {
+            int id = filter.keyId(key);
+            if (id != -1 && (keyBits[id >>> 6] & (1L << id)) == 0) {
+                if (keysSetCount == keysSet.length) {
+                    keysSet = Arrays.copyOf(keysSet, keysSetCount * 2);
+                }
+
+                keysSet[keysSetCount++] = id;
+                keyBits[id >>> 6] |= 1L << id;
+            }
+
+            return true;
+        }
+
+        /**
+         * @return true if a block rule matched and no allow rule did
+         */
+        public boolean isBlocked()
+        {
+            return rule != -1 && !allowed;
+        }
+
+        /**
+         * @return true if an allow rule matched
+         */
+        public boolean isAllowed()
+        {
+            return allowed;
+        }
+
+        /**
+         * @return Index of the allow rule which matched, otherwise index of
+         *         the first block rule found to match, -1 if none matched
+         */
+        public int getRuleIndex()
+        {
+            return rule;
+        }
+    }
+}
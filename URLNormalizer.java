@@ -0,0 +1,402 @@
+import java.util.Arrays;
+
+/**
+ * Syntax and scheme based normalization, RFC 3986 Section 6.2.2 and 6.2.3
+ *
+ * Equivalent urls are normalized to the same string, so normalized form
+ * can be used as a cache key :
+ *
+ *   HTTP://Example.COM:80/a/./b/../c?%7e  ->  http://example.com/a/c?~
+ *
+ *  - Scheme and host are lowercased
+ *  - Hex digits of percent-encodings are uppercased, percent-encoded
+ *    unreserved chars are decoded
+ *  - Dot segments are removed from absolute paths
+ *  - Empty port and default port of scheme are removed, leading zeros of
+ *    port are removed
+ *  - Empty path is replaced with "/" if url has authority
+ *
+ * With options, query parameters are sorted by key and fragment, which is
+ * not sent to servers, is removed.
+ *
+ * Components are written into output buffer once, dot segments and
+ * query parameter order are then fixed in place, so normalizing into a
+ * reused StringBuilder does not allocate. Instances keep scratch space
+ * and are not thread-safe.
+ */
+public class URLNormalizer
+{
+    /**
+     * Option to sort query parameters by key. Sort is stable, so order of
+     * parameters with the same key is kept, e.g. "b=1&a=2&b=0" becomes
+     * "a=2&b=1&b=0". As with URL query items, last '=' splits key and value.
+     */
+    public static final int SORT_QUERY = 1;
+
+    /**
+     * Option to remove fragment
+     */
+    public static final int REMOVE_FRAGMENT = 2;
+
+    private final int options;
+    private final URL url = new URL(URL.LAZY);
+    private final StringBuilder sb = new StringBuilder();
+
+    private int[] pairs = new int[16]; //Start and key end of each parameter
+    private char[] chars = new char[64];
+
+    public URLNormalizer()
+    {
+        this(0);
+    }
+
+    /**
+     * @param options options combined with bitwise or, e.g.
+     *                SORT_QUERY | REMOVE_FRAGMENT
+     */
+    public URLNormalizer(int options)
+    {
+        this.options = options;
+    }
+
+    /**
+     * Parse and normalize url
+     *
+     * @param s url
+     * @return  normalized url
+     * @throws IllegalArgumentException if s is malformed
+     */
+    public String normalize(CharSequence s)
+    {
+        sb.setLength(0);
+        return normalize(url.reset(s), sb).toString();
+    }
+
+    /**
+     * Normalize a parsed url and append it to out
+     *
+     * @param url parsed url
+     * @param out builder to append to
+     * @return    out
+     */
+    public StringBuilder normalize(URL url, StringBuilder out)
+    {
+        CharSequence scheme = url.getScheme();
+        out.append(scheme).append(':');
+
+        CharSequence domain = url.getDomain();
+        if (domain != null) {
+            out.append("//");
+
+            CharSequence userInfo = url.getUserInfo();
+            if (userInfo != null) {
+                appendNormalized(out, userInfo, false);
+                out.append('@');
+            }
+
+            appendNormalized(out, domain, true);
+            appendPort(out, scheme, url.getPort());
+        }
+
+        int pathStart = out.length();
+        appendNormalized(out, url.getPath(), false);
+
+        if (out.length() == pathStart) {
+            if (domain != null) {
+                out.append('/');
+            }
+        }
+        else if (out.charAt(pathStart) == '/') {
+            //Rootless paths, e.g. of mailto or urn schemes, are kept as is
+            removeDotSegments(out, pathStart);
+        }
+
+        CharSequence query = url.getQuery();
+        if (query != null) {
+            out.append('?');
+            int queryStart = out.length();
+            appendNormalized(out, query, false);
+
+            if ((options & SORT_QUERY) != 0) {
+                sortQuery(out, queryStart);
+            }
+        }
+
+        CharSequence fragment = url.getFragment();
+        if (fragment != null && (options & REMOVE_FRAGMENT) == 0) {
+            out.append('#');
+            appendNormalized(out, fragment, false);
+        }
+
+        return out;
+    }
+
+    private static void appendPort(StringBuilder out, CharSequence scheme,
+                                   CharSequence port)
+    {
+        if (port == null) {
+            return;
+        }
+
+        int start = 0;
+        while (start < port.length() - 1 && port.charAt(start) == '0') {
+            start++;
+        }
+
+        if (start == port.length()) {
+            //Empty port
+            return;
+        }
+
+        Scheme known = Scheme.of(scheme);
+        if (known != null && known.getDefaultPort() != -1 &&
+            port.length() - start <= 5) {
+            int value = 0;
+            for (int i = start; i < port.length(); i++) {
+                value = value * 10 + (port.charAt(i) - '0');
+            }
+
+            if (value == known.getDefaultPort()) {
+                return;
+            }
+        }
+
+        out.append(':').append(port, start, port.length());
+    }
+
+    /**
+     * Append chars with percent-encodings normalized, RFC 3986 Section
+     * 6.2.2.1 and 6.2.2.2
+     *
+     * @param lower true to lowercase chars other than percent-encodings
+     */
+    private static void appendNormalized(StringBuilder out, CharSequence s,
+                                         boolean lower)
+    {
+        final int len = s.length();
+        int run = 0; //Start of chars to be copied as they are
+
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+
+            if (c == '%' && i + 2 < len) {
+                out.append(s, run, i);
+
+                char hi = toUpperHex(s.charAt(i + 1));
+                char lo = toUpperHex(s.charAt(i + 2));
+                int value = (Character.digit(hi, 16) << 4) | Character.digit(lo, 16);
+
+                if (isUnreserved(value)) {
+                    c = (char) value;
+                    out.append(lower && c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+                }
+                else {
+                    out.append('%').append(hi).append(lo);
+                }
+
+                i += 2;
+                run = i + 1;
+            }
+            else if (lower && c >= 'A' && c <= 'Z') {
+                out.append(s, run, i).append((char) (c + 32));
+                run = i + 1;
+            }
+        }
+
+        out.append(s, run, len);
+    }
+
+    private static char toUpperHex(char c)
+    {
+        return c >= 'a' && c <= 'f' ? (char) (c - 32) : c;
+    }
+
+    /**
+     * unreserved  = ALPHA / DIGIT / "-" / "." / "_" / "~"
+     */
+    private static boolean isUnreserved(int c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+               (c >= '0' && c <= '9') ||
+               c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    /**
+     * Remove dot segments of path in [start, sb.length()) in place,
+     * RFC 3986 Section 5.2.4. Output is used as a stack of segments, it is
+     * never longer than consumed input, so it is written over the input.
+     *
+     * @param sb    builder holding path at its end
+     * @param start path start index
+     */
+    static void removeDotSegments(StringBuilder sb, int start)
+    {
+        final int end = sb.length();
+        if ((start == end || sb.charAt(start) != '.') && sb.indexOf("/.", start) == -1) {
+            //Dot segments start with '.' at path start or after a '/'
+            return;
+        }
+
+        int r = start; //Read position
+        int w = start; //Write position
+
+        while (r < end) {
+            boolean slash = sb.charAt(r) == '/';
+            int segStart = slash ? r + 1 : r;
+            int segEnd = segStart;
+            while (segEnd < end && sb.charAt(segEnd) != '/') {
+                segEnd++;
+            }
+
+            int dots = dots(sb, segStart, segEnd);
+            if (dots == 0) {
+                //Copy segment with its leading '/', until a dot segment is
+                //removed, segments are already in place
+                if (w == r) {
+                    w = segEnd;
+                }
+                else {
+                    for (int i = r; i < segEnd; i++) {
+                        sb.setCharAt(w++, sb.charAt(i));
+                    }
+                }
+                r = segEnd;
+                continue;
+            }
+
+            if (dots == 2) {
+                //Remove last output segment and its preceding '/'
+                while (w > start && sb.charAt(--w) != '/') {
+                }
+            }
+
+            if (slash) {
+                r = segEnd;
+                if (r == end) {
+                    //"/." or "/.." at the end is replaced with "/"
+                    sb.setCharAt(w++, '/');
+                }
+            }
+            else {
+                //"./" or "../" prefix of a relative path is removed
+                r = segEnd == end ? end : segEnd + 1;
+            }
+        }
+
+        sb.setLength(w);
+    }
+
+    /**
+     * @return 1 for ".", 2 for "..", 0 otherwise
+     */
+    private static int dots(CharSequence s, int start, int end)
+    {
+        int len = end - start;
+        if (len == 1 && s.charAt(start) == '.') {
+            return 1;
+        }
+
+        if (len == 2 && s.charAt(start) == '.' && s.charAt(start + 1) == '.') {
+            return 2;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Sort query parameters in [start, sb.length()) by key, stable. Query
+     * is copied into a char array, parameters are ordered by their offsets
+     * with binary insertion sort, then written back in sorted order.
+     */
+    private void sortQuery(StringBuilder sb, int start)
+    {
+        final int len = sb.length() - start;
+        if (chars.length < len + 1) {
+            chars = new char[Math.max(len + 1, chars.length * 2)];
+        }
+        sb.getChars(start, start + len, chars, 0);
+        chars[len] = '&'; //Sentinel, last parameter ends like others
+
+        //Each parameter takes two slots : start and key end
+        int count = 0;
+        int head = 0;
+        int split = -1;
+        boolean sorted = true;
+
+        for (int pos = 0; pos <= len; pos++) {
+            char c = chars[pos];
+            if (c == '=') {
+                split = pos;
+            }
+            else if (c == '&') {
+                if (count * 2 + 2 > pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+
+                int keyEnd = split == -1 ? pos : split;
+
+                //Find position after equal keys, so sort is stable
+                int lo = 0;
+                int hi = count;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (compare(chars, pairs[mid * 2], pairs[mid * 2 + 1],
+                                head, keyEnd) <= 0) {
+                        lo = mid + 1;
+                    }
+                    else {
+                        hi = mid;
+                    }
+                }
+
+                if (lo != count) {
+                    sorted = false;
+                    System.arraycopy(pairs, lo * 2, pairs, lo * 2 + 2,
+                                     (count - lo) * 2);
+                }
+
+                pairs[lo * 2]     = head;
+                pairs[lo * 2 + 1] = keyEnd;
+                count++;
+
+                head = pos + 1;
+                split = -1;
+            }
+        }
+
+        if (sorted) {
+            return;
+        }
+
+        sb.setLength(start);
+        for (int i = 0; i < count; i++) {
+            if (i != 0) {
+                sb.append('&');
+            }
+
+            int end = pairs[i * 2];
+            while (chars[end] != '&') {
+                end++;
+            }
+
+            sb.append(chars, pairs[i * 2], end - pairs[i * 2]);
+        }
+    }
+
+    private static int compare(char[] s, int start1, int end1,
+                               int start2, int end2)
+    {
+        int len1 = end1 - start1;
+        int len2 = end2 - start2;
+
+        for (int i = 0; i < Math.min(len1, len2); i++) {
+            char c1 = s[start1 + i];
+            char c2 = s[start2 + i];
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+
+        return len1 - len2;
+    }
+}
@@ -0,0 +1,40 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a url parse, committed by {@link JfrParseListener}. Event
+ * is enabled only while a recording is running, a recording can turn it
+ * off with setting "url.Parse#enabled=false".
+ */
+@Name("url.Parse")
+@Label("URL Parse")
+@Category("URL")
+@Description("Sampled or rejected url parse")
+@StackTrace(false)
+final class URLParseEvent extends Event
+{
+    @Label("Length")
+    @DataAmount(DataAmount.BYTES)
+    int length;
+
+    @Label("Error")
+    @Description("Kind of the error, NONE if url is valid")
+    String error;
+
+    @Label("Error Position")
+    int errorPosition;
+
+    @Label("Query Parameters")
+    int queryParams;
+
+    @Label("Parse Time")
+    @Description("Parse time, -1 if parse is not sampled")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseTime;
+}
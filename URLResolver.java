@@ -0,0 +1,193 @@
+/**
+ * Reference resolution, RFC 3986 Section 5
+ *
+ * Resolves a reference, e.g. href of a link, against a parsed base url :
+ *
+ *   base : http://a/b/c/d;p?q
+ *
+ *   "g"        ->  http://a/b/c/g
+ *   "../g"     ->  http://a/b/g
+ *   "/g"       ->  http://a/g
+ *   "//g"      ->  http://g
+ *   "?y"       ->  http://a/b/c/d;p?y
+ *   "#s"       ->  http://a/b/c/d;p?q#s
+ *   "g:h"      ->  g:h
+ *
+ * <pre>
+ * URL base = new URL(pageUrl);
+ * URL link = new URL(URL.LAZY);
+ * StringBuilder sb = new StringBuilder();
+ *
+ * for (String href : hrefs) {
+ *     sb.setLength(0);
+ *     if (link.tryReset(URLResolver.resolve(base, href, sb))) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * Base components are appended from the parsed url, reference is split
+ * in place as in RFC 3986 Appendix B and dot segments are removed from the
+ * written path in place, so resolving many references against one base
+ * into a reused builder does not allocate.
+ *
+ * Reference is not validated, its chars are copied as they are and parsing
+ * the result rejects malformed ones. Resolution is strict, a reference
+ * with a scheme is absolute even if the scheme is the same as base's.
+ */
+public final class URLResolver
+{
+    private URLResolver()
+    {
+    }
+
+    /**
+     * Resolve reference against base
+     *
+     * @param base parsed base url
+     * @param ref  reference
+     * @return     target url
+     */
+    public static String resolve(URL base, CharSequence ref)
+    {
+        return resolve(base, ref, new StringBuilder()).toString();
+    }
+
+    /**
+     * Resolve reference against base and append target url to out,
+     * RFC 3986 Section 5.2.2
+     *
+     * @param base parsed base url
+     * @param ref  reference
+     * @param out  builder to append to
+     * @return     out
+     */
+    public static StringBuilder resolve(URL base, CharSequence ref,
+                                        StringBuilder out)
+    {
+        final int len = ref.length();
+
+        //^(([^:/?#]+):)?(//([^/?#]*))?([^?#]*)(\?([^#]*))?(#(.*))?
+        int schemeEnd = schemeEnd(ref, len);
+        int pos = schemeEnd + 1;
+
+        int authorityStart = -1; //Start of "//"
+        if (pos + 1 < len && ref.charAt(pos) == '/' && ref.charAt(pos + 1) == '/') {
+            authorityStart = pos;
+            pos = scan(ref, pos + 2, len, true);
+        }
+        int authorityEnd = pos;
+
+        int pathStart = pos;
+        int pathEnd = scan(ref, pos, len, false);
+
+        //Start of '?', -1 if there is no query
+        int queryStart = pathEnd < len && ref.charAt(pathEnd) == '?' ? pathEnd : -1;
+
+        if (schemeEnd != -1) {
+            out.append(ref, 0, schemeEnd + 1);
+        }
+        else {
+            out.append(base.getScheme()).append(':');
+        }
+
+        if (schemeEnd != -1 || authorityStart != -1) {
+            if (authorityStart != -1) {
+                out.append(ref, authorityStart, authorityEnd);
+            }
+            appendPath(out, ref, pathStart, pathEnd);
+        }
+        else {
+            base.appendAuthority(out);
+
+            if (pathStart == pathEnd) {
+                base.appendPath(out, base.getPath().length());
+
+                CharSequence query = base.getQuery();
+                if (queryStart == -1 && query != null) {
+                    out.append('?').append(query);
+                }
+            }
+            else if (ref.charAt(pathStart) == '/') {
+                appendPath(out, ref, pathStart, pathEnd);
+            }
+            else {
+                int start = out.length();
+                appendMergeBase(out, base);
+                out.append(ref, pathStart, pathEnd);
+                URLNormalizer.removeDotSegments(out, start);
+            }
+        }
+
+        //Query and fragment of reference, each with its delimiter
+        return out.append(ref, queryStart == -1 ? pathEnd : queryStart, len);
+    }
+
+    /**
+     * @return index of ':' ending a valid scheme, -1 if there is no scheme
+     */
+    private static int schemeEnd(CharSequence s, int len)
+    {
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+
+            if (c == ':') {
+                return i == 0 ? -1 : i;
+            }
+
+            boolean alpha = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!alpha && (i == 0 || !((c >= '0' && c <= '9') ||
+                                       c == '+' || c == '-' || c == '.'))) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return index of first '?' or '#', or also '/' if authority is true,
+     *         len if there is none
+     */
+    private static int scan(CharSequence s, int pos, int len, boolean authority)
+    {
+        while (pos < len) {
+            char c = s.charAt(pos);
+            if (c == '?' || c == '#' || (c == '/' && authority)) {
+                break;
+            }
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private static void appendPath(StringBuilder out, CharSequence s,
+                                   int start, int end)
+    {
+        int pathStart = out.length();
+        out.append(s, start, end);
+        URLNormalizer.removeDotSegments(out, pathStart);
+    }
+
+    /**
+     * Append base path up to and including its last '/', RFC 3986
+     * Section 5.2.3
+     */
+    private static void appendMergeBase(StringBuilder out, URL base)
+    {
+        CharSequence path = base.getPath();
+
+        if (base.getDomain() != null && path.length() == 0) {
+            out.append('/');
+            return;
+        }
+
+        int last = path.length() - 1;
+        while (last >= 0 && path.charAt(last) != '/') {
+            last--;
+        }
+
+        base.appendPath(out, last + 1);
+    }
+}
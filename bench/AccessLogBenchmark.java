@@ -0,0 +1,114 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks AccessLogAggregator against reading lines into Strings and
+ * parsing them with new URL(String), on a generated log file in combined
+ * log format. Urls of all corpora are used as request targets.
+ *
+ *   log.aggregator : memory-mapped, in place parsing on common pool
+ *   log.readLine   : BufferedReader.readLine(), split, new URL(String),
+ *                    counts in HashMaps, on the calling thread
+ *
+ * An operation is a whole file, B/op counts only the calling thread, so
+ * it is not reported for aggregator which runs on pool threads.
+ *
+ * Line count is 200000, or the count given with -Dbench.lines=n
+ *
+ * Usage : java -cp out AccessLogBenchmark [options], see Bench for options
+ */
+final class AccessLogBenchmark
+{
+    private static final String[] CORPORA = {
+        "short-api", "long-tracking", "userinfo-port", "malformed"
+    };
+
+    private static Path generate(int lines) throws Exception
+    {
+        String[][] corpora = new String[CORPORA.length][];
+        for (int i = 0; i < CORPORA.length; i++) {
+            corpora[i] = Bench.corpus(CORPORA[i]);
+        }
+
+        Path file = Files.createTempFile("access", ".log");
+        file.toFile().deleteOnExit();
+
+        Random random = new Random(3986);
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < lines; i++) {
+                //Long urls are rare in real logs, pick them less often
+                int c = random.nextInt(20);
+                String[] urls = corpora[c == 0 ? 1 : c == 1 ? 3 : c % 2 == 0 ? 0 : 2];
+                String url = urls[random.nextInt(urls.length)];
+
+                w.write("10.0." + (i >> 8 & 255) + "." + (i & 255) +
+                        " - - [10/Oct/2000:13:55:36 -0700] \"GET " + url +
+                        " HTTP/1.1\" 200 " + random.nextInt(100000) +
+                        " \"-\" \"Mozilla/5.0\"\n");
+            }
+        }
+
+        return file;
+    }
+
+    private static long readLines(Path file) throws Exception
+    {
+        Map<String, Long> domains = new HashMap<>();
+        Map<String, Long> paths = new HashMap<>();
+
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length < 7) {
+                    continue;
+                }
+
+                try {
+                    URL url = new URL(fields[6]);
+                    String domain = url.getDomain() == null ? "" : url.getDomain().toString();
+                    domains.merge(domain, 1L, Long::sum);
+                    paths.merge(domain + url.getPath(), 1L, Long::sum);
+                }
+                catch (IllegalArgumentException e) {
+                    //Rejected
+                }
+            }
+        }
+
+        return domains.size() + paths.size();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int lines = Integer.getInteger("bench.lines", 200_000);
+
+        Path file = generate(lines);
+        System.out.printf("%d lines, %.1f MB%n", lines,
+                          Files.size(file) / (1024.0 * 1024.0));
+
+        //An op is a whole file, read the clock after each, unless -b is given
+        String[] options = new String[args.length + 2];
+        options[0] = "-b";
+        options[1] = "1";
+        System.arraycopy(args, 0, options, 2, args.length);
+
+        Bench bench = new Bench(options);
+        AccessLogAggregator aggregator = new AccessLogAggregator(6);
+
+        bench.run("log.aggregator", i -> {
+            AccessLogAggregator.Result result = aggregator.aggregate(file);
+            return result.getUrls() + result.getRejected();
+        });
+
+        bench.run("log.readLine", i -> readLines(file));
+
+        bench.done();
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal benchmark harness, runs each benchmark for a number of warm-up
+ * and measurement iterations of fixed duration and reports throughput and
+ * bytes allocated per operation.
+ *
+ * Allocation is read from per-thread allocation counter of the JVM, the
+ * same counter JMH's GC profiler reports as gc.alloc.rate.norm.
+ *
+ * JMH and a Maven or Gradle build are not used on purpose : JMH rejects
+ * benchmark classes in the default package, and a class in a named
+ * package cannot import default package classes such as URL, so JMH
+ * would require moving the parser into a package and giving up single
+ * file drop-in use. Iterations follow JMH's warm-up and measurement
+ * scheme, but there is no forking, benchmarks of a run share one JVM, use
+ * -f to run a single benchmark per JVM.
+ *
+ * Options :
+ *   -f  regex   run only benchmarks whose name matches
+ *   -wi n       warm-up iterations, default 3
+ *   -i  n       measurement iterations, default 5
+ *   -t  ms      iteration duration in milliseconds, default 1000
+ *   -b  n       op calls between clock reads, default 256
+ *
+ * Corpus files are read from bench/corpus, or from the directory given
+ * with -Dbench.corpus=dir
+ */
+final class Bench
+{
+    /**
+     * A benchmark operation, i is a running counter which can be used to
+     * pick an input. Result is consumed to prevent dead code elimination.
+     */
+    interface Op
+    {
+        long run(int i) throws Exception;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Pattern filter;
+    private int warmups = 3;
+    private int iterations = 5;
+    private long iterationNanos = 1_000_000_000L;
+    private int batch = 256;
+
+    private long sink;
+
+    Bench(String[] args)
+    {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f":
+                    filter = Pattern.compile(args[++i]);
+                    break;
+                case "-wi":
+                    warmups = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-t":
+                    iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+                    break;
+                case "-b":
+                    batch = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option : " + args[i]);
+            }
+        }
+
+        System.out.printf("%-40s %16s %12s %12s%n",
+                          "Benchmark", "ops/s", "error", "B/op");
+    }
+
+    /**
+     * @param name Corpus name, file name without ".txt"
+     * @return     Non empty lines of the corpus file
+     */
+    static String[] corpus(String name)
+    {
+        String dir = System.getProperty("bench.corpus", "bench/corpus");
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(dir, name + ".txt"),
+                                                    StandardCharsets.US_ASCII);
+            lines.removeIf(String::isEmpty);
+            return lines.toArray(new String[0]);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Cannot read corpus " + name, e);
+        }
+    }
+
+    /**
+     * Run op if its name passes the filter and print the result
+     */
+    void run(String name, Op op) throws Exception
+    {
+        if (filter != null && !filter.matcher(name).find()) {
+            return;
+        }
+
+        for (int i = 0; i < warmups; i++) {
+            iteration(op);
+        }
+
+        double[] rates = new double[iterations];
+        long ops = 0;
+        long bytes = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long count = iteration(op);
+            long elapsed = System.nanoTime() - start;
+
+            bytes += THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            ops += count;
+            rates[i] = count * 1e9 / elapsed;
+        }
+
+        double mean = 0;
+        for (double rate : rates) {
+            mean += rate;
+        }
+        mean /= rates.length;
+
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - mean) * (rate - mean);
+        }
+        double error = rates.length > 1 ?
+                       Math.sqrt(variance / (rates.length - 1)) : 0;
+
+        System.out.printf("%-40s %16.1f %12.1f %12.1f%n",
+                          name, mean, error, (double) bytes / ops);
+    }
+
+    /**
+     * Call op in batches until iteration duration passes
+     *
+     * @return number of op calls
+     */
+    private long iteration(Op op) throws Exception
+    {
+        long deadline = System.nanoTime() + iterationNanos;
+        long count = 0;
+        long result = 0;
+        int i = 0;
+
+        do {
+            for (int j = 0; j < batch; j++) {
+                result += op.run(i++);
+            }
+            count += batch;
+        } while (System.nanoTime() < deadline);
+
+        sink += result;
+        return count;
+    }
+
+    /**
+     * Print consumed results, so JIT can't prove they are unused
+     */
+    void done()
+    {
+        System.out.println("(sink " + sink + ")");
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates synthetic url corpora under bench/corpus with a fixed seed,
+ * so the same files are produced on every run :
+ *
+ *   short-api     : short REST API urls with a few query params
+ *   long-tracking : 0.5 - 4 KB ad tracking urls with many query params,
+ *                   some of them percent-encoded
+ *   userinfo-port : urls with user-info and explicit ports
+ *   malformed     : urls with one syntax error each
+ *
+ * Usage : java -cp out CorpusGenerator [output dir]
+ */
+final class CorpusGenerator
+{
+    private static final int LINES = 200;
+    private static final int LONG_LINES = 50;
+
+    private static final String[] HOSTS = {
+        "api.example.com", "www.example.org", "cdn.example.net",
+        "shop.example.co.uk", "static.img.example.com", "example.io"
+    };
+
+    private static final String[] WORDS = {
+        "users", "orders", "items", "search", "v1", "v2", "products",
+        "checkout", "cart", "profile", "settings", "images", "assets",
+        "collect", "pixel", "event", "track", "click", "view", "id"
+    };
+
+    private static final String[] KEYS = {
+        "page", "limit", "sort", "id", "q", "lang", "utm_source",
+        "utm_medium", "utm_campaign", "ref", "ts", "sig", "uid", "cid"
+    };
+
+    private final Random random = new Random(3986);
+
+    private String pick(String[] values)
+    {
+        return values[random.nextInt(values.length)];
+    }
+
+    private String token(int len)
+    {
+        final String chars = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+
+        return sb.toString();
+    }
+
+    private void path(StringBuilder sb, int segments)
+    {
+        for (int i = 0; i < segments; i++) {
+            sb.append('/');
+            sb.append(random.nextBoolean() ? pick(WORDS) :
+                                             Integer.toString(random.nextInt(100000)));
+        }
+    }
+
+    private String shortApi()
+    {
+        StringBuilder sb = new StringBuilder("https://").append(pick(HOSTS));
+        path(sb, 2 + random.nextInt(3));
+
+        int params = random.nextInt(4);
+        for (int i = 0; i < params; i++) {
+            sb.append(i == 0 ? '?' : '&').append(pick(KEYS)).append('=')
+              .append(random.nextInt(1000));
+        }
+
+        return sb.toString();
+    }
+
+    private String longTracking()
+    {
+        StringBuilder sb = new StringBuilder("http://").append(pick(HOSTS));
+        path(sb, 3 + random.nextInt(4));
+
+        int target = 500 + random.nextInt(3500);
+        char delim = '?';
+        while (sb.length() < target) {
+            sb.append(delim).append(pick(KEYS));
+            if (random.nextInt(4) == 0) {
+                sb.append('_').append(token(4));
+            }
+            sb.append('=');
+
+            if (random.nextInt(5) == 0) {
+                //An encoded redirect url as value
+                sb.append("https%3A%2F%2F").append(pick(HOSTS)).append("%2F")
+                  .append(pick(WORDS)).append("%3Fid%3D").append(token(8));
+            }
+            else {
+                sb.append(token(8 + random.nextInt(40)));
+            }
+
+            delim = '&';
+        }
+
+        if (random.nextInt(4) == 0) {
+            sb.append('#').append(token(6));
+        }
+
+        return sb.toString();
+    }
+
+    private String userInfoPort()
+    {
+        String[] schemes = {"http", "https", "ftp", "ws", "wss"};
+
+        StringBuilder sb = new StringBuilder(pick(schemes)).append("://");
+        sb.append(token(5));
+        if (random.nextBoolean()) {
+            sb.append(':').append(token(10));
+        }
+        sb.append('@').append(pick(HOSTS)).append(':')
+          .append(1 + random.nextInt(65535));
+        path(sb, 1 + random.nextInt(3));
+
+        if (random.nextBoolean()) {
+            sb.append("?").append(pick(KEYS)).append('=').append(token(6));
+        }
+
+        return sb.toString();
+    }
+
+    private String malformed()
+    {
+        String url = random.nextBoolean() ? shortApi() : userInfoPort();
+
+        switch (random.nextInt(6)) {
+            case 0: //Space in path
+                return url.replaceFirst("//([^/]+)/", "//$1/a b/");
+            case 1: //Bad percent encoding
+                return url + (url.indexOf('?') == -1 ? "?" : "&") + "x=%G1";
+            case 2: //Non digit port
+                return url.replaceFirst("(//|@)([^/:@]+)(:[0-9]+)?/", "$1$2:8o/");
+            case 3: //No scheme
+                return url.substring(url.indexOf("//"));
+            case 4: //Invalid char in query
+                return url + (url.indexOf('?') == -1 ? "?" : "&") + "q={x}";
+            default: //Invalid scheme
+                return "1" + url;
+        }
+    }
+
+    private void write(Path dir, String name, int lines,
+                       java.util.function.Supplier<String> gen) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                dir.resolve(name + ".txt"), StandardCharsets.US_ASCII))) {
+            for (int i = 0; i < lines; i++) {
+                out.println(gen.get());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "bench/corpus");
+        Files.createDirectories(dir);
+
+        CorpusGenerator g = new CorpusGenerator();
+        g.write(dir, "short-api", LINES, g::shortApi);
+        g.write(dir, "long-tracking", LONG_LINES, g::longTracking);
+        g.write(dir, "userinfo-port", LINES, g::userInfoPort);
+        g.write(dir, "malformed", LINES, g::malformed);
+    }
+}
@@ -0,0 +1,117 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmarks FingerprintSet at crawl frontier scale, with and without a
+ * Bloom filter front of 10 bits per entry.
+ *
+ *   fpset.fill          : printed, time to add all entries on all cores
+ *   fpset.contains.hit  : lookup of an added fingerprint
+ *   fpset.contains.miss : lookup of an absent fingerprint
+ *   fpset.add.dup       : add of an added fingerprint
+ *   fpset.snapshot/load : printed, time to write and map a snapshot
+ *
+ * Fingerprints are mixed counters, which are distributed as fingerprints
+ * of distinct urls are, so no urls are kept in memory. Entry count is
+ * 100000000, or the count given with -Dbench.entries=n. Set of 100M
+ * entries takes 1 GB off-heap and the Bloom filter 128 MB, so direct
+ * memory limit must be raised, e.g. -XX:MaxDirectMemorySize=2g. Snapshot
+ * is written to a temp file.
+ *
+ * Usage : java -XX:MaxDirectMemorySize=2g -cp out FingerprintSetBenchmark
+ *         [options], see Bench for options
+ */
+final class FingerprintSetBenchmark
+{
+    /**
+     * MurmurHash3 fmix64, a bijection, so distinct counters give distinct
+     * fingerprints
+     */
+    private static long fingerprint(long i)
+    {
+        long h = i + 1;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void fill(FingerprintSet set, long entries) throws Exception
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Thread[] workers = new Thread[threads];
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long from = entries * t / threads;
+            long to = entries * (t + 1) / threads;
+            workers[t] = new Thread(() -> {
+                for (long i = from; i < to; i++) {
+                    set.add(fingerprint(i));
+                }
+            });
+            workers[t].start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("fill : %d entries, %d threads, %.1f s, %.2fM adds/s, %d MB off-heap%n",
+                          set.size(), threads, seconds, entries / seconds / 1e6,
+                          set.memoryUsage() >> 20);
+    }
+
+    private static FingerprintSet snapshot(FingerprintSet set) throws Exception
+    {
+        Path file = Files.createTempFile("fpset", ".bin");
+        file.toFile().deleteOnExit();
+
+        long start = System.nanoTime();
+        set.snapshot(file);
+        long written = System.nanoTime();
+        FingerprintSet loaded = FingerprintSet.load(file);
+        long mapped = System.nanoTime();
+
+        System.out.printf("snapshot : %.1f s, load : %.3f s, %d MB%n",
+                          (written - start) / 1e9, (mapped - written) / 1e9,
+                          Files.size(file) >> 20);
+        Files.delete(file);
+
+        return loaded;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        long entries = Long.getLong("bench.entries", 100_000_000L);
+        Bench bench = new Bench(args);
+
+        for (int bits : new int[] {0, 10}) {
+            String name = bits == 0 ? "fpset" : "fpset.bloom";
+            FingerprintSet set = new FingerprintSet(entries, bits);
+            System.out.println(name);
+            fill(set, entries);
+
+            bench.run(name + ".contains.hit",
+                      i -> set.contains(fingerprint((i & 0x7fffffff) % entries)) ? 1 : 0);
+            bench.run(name + ".contains.miss",
+                      i -> set.contains(fingerprint(entries + (i & 0x7fffffff))) ? 1 : 0);
+            bench.run(name + ".add.dup",
+                      i -> set.add(fingerprint((i & 0x7fffffff) % entries)) ? 1 : 0);
+
+            if (bits == 0) {
+                FingerprintSet loaded = snapshot(set);
+                bench.run(name + ".loaded.contains.hit",
+                          i -> loaded.contains(fingerprint((i & 0x7fffffff) % entries)) ? 1 : 0);
+            }
+
+            //Release off-heap memory before the next set is allocated
+            System.gc();
+        }
+
+        bench.done();
+    }
+}
@@ -0,0 +1,611 @@
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks url parsing, query lookups and component access against
+ * java.net.URI and java.net.URL on bundled corpora.
+ *
+ *   parse   : parse a url, read its path, lazy variant reads domain too
+ *   query   : look up a few keys in query of a parsed url
+ *   scan    : parse a url and find all of a few keys in its query, query
+ *             items of URL compared to a lazy URL with a QueryVisitor
+ *             which stops once all keys are found
+ *   access  : read host, port, path and query of a parsed url
+ *   decode  : decode all query values of a parsed url
+ *   fingerprint : parse a url from bytes and hash it, its host and path,
+ *                 compared to hashing Strings of them after parsing
+ *   normalize : parse and normalize a url, java.net.URI only removes dot
+ *               segments, it does no case or percent-encoding normalization
+ *   resolve : resolve links of a page against its url and parse the
+ *             target, links are relative forms built from corpus urls
+ *   host    : parse a url with an IPv4 or IPv6 host and read the address,
+ *             compared to InetAddress.getByName() on host of java.net.URI,
+ *             hosts of corpus urls are replaced with random addresses
+ *   build   : parse a url, swap its host, drop utm_source parameter, add
+ *             a parameter and remove fragment, compared to concatenating
+ *             raw components of java.net.URI with a split query
+ *   scheme  : parse a url whose scheme case is mixed, e.g. "HTTPS", and
+ *             pick its port, default port if url has none, registered
+ *             Scheme compared by identity against equalsIgnoreCase() on
+ *             scheme of java.net.URI
+ *   listen  : parse a url with no parse listener, with ParseMetrics and
+ *             with ParseMetrics and JfrParseListener while no recording
+ *             is running, parse time sampled for 1 of 1024 parses
+ *   compare : parse a url, look its domain up in a String-keyed HashMap
+ *             and check its domain suffix, domain view compared to its
+ *             toString()
+ *
+ * java.net.URI getters decode components, so raw getters are used to
+ * compare the same work. For query lookups, java.net classes have no
+ * query api, so raw query is split on '&' and '=' as callers usually do.
+ * Query values are decoded with URLDecoder as callers usually do, compared
+ * to PercentCodec decoding QueryIndex values into a reused StringBuilder.
+ * java.net.URL rejects schemes it has no handler for, such urls are
+ * given to it with http scheme.
+ *
+ * Usage : java -cp out ParseBenchmark [options], see Bench for options
+ */
+final class ParseBenchmark
+{
+    private static final String[] CORPORA = {
+        "short-api", "long-tracking", "userinfo-port", "malformed"
+    };
+
+    private static final String[] KEYS = {"page", "utm_source", "id"};
+
+    /**
+     * Lookup key in raw query by splitting it, as done with java.net types
+     */
+    private static long splitLookup(String query, String key)
+    {
+        if (query == null) {
+            return 0;
+        }
+
+        long found = 0;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq == -1 ? pair : pair.substring(0, eq);
+            if (k.equals(key)) {
+                found += eq == -1 ? 0 : pair.length() - eq - 1;
+            }
+        }
+
+        return found;
+    }
+
+    private static long length(CharSequence s)
+    {
+        return s == null ? 0 : s.length();
+    }
+
+    private static void parse(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        byte[][] bytes = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = urls[i].getBytes(StandardCharsets.US_ASCII);
+        }
+
+        URL reused = new URL();
+
+        bench.run("parse.new." + name, i -> {
+            try {
+                return length(new URL(urls[i % n]).getPath());
+            }
+            catch (IllegalArgumentException e) {
+                return -1;
+            }
+        });
+
+        bench.run("parse.newLazy." + name, i -> {
+            try {
+                URL u = new URL(urls[i % n], URL.LAZY);
+                return length(u.getDomain()) + length(u.getPath());
+            }
+            catch (IllegalArgumentException e) {
+                return -1;
+            }
+        });
+
+        bench.run("parse.reset." + name, i -> {
+            try {
+                return length(reused.reset(urls[i % n]).getPath());
+            }
+            catch (IllegalArgumentException e) {
+                return -1;
+            }
+        });
+
+        bench.run("parse.tryReset." + name, i ->
+            reused.tryReset(urls[i % n]) ? length(reused.getPath()) : -1);
+
+        bench.run("parse.bytes." + name, i -> {
+            byte[] b = bytes[i % n];
+            try {
+                return length(reused.reset(b, 0, b.length).getPath());
+            }
+            catch (IllegalArgumentException e) {
+                return -1;
+            }
+        });
+
+        bench.run("parse.javaNetURI." + name, i -> {
+            try {
+                return length(new URI(urls[i % n]).getRawPath());
+            }
+            catch (java.net.URISyntaxException e) {
+                return -1;
+            }
+        });
+
+        bench.run("parse.javaNetURL." + name, i -> {
+            try {
+                return length(new java.net.URL(urls[i % n]).getPath());
+            }
+            catch (java.net.MalformedURLException e) {
+                return -1;
+            }
+        });
+    }
+
+    private static void lookup(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL[] parsed = new URL[n];
+        URI[] uris = new URI[n];
+        java.net.URL[] netUrls = new java.net.URL[n];
+        for (int i = 0; i < n; i++) {
+            parsed[i] = new URL(urls[i]);
+            uris[i] = new URI(urls[i]);
+            try {
+                netUrls[i] = new java.net.URL(urls[i]);
+            }
+            catch (java.net.MalformedURLException e) {
+                //java.net.URL knows only a few schemes, e.g. rejects ws
+                netUrls[i] = new java.net.URL("http" + urls[i].substring(
+                                                      urls[i].indexOf(':')));
+            }
+        }
+
+        bench.run("query.URL." + name, i -> {
+            URL.QueryItem item = parsed[i % n].getQueryItems().get(KEYS[i % KEYS.length]);
+            return item == null ? 0 : item.value.length();
+        });
+
+        bench.run("query.javaNetURI." + name, i ->
+            splitLookup(uris[i % n].getRawQuery(), KEYS[i % KEYS.length]));
+
+        bench.run("query.javaNetURL." + name, i ->
+            splitLookup(netUrls[i % n].getQuery(), KEYS[i % KEYS.length]));
+
+        URL eager = new URL();
+        URL lazy = new URL(URL.LAZY);
+        long[] found = new long[2]; //Count of keys found, sum of value lengths
+
+        bench.run("scan.URLItems." + name, i -> {
+            Map<CharSequence, URL.QueryItem> items = eager.reset(urls[i % n]).getQueryItems();
+            long sum = 0;
+            for (String key : KEYS) {
+                URL.QueryItem item = items.get(key);
+                sum += item == null ? 0 : item.value.length();
+            }
+            return sum;
+        });
+
+        bench.run("scan.URLVisitor." + name, i -> {
+            found[0] = 0;
+            found[1] = 0;
+            lazy.reset(urls[i % n]).forEachQueryParam((key, value) -> {
+                for (String k : KEYS) {
+                    if (k.contentEquals(key)) {
+                        found[1] += value.length();
+                        return ++found[0] < KEYS.length;
+                    }
+                }
+                return true;
+            });
+            return found[1];
+        });
+
+        bench.run("access.URL." + name, i -> {
+            URL u = parsed[i % n];
+            return length(u.getDomain()) + length(u.getPort()) +
+                   length(u.getPath()) + length(u.getQuery());
+        });
+
+        bench.run("access.javaNetURI." + name, i -> {
+            URI u = uris[i % n];
+            return length(u.getHost()) + u.getPort() +
+                   length(u.getRawPath()) + length(u.getRawQuery());
+        });
+
+        bench.run("access.javaNetURL." + name, i -> {
+            java.net.URL u = netUrls[i % n];
+            return length(u.getHost()) + u.getPort() +
+                   length(u.getPath()) + length(u.getQuery());
+        });
+    }
+
+    private static void decode(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL[] parsed = new URL[n];
+        for (int i = 0; i < n; i++) {
+            parsed[i] = new URL(urls[i]);
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        bench.run("decode.URL." + name, i -> {
+            QueryIndex index = parsed[i % n].getQueryIndex();
+            long len = 0;
+            for (int pair = 0; pair < index.size(); pair++) {
+                sb.setLength(0);
+                len += PercentCodec.decodeTo(index.source(),
+                                             index.valueStart(pair),
+                                             index.valueEnd(pair),
+                                             true, sb).length();
+            }
+            return len;
+        });
+
+        bench.run("decode.URLDecoder." + name, i -> {
+            long len = 0;
+            for (URL.QueryItem head : parsed[i % n].getQueryItems().values()) {
+                for (URL.QueryItem item = head; item != null; item = item.next) {
+                    len += URLDecoder.decode(item.value.toString(),
+                                             StandardCharsets.UTF_8).length();
+                }
+            }
+            return len;
+        });
+    }
+
+    private static void fingerprint(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        byte[][] bytes = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = urls[i].getBytes(StandardCharsets.US_ASCII);
+        }
+
+        URL fingerprinting = new URL(URL.LAZY | URL.FINGERPRINT);
+        URL lazy = new URL(URL.LAZY);
+
+        bench.run("fingerprint.URL." + name, i -> {
+            byte[] b = bytes[i % n];
+            if (!fingerprinting.tryReset(b, 0, b.length)) {
+                return -1;
+            }
+            return fingerprinting.getFingerprint() ^
+                   fingerprinting.getHostFingerprint() ^
+                   fingerprinting.getPathFingerprint();
+        });
+
+        bench.run("fingerprint.toString." + name, i -> {
+            byte[] b = bytes[i % n];
+            if (!lazy.tryReset(b, 0, b.length)) {
+                return -1;
+            }
+            CharSequence domain = lazy.getDomain();
+            return new String(b, StandardCharsets.ISO_8859_1).hashCode() ^
+                   (domain == null ? 0 : domain.toString().hashCode()) ^
+                   lazy.getPath().toString().hashCode();
+        });
+    }
+
+    private static void normalize(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL reused = new URL(URL.LAZY);
+        URLNormalizer normalizer = new URLNormalizer();
+        URLNormalizer sorting = new URLNormalizer(URLNormalizer.SORT_QUERY);
+        StringBuilder sb = new StringBuilder();
+
+        bench.run("normalize.URL." + name, i -> {
+            sb.setLength(0);
+            return normalizer.normalize(reused.reset(urls[i % n]), sb).length();
+        });
+
+        bench.run("normalize.URLSortQuery." + name, i -> {
+            sb.setLength(0);
+            return sorting.normalize(reused.reset(urls[i % n]), sb).length();
+        });
+
+        bench.run("normalize.javaNetURI." + name, i ->
+            new URI(urls[i % n]).normalize().toString().length());
+    }
+
+    /**
+     * Links as they appear on a page, one of each reference form per url
+     */
+    private static String[] links(String[] urls)
+    {
+        String[] links = new String[urls.length];
+        URL url = new URL();
+
+        for (int i = 0; i < urls.length; i++) {
+            url.reset(urls[i]);
+            String path = url.getPath().toString();
+            String query = url.getQuery() == null ? "" : "?" + url.getQuery();
+
+            switch (i % 6) {
+                case 0:
+                    links[i] = path + query;
+                    break;
+                case 1:
+                    links[i] = "../" + path.substring(path.lastIndexOf('/') + 1) + query;
+                    break;
+                case 2:
+                    links[i] = "./a/b/../" + path.substring(path.lastIndexOf('/') + 1);
+                    break;
+                case 3:
+                    links[i] = query.isEmpty() ? "#top" : query;
+                    break;
+                case 4:
+                    links[i] = "//" + url.getDomain() + path;
+                    break;
+                default:
+                    links[i] = urls[i];
+                    break;
+            }
+        }
+
+        return links;
+    }
+
+    private static void resolve(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final String[] links = links(urls);
+        final int n = links.length;
+
+        URL base = new URL(urls[0]);
+        URL target = new URL(URL.LAZY);
+        StringBuilder sb = new StringBuilder();
+        URI baseURI = new URI(urls[0]);
+
+        bench.run("resolve.URL." + name, i -> {
+            sb.setLength(0);
+            target.reset(URLResolver.resolve(base, links[i % n], sb));
+            return length(target.getPath());
+        });
+
+        bench.run("resolve.javaNetURI." + name, i ->
+            length(baseURI.resolve(links[i % n]).getRawPath()));
+    }
+
+    /**
+     * Urls with host replaced by a random IPv4 or IPv6 address, IPv6
+     * addresses have a run of zero groups compressed with "::"
+     */
+    private static String[] ipUrls(String[] urls, boolean ipv6)
+    {
+        String[] result = new String[urls.length];
+        Random random = new Random(3986);
+        URL url = new URL();
+
+        for (int i = 0; i < urls.length; i++) {
+            url.reset(urls[i]);
+
+            String host;
+            if (ipv6) {
+                host = "[2001:db8::" + Integer.toHexString(random.nextInt(0x10000)) +
+                       ":" + Integer.toHexString(random.nextInt(0x10000)) + "]";
+            }
+            else {
+                host = "10." + random.nextInt(256) + "." + random.nextInt(256) +
+                       "." + random.nextInt(256);
+            }
+
+            int start = urls[i].indexOf(url.getDomain().toString());
+            result[i] = urls[i].substring(0, start) + host +
+                        urls[i].substring(start + url.getDomain().length());
+        }
+
+        return result;
+    }
+
+    private static void host(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final String[] ipv4 = ipUrls(urls, false);
+        final String[] ipv6 = ipUrls(urls, true);
+        final int n = urls.length;
+
+        URL reused = new URL(URL.LAZY);
+
+        bench.run("host.URL.ipv4." + name, i ->
+            reused.reset(ipv4[i % n]).getIPv4());
+
+        bench.run("host.InetAddress.ipv4." + name, i ->
+            InetAddress.getByName(new URI(ipv4[i % n]).getHost()).hashCode());
+
+        bench.run("host.URL.ipv6." + name, i -> {
+            reused.reset(ipv6[i % n]);
+            return reused.getIPv6High() ^ reused.getIPv6Low();
+        });
+
+        bench.run("host.InetAddress.ipv6." + name, i ->
+            InetAddress.getByName(new URI(ipv6[i % n]).getHost()).hashCode());
+    }
+
+    private static void build(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL reused = new URL(URL.LAZY);
+        URLBuilder builder = new URLBuilder();
+        StringBuilder sb = new StringBuilder();
+
+        bench.run("build.URL." + name, i -> {
+            builder.reset(reused.reset(urls[i % n]))
+                   .setHost("cdn.example.com")
+                   .removeQueryParam("utm_source")
+                   .addQueryParam("ref", "mail list")
+                   .setFragment(null);
+
+            sb.setLength(0);
+            return builder.appendTo(sb).length();
+        });
+
+        bench.run("build.javaNetURI." + name, i -> {
+            URI uri = new URI(urls[i % n]);
+            StringBuilder query = new StringBuilder();
+            if (uri.getRawQuery() != null) {
+                for (String param : uri.getRawQuery().split("&")) {
+                    if (!param.startsWith("utm_source=")) {
+                        query.append(param).append('&');
+                    }
+                }
+            }
+            query.append("ref=").append(URLEncoder.encode("mail list", StandardCharsets.UTF_8));
+
+            String s = uri.getScheme() + "://" +
+                       (uri.getRawUserInfo() != null ? uri.getRawUserInfo() + "@" : "") +
+                       "cdn.example.com" +
+                       (uri.getPort() != -1 ? ":" + uri.getPort() : "") +
+                       uri.getRawPath() + "?" + query;
+            return s.length();
+        });
+    }
+
+    private static void scheme(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+        final String[] cased = new String[n];
+        Random random = new Random(1022);
+
+        for (int i = 0; i < n; i++) {
+            int colon = urls[i].indexOf(':');
+            String scheme = urls[i].substring(0, colon);
+            switch (random.nextInt(3)) {
+                case 0:
+                    scheme = scheme.toUpperCase();
+                    break;
+                case 1:
+                    scheme = Character.toUpperCase(scheme.charAt(0)) +
+                             scheme.substring(1);
+                    break;
+                default:
+                    break;
+            }
+            cased[i] = scheme + urls[i].substring(colon);
+        }
+
+        URL reused = new URL(URL.LAZY);
+
+        bench.run("scheme.URL." + name, i -> {
+            reused.reset(cased[i % n]);
+            CharSequence port = reused.getPort();
+            if (port != null) {
+                return port.length();
+            }
+
+            Scheme scheme = reused.getRegisteredScheme();
+            return scheme == Scheme.HTTPS || scheme == Scheme.HTTP ?
+                   scheme.getDefaultPort() : 0;
+        });
+
+        bench.run("scheme.javaNetURI." + name, i -> {
+            URI uri = new URI(cased[i % n]);
+            if (uri.getPort() != -1) {
+                return uri.getPort();
+            }
+
+            String scheme = uri.getScheme();
+            return "https".equalsIgnoreCase(scheme) ? 443 :
+                   "http".equalsIgnoreCase(scheme)  ? 80 : 0;
+        });
+    }
+
+    private static void compare(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL reused = new URL(URL.LAZY);
+        Map<String, Integer> domains = new HashMap<>();
+        for (int i = 0; i < n; i += 2) {
+            domains.put(reused.reset(urls[i]).getDomain().toString(), i);
+        }
+
+        bench.run("compare.URL." + name, i -> {
+            URL.CharBuffer domain = reused.reset(urls[i % n]).getDomain();
+            Integer id = domains.get(domain);
+            return (id != null ? id : 0) + (domain.endsWith(".com") ? 1 : 0);
+        });
+
+        bench.run("compare.toString." + name, i -> {
+            String domain = reused.reset(urls[i % n]).getDomain().toString();
+            Integer id = domains.get(domain);
+            return (id != null ? id : 0) + (domain.endsWith(".com") ? 1 : 0);
+        });
+    }
+
+    private static void listen(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL reused = new URL(URL.LAZY);
+        ParseMetrics metrics = new ParseMetrics();
+
+        bench.run("listen.none." + name, i ->
+            reused.tryReset(urls[i % n]) ? 1 : 0);
+
+        URL.setParseListener(metrics, 1024);
+        bench.run("listen.metrics." + name, i ->
+            reused.tryReset(urls[i % n]) ? 1 : 0);
+
+        URL.setParseListener(metrics.andThen(new JfrParseListener()), 1024);
+        bench.run("listen.jfr." + name, i ->
+            reused.tryReset(urls[i % n]) ? 1 : 0);
+
+        URL.setParseListener(null, 1);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Bench bench = new Bench(args);
+
+        for (String name : CORPORA) {
+            String[] urls = Bench.corpus(name);
+
+            parse(bench, name, urls);
+            listen(bench, name, urls);
+            if (!name.equals("malformed")) {
+                lookup(bench, name, urls);
+                decode(bench, name, urls);
+                normalize(bench, name, urls);
+                resolve(bench, name, urls);
+                host(bench, name, urls);
+                build(bench, name, urls);
+                scheme(bench, name, urls);
+                compare(bench, name, urls);
+                fingerprint(bench, name, urls);
+            }
+        }
+
+        bench.done();
+    }
+}
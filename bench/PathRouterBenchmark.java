@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks PathRouter against splitting the path with String.split("/")
+ * and matching patterns one by one, as gateways commonly do.
+ *
+ *   route.trie.path  : match a path String
+ *   route.split.path : split path, try each pattern in order
+ *   route.trie.url   : parse a url and match its path view
+ *   route.split.url  : parse a url, toString() its path and split
+ *
+ * Routes look like REST APIs, e.g. "/api/v2/resource7/{id}/items/{sub}",
+ * plus literal overrides and static file wildcards. Paths are taken
+ * from routes with parameters filled, about half of them miss. Route
+ * count is set with -Dbench.routes=n, default 2000.
+ *
+ * Usage : java -cp out PathRouterBenchmark [options], see Bench for
+ *         options
+ */
+final class PathRouterBenchmark
+{
+    private static final String[] SUBS = {
+        "items", "history", "settings", "members", "events"
+    };
+
+    /**
+     * Pattern matched on split segments
+     */
+    private static final class SplitRoute
+    {
+        private final String[] segments;
+        private final int value;
+
+        private SplitRoute(String template, int value)
+        {
+            this.segments = template.split("/");
+            this.value = value;
+        }
+
+        private boolean matches(String[] path)
+        {
+            int n = segments.length;
+            boolean wildcard = n > 0 && segments[n - 1].equals("*");
+            if (wildcard ? path.length < n - 1 : path.length != n) {
+                return false;
+            }
+
+            for (int i = 0; i < (wildcard ? n - 1 : n); i++) {
+                String s = segments[i];
+                if (s.startsWith("{")) {
+                    if (path[i].isEmpty()) {
+                        return false;
+                    }
+                }
+                else if (!s.equals(path[i])) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int count = Integer.getInteger("bench.routes", 2000);
+        Random random = new Random(1035);
+
+        //Literal routes first, split matching tries patterns in order
+        Map<String, Integer> routes = new LinkedHashMap<>();
+        List<String> templates = new ArrayList<>();
+        for (int i = 0; routes.size() < count; i++) {
+            String base = "/api/v" + (i % 4) + "/resource" + i / 4;
+            String[] candidates = {
+                base + "/{id}",
+                base + "/{id}/" + SUBS[i % SUBS.length],
+                base + "/{id}/" + SUBS[i % SUBS.length] + "/{sub}",
+                base + "/search",
+                "/static/" + i + "/*"
+            };
+
+            for (String template : candidates) {
+                if (routes.size() < count) {
+                    routes.put(template, routes.size());
+                    templates.add(template);
+                }
+            }
+        }
+
+        List<SplitRoute> split = new ArrayList<>();
+        for (String template : templates) {
+            if (template.endsWith("/search")) {
+                split.add(new SplitRoute(template, routes.get(template)));
+            }
+        }
+        for (String template : templates) {
+            if (!template.endsWith("/search")) {
+                split.add(new SplitRoute(template, routes.get(template)));
+            }
+        }
+
+        String[] paths = new String[4096];
+        String[] urls = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            String template = templates.get(random.nextInt(templates.size()));
+            String path = template.replace("{id}", Integer.toString(random.nextInt(100000)))
+                                  .replace("{sub}", Long.toHexString(random.nextLong()))
+                                  .replace("*", "css/site.css");
+            if (random.nextBoolean()) {
+                //Miss in the middle of the path
+                path = path.replace("/resource", "/resources");
+            }
+
+            paths[i] = path;
+            urls[i] = "https://gateway.example.com" + path + "?trace=" + i;
+        }
+
+        PathRouter<Integer> router = new PathRouter<>(routes);
+        PathRouter.Match<Integer> match = new PathRouter.Match<>();
+        URL url = new URL(URL.LAZY);
+        final int n = paths.length;
+
+        Bench bench = new Bench(args);
+
+        bench.run("route.trie.path", i -> {
+            Integer value = router.match(paths[i % n], match).getValue();
+            return value == null ? -1 : value;
+        });
+
+        bench.run("route.split.path", i -> lookup(split, paths[i % n]));
+
+        bench.run("route.trie.url", i -> {
+            Integer value = router.match(url.reset(urls[i % n]), match).getValue();
+            return value == null ? -1 : value;
+        });
+
+        bench.run("route.split.url", i ->
+            lookup(split, url.reset(urls[i % n]).getPath().toString()));
+
+        bench.done();
+    }
+
+    private static long lookup(List<SplitRoute> routes, String path)
+    {
+        String[] segments = path.split("/");
+        for (SplitRoute route : routes) {
+            if (route.matches(segments)) {
+                return route.value;
+            }
+        }
+
+        return -1;
+    }
+}
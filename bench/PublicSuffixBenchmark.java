@@ -0,0 +1,146 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Benchmarks PublicSuffixList against a lookup of joined labels in sets
+ * of rules, as suffix libraries like Guava's InternetDomainName do.
+ *
+ *   suffix.trie.host  : registrable domain of a host String
+ *   suffix.split.host : lower case, split into labels, look up each
+ *                       suffix in sets of rules
+ *   suffix.trie.url   : parse a url and match its domain view
+ *   suffix.split.url  : parse a url, toString() its domain and split
+ *
+ * Hosts are domains of corpus urls, half of them moved under multi-label
+ * suffixes, e.g. "co.uk" or "github.io". Rules are read from
+ * public_suffix_list.dat, or from the file given with -Dbench.psl=file
+ *
+ * Usage : java -cp out PublicSuffixBenchmark [options], see Bench for
+ *         options
+ */
+final class PublicSuffixBenchmark
+{
+    private static final String[] CORPORA = {
+        "short-api", "long-tracking", "userinfo-port"
+    };
+
+    private static final String[] SUFFIXES = {
+        "co.uk", "com.au", "github.io", "co.jp", "com.br", "blogspot.com"
+    };
+
+    /**
+     * Suffix lookup on split labels
+     */
+    private static final class SplitLookup
+    {
+        private final Set<String> rules = new HashSet<>();
+        private final Set<String> wildcards = new HashSet<>();
+        private final Set<String> exceptions = new HashSet<>();
+
+        private SplitLookup(Path file) throws Exception
+        {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("//")) {
+                    continue;
+                }
+
+                if (line.startsWith("!")) {
+                    exceptions.add(line.substring(1));
+                }
+                else if (line.startsWith("*.")) {
+                    wildcards.add(line.substring(2));
+                }
+                else {
+                    rules.add(line);
+                }
+            }
+        }
+
+        /**
+         * @return Registrable domain, null if host is a public suffix
+         */
+        private String registrable(String host)
+        {
+            String[] labels = host.toLowerCase(Locale.ROOT).split("\\.");
+            List<String> list = Arrays.asList(labels);
+
+            for (int i = 0; i < labels.length; i++) {
+                String suffix = String.join(".", list.subList(i, labels.length));
+                if (exceptions.contains(suffix)) {
+                    return suffix;
+                }
+
+                if (rules.contains(suffix) ||
+                    (i + 1 < labels.length &&
+                     wildcards.contains(String.join(".", list.subList(i + 1, labels.length))))) {
+                    return i == 0 ? null : labels[i - 1] + "." + suffix;
+                }
+            }
+
+            return labels.length < 2 ? null :
+                   labels[labels.length - 2] + "." + labels[labels.length - 1];
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Path file = Paths.get(System.getProperty("bench.psl", PublicSuffixList.DEFAULT_FILE));
+        PublicSuffixList list = PublicSuffixList.load(file, true);
+        SplitLookup split = new SplitLookup(file);
+
+        Bench bench = new Bench(args);
+        Random random = new Random(1035);
+
+        for (String name : CORPORA) {
+            String[] urls = Bench.corpus(name);
+            String[] hosts = new String[urls.length];
+            URL parsed = new URL();
+
+            for (int i = 0; i < urls.length; i++) {
+                parsed.reset(urls[i]);
+                String host = parsed.getDomain().toString();
+
+                if (random.nextBoolean()) {
+                    //Move under a multi-label suffix, keep url otherwise same
+                    String moved = host.substring(0, host.lastIndexOf('.') + 1) +
+                                   SUFFIXES[random.nextInt(SUFFIXES.length)];
+                    urls[i] = urls[i].replace(host, moved);
+                    host = moved;
+                }
+
+                hosts[i] = host;
+            }
+
+            final int n = urls.length;
+            PublicSuffixList.Match match = new PublicSuffixList.Match();
+            URL url = new URL(URL.LAZY);
+
+            bench.run("suffix.trie.host." + name, i ->
+                list.match(hosts[i % n], match).getRegistrableStart());
+
+            bench.run("suffix.split.host." + name, i -> {
+                String domain = split.registrable(hosts[i % n]);
+                return domain == null ? 0 : domain.length();
+            });
+
+            bench.run("suffix.trie.url." + name, i ->
+                list.match(url.reset(urls[i % n]), match).getRegistrableStart());
+
+            bench.run("suffix.split.url." + name, i -> {
+                String domain = split.registrable(url.reset(urls[i % n]).getDomain().toString());
+                return domain == null ? 0 : domain.length();
+            });
+        }
+
+        bench.done();
+    }
+}
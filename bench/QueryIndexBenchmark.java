@@ -0,0 +1,91 @@
+/**
+ * Benchmarks QueryIndex against QueryItem map of URL on bundled corpora.
+ *
+ *   build   : reset a lazy url and build its query items or query index
+ *   lookup  : look up a few keys in query of a parsed url
+ *   iterate : visit every key value pair of a parsed url
+ *
+ * Build variants include parsing as both structures are created from a
+ * freshly parsed url, so difference between them is the build cost.
+ *
+ * Usage : java -cp out QueryIndexBenchmark [options], see Bench for options
+ */
+final class QueryIndexBenchmark
+{
+    private static final String[] CORPORA = {
+        "short-api", "long-tracking"
+    };
+
+    private static final String[] KEYS = {"page", "utm_source", "id"};
+
+    private static void build(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL reused = new URL(URL.LAZY);
+
+        bench.run("build.items." + name, i ->
+            reused.reset(urls[i % n]).getQueryItems().size());
+
+        bench.run("build.index." + name, i ->
+            reused.reset(urls[i % n]).getQueryIndex().size());
+    }
+
+    private static void lookup(Bench bench, String name, String[] urls)
+            throws Exception
+    {
+        final int n = urls.length;
+
+        URL[] parsed = new URL[n];
+        for (int i = 0; i < n; i++) {
+            parsed[i] = new URL(urls[i]);
+            parsed[i].getQueryIndex();
+        }
+
+        bench.run("lookup.items." + name, i -> {
+            URL.QueryItem item = parsed[i % n].getQueryItems().get(KEYS[i % KEYS.length]);
+            return item == null ? 0 : item.value.length();
+        });
+
+        bench.run("lookup.index." + name, i -> {
+            QueryIndex index = parsed[i % n].getQueryIndex();
+            int pair = index.first(KEYS[i % KEYS.length]);
+            return pair == -1 ? 0 : index.valueEnd(pair) - index.valueStart(pair);
+        });
+
+        bench.run("iterate.items." + name, i -> {
+            long sum = 0;
+            for (URL.QueryItem head : parsed[i % n].getQueryItems().values()) {
+                for (URL.QueryItem item = head; item != null; item = item.next) {
+                    sum += item.key.length() + item.value.length();
+                }
+            }
+            return sum;
+        });
+
+        bench.run("iterate.index." + name, i -> {
+            QueryIndex index = parsed[i % n].getQueryIndex();
+            long sum = 0;
+            for (int pair = 0; pair < index.size(); pair++) {
+                sum += index.keyEnd(pair) - index.keyStart(pair) +
+                       index.valueEnd(pair) - index.valueStart(pair);
+            }
+            return sum;
+        });
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Bench bench = new Bench(args);
+
+        for (String name : CORPORA) {
+            String[] urls = Bench.corpus(name);
+
+            build(bench, name, urls);
+            lookup(bench, name, urls);
+        }
+
+        bench.done();
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks URLArena against keeping parsed urls as objects, for batches
+ * of urls held in memory.
+ *
+ *   arena.add.URLArena   : add a url to an arena, arena is cleared at the
+ *                          end of each batch and its pages are reused
+ *   arena.add.URL        : parse a url into a new URL kept in a list
+ *   arena.add.CompactURL : parse a url and keep its CompactURL in a list
+ *   arena.scan.*         : read hosts of a full batch and check their
+ *                          last char, one op is one url
+ *
+ * Before benchmarks, a full batch of each kind is built from new url
+ * Strings and its retained heap per url is printed, measured as used heap
+ * difference after GC. URL and CompactURL keep their Strings, an arena
+ * keeps a copy of url bytes and Strings are dropped. Batch size is set
+ * with -Dbench.batch=n, default 1000000.
+ *
+ * Usage : java -cp out URLArenaBenchmark [options], see Bench for options
+ */
+final class URLArenaBenchmark
+{
+    private static final String[] CORPORA = {
+        "short-api", "long-tracking", "userinfo-port"
+    };
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void printRetained(String name, long before, int batch)
+    {
+        System.out.printf("%-40s %16.1f B/url retained%n", name,
+                          (usedHeap() - before) / (double) batch);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final int batch = Integer.getInteger("bench.batch", 1_000_000);
+        Bench bench = new Bench(args);
+
+        List<String> corpus = new ArrayList<>();
+        for (String name : CORPORA) {
+            for (String url : Bench.corpus(name)) {
+                corpus.add(url);
+            }
+        }
+
+        //Distinct String instances, as urls read from input would be
+        String[] urls = new String[batch];
+        for (int i = 0; i < batch; i++) {
+            urls[i] = new String(corpus.get(i % corpus.size()));
+        }
+
+        long before = usedHeap();
+        URLArena arena = new URLArena();
+        for (int i = 0; i < batch; i++) {
+            arena.add(new String(urls[i].toCharArray()));
+        }
+        printRetained("retained.URLArena", before, batch);
+
+        before = usedHeap();
+        List<URL> parsed = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            parsed.add(new URL(new String(urls[i].toCharArray())));
+        }
+        printRetained("retained.URL", before, batch);
+
+        before = usedHeap();
+        List<CompactURL> compact = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            compact.add(new URL(new String(urls[i].toCharArray())).compact());
+        }
+        printRetained("retained.CompactURL", before, batch);
+
+        URLArena.View view = arena.view();
+
+        bench.run("arena.scan.URLArena", i -> {
+            CharSequence host = view.moveTo(i % batch).getDomain();
+            return host.charAt(host.length() - 1) == 'm' ? 1 : 0;
+        });
+
+        bench.run("arena.scan.URL", i -> {
+            CharSequence host = parsed.get(i % batch).getDomain();
+            return host.charAt(host.length() - 1) == 'm' ? 1 : 0;
+        });
+
+        bench.run("arena.scan.CompactURL", i -> {
+            CharSequence host = compact.get(i % batch).getDomain();
+            return host.charAt(host.length() - 1) == 'm' ? 1 : 0;
+        });
+
+        parsed.clear();
+        compact.clear();
+
+        //Fill once, so pages and columns are reused as in later batches
+        URLArena reused = new URLArena();
+        for (String url : urls) {
+            reused.add(url);
+        }
+
+        bench.run("arena.add.URLArena", i -> {
+            if (reused.size() == batch) {
+                reused.clear();
+            }
+            return reused.add(urls[i % batch]);
+        });
+
+        List<URL> list = new ArrayList<>(batch);
+        bench.run("arena.add.URL", i -> {
+            if (list.size() == batch) {
+                list.clear();
+            }
+            list.add(new URL(urls[i % batch]));
+            return list.size();
+        });
+
+        List<CompactURL> compactList = new ArrayList<>(batch);
+        bench.run("arena.add.CompactURL", i -> {
+            if (compactList.size() == batch) {
+                compactList.clear();
+            }
+            compactList.add(new URL(urls[i % batch]).compact());
+            return compactList.size();
+        });
+
+        bench.done();
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks URLFilter against a loop over regexes of the same rules,
+ * matched on the url String as filters built on java.util.regex do.
+ *
+ *   filter.compiled.N : parse a url and match it with URLFilter
+ *   filter.regex.N    : parse a url, try each regex on the url String,
+ *                       an allow rule stops the loop
+ *
+ * Rules are host suffixes, subdomain wildcards, host + path prefixes,
+ * exact and wildcard on the same hosts, path prefixes on any host, query
+ * keys and a few allow rules. A third of corpus urls are rewritten to hit
+ * rules, rest do not match any rule. Before benchmarks, URLFilter results
+ * are checked against the regexes for all urls. Rule counts are set with
+ * -Dbench.rules=n,n..., default 10000,100000.
+ *
+ * Usage : java -cp out URLFilterBenchmark [options], see Bench for
+ *         options
+ */
+final class URLFilterBenchmark
+{
+    private static final String[] CORPORA = {
+        "short-api", "long-tracking", "userinfo-port"
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        String[] counts = System.getProperty("bench.rules", "10000,100000").split(",");
+        Bench bench = new Bench(args);
+
+        List<String> corpus = new ArrayList<>();
+        for (String name : CORPORA) {
+            for (String url : Bench.corpus(name)) {
+                corpus.add(url);
+            }
+        }
+
+        for (String countStr : counts) {
+            int count = Integer.parseInt(countStr.trim());
+            Random random = new Random(1035);
+
+            List<String> rules = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                rules.add(rule(i, count));
+            }
+
+            String[] urls = new String[4096];
+            for (int i = 0; i < urls.length; i++) {
+                String url = corpus.get(random.nextInt(corpus.size()));
+                if (random.nextInt(3) == 0) {
+                    url = hit(url, random.nextInt(count), count);
+                }
+                urls[i] = url;
+            }
+
+            Pattern[] regexes = new Pattern[count];
+            boolean[] allows = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                allows[i] = rules.get(i).startsWith("@@");
+                regexes[i] = Pattern.compile(regex(rules.get(i)));
+            }
+
+            URLFilter filter = new URLFilter(rules);
+            URLFilter.Match match = new URLFilter.Match();
+            URL url = new URL(URL.LAZY);
+            final int n = urls.length;
+
+            for (String s : urls) {
+                int expected = blocked(regexes, allows, s);
+                if (filter.match(url.reset(s), match).isBlocked() != (expected == 1)) {
+                    throw new IllegalStateException("URLFilter and regexes differ : " + s);
+                }
+            }
+
+            bench.run("filter.compiled." + count, i ->
+                filter.match(url.reset(urls[i % n]), match).isBlocked() ? 1 : 0);
+
+            bench.run("filter.regex." + count, i -> {
+                String s = urls[i % n];
+                url.reset(s);
+                return blocked(regexes, allows, s);
+            });
+        }
+
+        bench.done();
+    }
+
+    /**
+     * @return 1 if a block regex matches url and no allow regex does
+     */
+    private static int blocked(Pattern[] regexes, boolean[] allows, String url)
+    {
+        int blocked = 0;
+        for (int r = 0; r < regexes.length; r++) {
+            if (regexes[r].matcher(url).lookingAt()) {
+                if (allows[r]) {
+                    return 0;
+                }
+                blocked = 1;
+            }
+        }
+
+        return blocked;
+    }
+
+    private static String rule(int i, int count)
+    {
+        switch (i % 20) {
+            case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                return ".adhost" + i + ".com";
+            case 8: case 9: case 10:
+                return "*.trk" + i + ".net";
+            case 11: case 12:
+                return "site" + i % (count / 20 + 1) + ".org/ads" + i;
+            case 13: case 14:
+                return "*.site" + i % (count / 20 + 1) + ".org/ads" + i;
+            case 15: case 16:
+                return "/pixel" + i + "/track";
+            case 17: case 18:
+                return "?key" + i;
+            default:
+                return "@@.adhost" + (i - 19) + ".com/allowed";
+        }
+    }
+
+    /**
+     * Rewrite url to match rule at index i
+     */
+    private static String hit(String url, int i, int count)
+    {
+        int hostStart = url.indexOf("//") + 2;
+        int at = url.indexOf('@', hostStart);
+        int pathStart = url.indexOf('/', hostStart);
+        if (pathStart == -1) {
+            pathStart = url.length();
+        }
+        if (at != -1 && at < pathStart) {
+            hostStart = at + 1;
+        }
+
+        String head = url.substring(0, hostStart);
+        String rest = url.substring(pathStart);
+
+        switch (i % 20) {
+            case 8: case 9: case 10:
+                return head + "cdn.trk" + i + ".net" + rest;
+            case 11: case 13:
+                //Subdomain of site, only wildcard rules of site match it
+                return head + "www.site" + i % (count / 20 + 1) + ".org/ads" + i + "/banner.gif";
+            case 12: case 14:
+                return head + "site" + i % (count / 20 + 1) + ".org/ads" + i + "/banner.gif";
+            case 15: case 16:
+                return head + "pixel.example.com/pixel" + i + "/track/1.gif";
+            case 17: case 18:
+                return head + "api.example.com/v1?key" + i + "=1";
+            case 19:
+                return head + "www.adhost" + (i - 19) + ".com/allowed/1.js";
+            default:
+                return head + "www.adhost" + i + ".com" + rest;
+        }
+    }
+
+    /**
+     * Regex of a rule, matched from url start
+     */
+    private static String regex(String rule)
+    {
+        String s = rule.startsWith("@@") ? rule.substring(2) : rule;
+
+        StringBuilder sb = new StringBuilder();
+        int query = s.indexOf('?');
+        if (query != -1) {
+            for (String key : s.substring(query + 1).split("&")) {
+                sb.append("(?=[^#]*[?&]").append(Pattern.quote(key)).append("(?:[=&#]|$))");
+            }
+            s = s.substring(0, query);
+        }
+
+        int slash = s.indexOf('/');
+        String host = slash == -1 ? s : s.substring(0, slash);
+        String path = slash == -1 ? "" : s.substring(slash);
+
+        sb.append("[^:]+://(?:[^/?#@]*@)?");
+        if (host.isEmpty() || host.equals("*")) {
+            sb.append("[^/?#:]*");
+        }
+        else if (host.startsWith("*.")) {
+            sb.append("(?i)[^/?#:]+\\.").append(Pattern.quote(host.substring(2))).append("(?-i)");
+        }
+        else if (host.startsWith(".")) {
+            sb.append("(?i)(?:[^/?#:]+\\.)?").append(Pattern.quote(host.substring(1))).append("(?-i)");
+        }
+        else {
+            sb.append("(?i)").append(Pattern.quote(host)).append("(?-i)");
+        }
+        sb.append("(?::[0-9]*)?");
+
+        if (path.isEmpty()) {
+            sb.append("(?:[/?#]|$)");
+        }
+        else {
+            sb.append(Pattern.quote(path)).append("(?:[/?#]|$)");
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,83 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.EQ;
+import static jdk.incubator.vector.VectorOperators.GE;
+import static jdk.incubator.vector.VectorOperators.LE;
+import static jdk.incubator.vector.VectorOperators.LT;
+
+/**
+ * Vectorized implementation of URL.DelimiterScanner using incubating
+ * Vector API, compares 16 or 32 bytes at a time depending on platform.
+ *
+ * This class is optional, URL loads it reflectively and falls back to
+ * scalar loop if it is not compiled or jdk.incubator.vector module is not
+ * present. To enable it, compile and run with :
+ *
+ *     --add-modules jdk.incubator.vector
+ *
+ * Chars which need attention are found by comparing each lane against
+ * ranges and single chars below, rest of the chars are valid and carry no
+ * meaning for the parser, so they are skipped in bulk.
+ *
+ * Common special chars for both path and query :
+ *
+ *   c < 0x21                    control chars, space and non-ASCII bytes
+ *                               as bytes are signed
+ *   c >= '{' and c != '~'       '{' '|' '}' DEL
+ *   '[' <= c <= '^'             '[' '\' ']' '^'
+ *   '"' '#' '%' '<' '>' '`'
+ *
+ * Path also stops at '?', query at '&' and '='.
+ */
+final class VectorScanner implements URL.DelimiterScanner
+{
+    private static final VectorSpecies<Byte> SPECIES =
+            ByteVector.SPECIES_PREFERRED.vectorByteSize() > 32 ?
+                ByteVector.SPECIES_256 : ByteVector.SPECIES_PREFERRED;
+
+    private static VectorMask<Byte> common(ByteVector v)
+    {
+        return v.compare(LT, (byte) 0x21)
+                .or(v.compare(GE, (byte) '{').andNot(v.compare(EQ, (byte) '~')))
+                .or(v.compare(GE, (byte) '[').and(v.compare(LE, (byte) '^')))
+                .or(v.compare(EQ, (byte) '"'))
+                .or(v.compare(EQ, (byte) '#'))
+                .or(v.compare(EQ, (byte) '%'))
+                .or(v.compare(EQ, (byte) '<'))
+                .or(v.compare(EQ, (byte) '>'))
+                .or(v.compare(EQ, (byte) '`'));
+    }
+
+    @Override
+    public int skipPath(byte[] buf, int from, int to)
+    {
+        int i = from;
+        for (; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, i);
+            VectorMask<Byte> m = common(v).or(v.compare(EQ, (byte) '?'));
+            if (m.anyTrue()) {
+                return i + m.firstTrue();
+            }
+        }
+
+        return URL.DelimiterScanner.skipScalar(buf, i, to, URL.DelimiterScanner.PATH);
+    }
+
+    @Override
+    public int skipQuery(byte[] buf, int from, int to)
+    {
+        int i = from;
+        for (; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, i);
+            VectorMask<Byte> m = common(v).or(v.compare(EQ, (byte) '&'))
+                                          .or(v.compare(EQ, (byte) '='));
+            if (m.anyTrue()) {
+                return i + m.firstTrue();
+            }
+        }
+
+        return URL.DelimiterScanner.skipScalar(buf, i, to, URL.DelimiterScanner.QUERY);
+    }
+}